@@ -0,0 +1,125 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.verymuchme.appconfig.BooleanConstant;
+import com.verymuchme.appconfig.BooleanHandle;
+import com.verymuchme.appconfig.ConfigurationCommonsConfiguration;
+import com.verymuchme.appconfig.ConfigurationSnapshot;
+import com.verymuchme.appconfig.ConfigurationSnapshotBuilder;
+import com.verymuchme.appconfig.ReloadableConfiguration;
+
+/**
+ * Cost of reading a boolean feature toggle through the different access paths
+ *
+ * The commons configuration baseline is ConfigurationCommonsConfiguration.getBoolean. The constant variants read through a
+ * MutableCallSite - via a static final invoker the JIT can fold the value entirely.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConstantReadBenchmark {
+
+  static final String FEATURE_KEY = "feature.enabled";
+
+  static final int FILLER_KEYS = 200;
+
+  /*
+   * Configurations and accessors for the constant variants - static final so the JIT sees them as constants
+   */
+  static final ConfigurationCommonsConfiguration COMMONS_CONFIGURATION = commonsConfiguration();
+  static final ConfigurationSnapshot SNAPSHOT = snapshot();
+  static final ReloadableConfiguration RELOADABLE_CONFIGURATION = new ReloadableConfiguration(SNAPSHOT);
+  static final BooleanHandle FEATURE_HANDLE = RELOADABLE_CONFIGURATION.booleanHandle(FEATURE_KEY);
+  static final BooleanConstant FEATURE_CONSTANT = RELOADABLE_CONFIGURATION.booleanConstant(FEATURE_KEY, false);
+  static final MethodHandle FEATURE = FEATURE_CONSTANT.invoker();
+
+  @Benchmark
+  public boolean commonsGetBoolean() {
+    return COMMONS_CONFIGURATION.getBoolean(FEATURE_KEY);
+  }
+
+  @Benchmark
+  public boolean snapshotGetBoolean() {
+    return SNAPSHOT.getBoolean(FEATURE_KEY);
+  }
+
+  @Benchmark
+  public boolean handleGet() {
+    return FEATURE_HANDLE.get();
+  }
+
+  @Benchmark
+  public boolean constantGet() {
+    return FEATURE_CONSTANT.get();
+  }
+
+  @Benchmark
+  public boolean constantInvokeExact() throws Throwable {
+    return (boolean) FEATURE.invokeExact();
+  }
+
+  /*
+   * Branch on the toggle - with a folded constant the untaken branch disappears
+   */
+  @Benchmark
+  public int commonsBranch() {
+    return COMMONS_CONFIGURATION.getBoolean(FEATURE_KEY) ? 1 : 2;
+  }
+
+  @Benchmark
+  public int constantBranch() throws Throwable {
+    return (boolean) FEATURE.invokeExact() ? 1 : 2;
+  }
+
+  static ConfigurationCommonsConfiguration commonsConfiguration() {
+    ConfigurationCommonsConfiguration configuration = new ConfigurationCommonsConfiguration();
+    for (int i = 0; i < FILLER_KEYS; i++) {
+      configuration.setProperty(String.format("filler.key.%d", i), String.format("value%d", i));
+    }
+    configuration.setProperty(FEATURE_KEY, "true");
+    return configuration;
+  }
+
+  static ConfigurationSnapshot snapshot() {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    for (int i = 0; i < FILLER_KEYS; i++) {
+      builder.setProperty(String.format("filler.key.%d", i), String.format("value%d", i));
+    }
+    builder.setProperty(FEATURE_KEY, "true");
+    return builder.build();
+  }
+
+}
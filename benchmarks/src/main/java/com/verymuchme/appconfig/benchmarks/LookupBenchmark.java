@@ -0,0 +1,228 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig.benchmarks;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.CombinedConfiguration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.tree.OverrideCombiner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.verymuchme.appconfig.Configuration;
+import com.verymuchme.appconfig.ConfigurationCommonsConfiguration;
+import com.verymuchme.appconfig.ConfigurationSnapshot;
+
+/**
+ * Cost of Configuration lookups - hits and misses, typed conversions, list values, key iteration and subsets
+ *
+ * The configuration combines several property sources, the way the generated configuration definition does, so a miss has
+ * every source to walk. Each benchmark runs against the implementations selected by the implementation parameter:
+ * <ul>
+ * <li>commons - ConfigurationCommonsConfiguration with the missing key filter</li>
+ * <li>commonsUnfiltered - ConfigurationCommonsConfiguration without the missing key filter, as built by default</li>
+ * <li>snapshot - ConfigurationSnapshot</li>
+ * </ul>
+ * The concurrent* benchmarks repeat the basic lookups with several threads. Run through BenchmarkRunner to get allocation rates as well.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+  static final int SOURCES = 4;
+
+  static final int CONCURRENT_THREADS = 4;
+
+  @Param({"commons", "commonsUnfiltered", "snapshot"})
+  public String implementation;
+
+  @Param({"250"})
+  public int keysPerSource;
+
+  private Configuration configuration;
+
+  private Configuration subset;
+
+  private String[] hitKeys;
+
+  private String[] missKeys;
+
+  private String[] intKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    CombinedConfiguration combinedConfiguration = new CombinedConfiguration(new OverrideCombiner());
+    for (int source = 0; source < SOURCES; source++) {
+      PropertiesConfiguration properties = new PropertiesConfiguration();
+      for (int i = 0; i < this.keysPerSource; i++) {
+        properties.setProperty(String.format("source%d.group%d.string%d", source, i % 10, i), String.format("value %d of source %d", i, source));
+        properties.setProperty(String.format("source%d.group%d.int%d", source, i % 10, i), Integer.toString(i * 31));
+      }
+      properties.setProperty(String.format("source%d.hosts", source), "alpha,beta,gamma,delta");
+      combinedConfiguration.addConfiguration(properties);
+    }
+    if ("snapshot".equals(this.implementation)) {
+      this.configuration = ConfigurationSnapshot.fromConfiguration(combinedConfiguration);
+    }
+    else {
+      this.configuration = new ConfigurationCommonsConfiguration(combinedConfiguration, "commons".equals(this.implementation));
+    }
+    this.subset = this.configuration.subset("source1.group3");
+
+    this.hitKeys = new String[64];
+    this.missKeys = new String[64];
+    this.intKeys = new String[64];
+    for (int i = 0; i < 64; i++) {
+      int source = i % SOURCES;
+      int key = (i * 7) % this.keysPerSource;
+      this.hitKeys[i] = String.format("source%d.group%d.string%d", source, key % 10, key);
+      this.intKeys[i] = String.format("source%d.group%d.int%d", source, key % 10, key);
+      this.missKeys[i] = String.format("source%d.group%d.override%d", source, key % 10, key);
+    }
+  }
+
+  /**
+   * Position in the key arrays, one per thread so concurrent runs don't contend on a shared index
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    private int position = 0;
+
+    /*
+     * Next index into the key arrays - cycles so lookups don't hit a single key
+     */
+    int next() {
+      return this.position = (this.position + 1) & 63;
+    }
+
+  }
+
+  @Benchmark
+  public String getStringHit(Cursor cursor) {
+    return this.configuration.getString(this.hitKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public String getStringMiss(Cursor cursor) {
+    return this.configuration.getString(this.missKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public boolean containsKeyHit(Cursor cursor) {
+    return this.configuration.containsKey(this.hitKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public boolean containsKeyMiss(Cursor cursor) {
+    return this.configuration.containsKey(this.missKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public int getIntHit(Cursor cursor) {
+    return this.configuration.getInt(this.intKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public int getIntMissWithDefault(Cursor cursor) {
+    return this.configuration.getInt(this.missKeys[cursor.next()], -1);
+  }
+
+  @Benchmark
+  public long getLongHit(Cursor cursor) {
+    return this.configuration.getLong(this.intKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public double getDoubleHit(Cursor cursor) {
+    return this.configuration.getDouble(this.intKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  public List<Object> getList() {
+    return this.configuration.getList("source2.hosts");
+  }
+
+  @Benchmark
+  public void getKeysPrefix(Blackhole blackhole) {
+    Iterator<String> keys = this.configuration.getKeys("source3.group5");
+    while (keys.hasNext()) {
+      blackhole.consume(keys.next());
+    }
+  }
+
+  @Benchmark
+  public void getKeysAll(Blackhole blackhole) {
+    Iterator<String> keys = this.configuration.getKeys();
+    while (keys.hasNext()) {
+      blackhole.consume(keys.next());
+    }
+  }
+
+  @Benchmark
+  public Configuration subset() {
+    return this.configuration.subset("source2.group7");
+  }
+
+  @Benchmark
+  public String subsetGetString() {
+    return this.subset.getString("string13");
+  }
+
+  /*
+   * Concurrent variants - the configuration is shared, each thread has its own cursor
+   */
+  @Benchmark
+  @Threads(CONCURRENT_THREADS)
+  public String concurrentGetStringHit(Cursor cursor) {
+    return this.configuration.getString(this.hitKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  @Threads(CONCURRENT_THREADS)
+  public String concurrentGetStringMiss(Cursor cursor) {
+    return this.configuration.getString(this.missKeys[cursor.next()]);
+  }
+
+  @Benchmark
+  @Threads(CONCURRENT_THREADS)
+  public int concurrentGetIntHit(Cursor cursor) {
+    return this.configuration.getInt(this.intKeys[cursor.next()]);
+  }
+
+}
@@ -0,0 +1,104 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.verymuchme.appconfig.ConfigurationSnapshot;
+import com.verymuchme.appconfig.ConfigurationSnapshotBuilder;
+import com.verymuchme.appconfig.ReloadableConfiguration;
+
+/**
+ * Read throughput of a ReloadableConfiguration with and without a thread publishing new configurations continuously
+ *
+ * reads is the baseline. readsDuringReloads runs the same readers with one reloader thread - compare the
+ * readsDuringReloads:read score with reads to see what continuous reloads cost the readers.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ReloadBenchmark {
+
+  static final int READER_THREADS = 3;
+
+  static final int GENERATIONS = 16;
+
+  static final int FILLER_KEYS = 200;
+
+  private ConfigurationSnapshot[] generations;
+
+  private ReloadableConfiguration configuration;
+
+  private int generation = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.generations = new ConfigurationSnapshot[GENERATIONS];
+    for (int i = 0; i < GENERATIONS; i++) {
+      ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+      for (int j = 0; j < FILLER_KEYS; j++) {
+        builder.setProperty(String.format("filler.key.%d", j), String.format("value%d", j));
+      }
+      builder.setProperty("generation", Integer.toString(i));
+      this.generations[i] = builder.build();
+    }
+    this.configuration = new ReloadableConfiguration(this.generations[0]);
+  }
+
+  @Benchmark
+  @Group("reads")
+  @GroupThreads(READER_THREADS)
+  public String readOnly() {
+    return this.configuration.getString("filler.key.17");
+  }
+
+  @Benchmark
+  @Group("readsDuringReloads")
+  @GroupThreads(READER_THREADS)
+  public String read() {
+    return this.configuration.getString("filler.key.17");
+  }
+
+  @Benchmark
+  @Group("readsDuringReloads")
+  @GroupThreads(1)
+  public Object reload() {
+    // Only the reloader thread writes the generation
+    this.generation = (this.generation + 1) % GENERATIONS;
+    return this.configuration.publish(this.generations[this.generation]);
+  }
+
+}
@@ -0,0 +1,291 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+import com.verymuchme.appconfig.AppConfig;
+import com.verymuchme.appconfig.ConfigurationBuilder;
+import com.verymuchme.appconfig.ConfigurationBuilderFactory;
+import com.verymuchme.appconfig.ConfigurationHelper;
+import com.verymuchme.appconfig.ExtendedProperties;
+import com.verymuchme.appconfig.InternalConfigurationConstants;
+import com.verymuchme.appconfig.LoggingHelper;
+import com.verymuchme.appconfig.LoggingHelperFactory;
+import com.verymuchme.appconfig.Options;
+
+/**
+ * Startup benchmark for AppConfig.configure()
+ *
+ * Reports the median and tail of the configure sequence, broken down by phase, in two settings:
+ * <ul>
+ * <li>cold - every run in a fresh JVM, so class loading, static initialization and interpretation are included.
+ *     The JVM wall time, from process start to exit, is reported as well</li>
+ * <li>warm - repeated runs in this JVM after a warm-up</li>
+ * </ul>
+ *
+ * The phases are timed by running the steps of AppConfig.configure() one by one through the public API, in the same order.
+ * Since that replicates configure() rather than instrumenting it, configure() itself is timed in separate runs as well.
+ *
+ * Usage: java -cp target/benchmarks.jar com.verymuchme.appconfig.benchmarks.StartupBenchmark [--cold runs] [--warm runs] [--warmup runs]
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class StartupBenchmark {
+
+  /*
+   * Package holding the application and database configuration used for the runs
+   */
+  static final String PROPERTIES_PACKAGE_NAME = "com.verymuchme.appconfig.benchmarks.startup";
+
+  static final String RUN_TIME_ENVIRONMENT = "production";
+
+  static final String LOGGING_LEVEL = "ERROR";
+
+  /*
+   * Marks the result line written by a child JVM
+   */
+  static final String RESULT_PREFIX = "STARTUP-TIMINGS ";
+
+  static final String[] PHASES = {"bootstrapLogging", "internalProperties", "internalLogging", "buildConfiguration", "applicationLogging", "allPhases"};
+
+  static final String CONFIGURE = "configure";
+
+  static final String JVM = "jvm";
+
+  public static void main(String[] args) throws Exception {
+    int coldRuns = 20;
+    int warmRuns = 200;
+    int warmupRuns = 50;
+    for (int i = 0; i < args.length; i++) {
+      if ("--child".equals(args[i])) {
+        runChild(args[++i]);
+        return;
+      }
+      else if ("--cold".equals(args[i])) {
+        coldRuns = Integer.parseInt(args[++i]);
+      }
+      else if ("--warm".equals(args[i])) {
+        warmRuns = Integer.parseInt(args[++i]);
+      }
+      else if ("--warmup".equals(args[i])) {
+        warmupRuns = Integer.parseInt(args[++i]);
+      }
+      else {
+        System.err.println("Usage: StartupBenchmark [--cold runs] [--warm runs] [--warmup runs]");
+        System.exit(1);
+      }
+    }
+    if (coldRuns > 0) {
+      runCold(coldRuns);
+    }
+    if (warmRuns > 0) {
+      runWarm(warmupRuns, warmRuns);
+    }
+  }
+
+  /*
+   * Each run in a fresh JVM - alternately timing the phases and configure()
+   */
+  static void runCold(int runs) throws Exception {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    String classPath = System.getProperty("java.class.path");
+    long[][] phaseSamples = new long[PHASES.length][runs];
+    long[] configureSamples = new long[runs];
+    long[] jvmSamples = new long[runs * 2];
+    for (int run = 0; run < runs * 2; run++) {
+      boolean phases = run % 2 == 0;
+      ProcessBuilder processBuilder = new ProcessBuilder(java, "-cp", classPath, StartupBenchmark.class.getName(), "--child", phases ? "phases" : CONFIGURE);
+      processBuilder.redirectErrorStream(true);
+      long start = System.nanoTime();
+      Process process = processBuilder.start();
+      long[] timings = null;
+      BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(RESULT_PREFIX)) {
+          timings = parseTimings(line.substring(RESULT_PREFIX.length()));
+        }
+      }
+      reader.close();
+      int exitCode = process.waitFor();
+      jvmSamples[run] = System.nanoTime() - start;
+      if (exitCode != 0 || timings == null) {
+        throw new IllegalStateException(String.format("Startup run %d failed with exit code %d", run, exitCode));
+      }
+      if (phases) {
+        for (int phase = 0; phase < PHASES.length; phase++) {
+          phaseSamples[phase][run / 2] = timings[phase];
+        }
+      }
+      else {
+        configureSamples[run / 2] = timings[0];
+      }
+    }
+    report(String.format("Cold start - fresh JVM per run, %d runs each", runs), phaseSamples, configureSamples, jvmSamples);
+  }
+
+  /*
+   * Repeated runs in this JVM after warming up
+   */
+  static void runWarm(int warmupRuns, int runs) {
+    for (int run = 0; run < warmupRuns; run++) {
+      runPhases();
+      runConfigure();
+    }
+    long[][] phaseSamples = new long[PHASES.length][runs];
+    long[] configureSamples = new long[runs];
+    for (int run = 0; run < runs; run++) {
+      long[] timings = runPhases();
+      for (int phase = 0; phase < PHASES.length; phase++) {
+        phaseSamples[phase][run] = timings[phase];
+      }
+      configureSamples[run] = runConfigure();
+    }
+    report(String.format("Warm JVM - %d runs each after %d warm-up runs", runs, warmupRuns), phaseSamples, configureSamples, null);
+  }
+
+  /*
+   * Child JVM - one run, timings written to standard output
+   */
+  static void runChild(String mode) {
+    long[] timings = CONFIGURE.equals(mode) ? new long[] {runConfigure()} : runPhases();
+    StringBuilder result = new StringBuilder(RESULT_PREFIX);
+    for (int i = 0; i < timings.length; i++) {
+      result.append(i == 0 ? "" : ",").append(timings[i]);
+    }
+    System.out.println(result);
+  }
+
+  static Options options() {
+    Options options = new Options();
+    options.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME, RUN_TIME_ENVIRONMENT);
+    options.setProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME, LOGGING_LEVEL);
+    options.setProperty(InternalConfigurationConstants.DEFAULT_BOOTSTRAP_LOGGING_LEVEL_PROPERTY_NAME, LOGGING_LEVEL);
+    return options;
+  }
+
+  /*
+   * Time AppConfig.configure() as a whole
+   */
+  static long runConfigure() {
+    long start = System.nanoTime();
+    AppConfig appConfig = new AppConfig();
+    appConfig.setApplicationPropertiesPackageName(PROPERTIES_PACKAGE_NAME);
+    appConfig.setOptions(options());
+    appConfig.configure();
+    long elapsed = System.nanoTime() - start;
+    if (appConfig.getConfiguration().getInt("app.pool.size") != 32) {
+      throw new IllegalStateException("Unexpected configuration contents");
+    }
+    return elapsed;
+  }
+
+  /*
+   * Time the steps of AppConfig.configure() one by one. Keep in step with configure()
+   */
+  static long[] runPhases() {
+    long[] timings = new long[PHASES.length];
+    Options options = options();
+    options.put(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_NAME_PROPERTY_NAME, PROPERTIES_PACKAGE_NAME);
+    options.put(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_DIR_PROPERTY_NAME, PROPERTIES_PACKAGE_NAME.replace('.', '/'));
+    ConfigurationHelper configurationHelper = new ConfigurationHelper();
+    long start = System.nanoTime();
+    long phaseStart = start;
+
+    LoggingHelper loggingHelper = LoggingHelperFactory.instance(options);
+    loggingHelper.bootstrapInternalLogging(LOGGING_LEVEL);
+    AppConfig.setActiveLogger();
+    ConfigurationHelper.setActiveLogger();
+    ExtendedProperties.setActiveLogger();
+    long now = System.nanoTime();
+    timings[0] = now - phaseStart;
+    phaseStart = now;
+
+    ExtendedProperties internalProperties = configurationHelper.loadInternalProperties(options);
+    configurationHelper.checkRunTimeEnvironment(internalProperties);
+    now = System.nanoTime();
+    timings[1] = now - phaseStart;
+    phaseStart = now;
+
+    loggingHelper.setExtendedProperties(internalProperties);
+    loggingHelper.configureLoggerFromConfigurationFile(internalProperties.getProperty(InternalConfigurationConstants.INTERNAL_LOGGING_CONFIGURATION_FILE_PROPERTY_NAME),
+        internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME));
+    loggingHelper.overrideLogLevel(AppConfig.class.getPackage().getName(), internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME));
+    now = System.nanoTime();
+    timings[2] = now - phaseStart;
+    phaseStart = now;
+
+    ConfigurationBuilder configurationBuilder = ConfigurationBuilderFactory.instance(internalProperties);
+    configurationBuilder.setInternalProperties(internalProperties);
+    if (configurationBuilder.buildConfiguration().getInt("app.pool.size") != 32) {
+      throw new IllegalStateException("Unexpected configuration contents");
+    }
+    now = System.nanoTime();
+    timings[3] = now - phaseStart;
+    phaseStart = now;
+
+    List<String> loggingConfigurationNames = configurationHelper.generateLoggingConfigurationNames(internalProperties);
+    loggingHelper.configureLoggerFromConfigurationFiles(loggingConfigurationNames);
+    now = System.nanoTime();
+    timings[4] = now - phaseStart;
+    timings[5] = now - start;
+    return timings;
+  }
+
+  static long[] parseTimings(String line) {
+    String[] fields = line.trim().split(",");
+    long[] timings = new long[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      timings[i] = Long.parseLong(fields[i]);
+    }
+    return timings;
+  }
+
+  static void report(String title, long[][] phaseSamples, long[] configureSamples, long[] jvmSamples) {
+    System.out.println();
+    System.out.println(title);
+    System.out.println(String.format("  %-20s %10s %10s %10s %10s   (milliseconds)", "phase", "median", "p90", "p99", "max"));
+    for (int phase = 0; phase < PHASES.length; phase++) {
+      reportLine(PHASES[phase], phaseSamples[phase]);
+    }
+    reportLine(CONFIGURE, configureSamples);
+    if (jvmSamples != null) {
+      reportLine(JVM, jvmSamples);
+    }
+  }
+
+  static void reportLine(String name, long[] samples) {
+    long[] sorted = samples.clone();
+    Arrays.sort(sorted);
+    System.out.println(String.format("  %-20s %10.3f %10.3f %10.3f %10.3f", name,
+        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[sorted.length - 1] / 1e6d));
+  }
+
+  /*
+   * Nearest-rank percentile of sorted samples, in milliseconds
+   */
+  static double percentile(long[] sorted, int percent) {
+    int rank = (int) Math.ceil(percent / 100d * sorted.length);
+    return sorted[Math.max(rank - 1, 0)] / 1e6d;
+  }
+
+}
@@ -0,0 +1,128 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig.maven;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.verymuchme.appconfig.AppConfigException;
+import com.verymuchme.appconfig.CompiledConfiguration;
+import com.verymuchme.appconfig.ConfigurationHelper;
+import com.verymuchme.appconfig.ExtendedProperties;
+import com.verymuchme.appconfig.InternalConfigurationConstants;
+import com.verymuchme.appconfig.Options;
+
+/**
+ * Compile the packaged configuration files of each run-time environment into a binary resource alongside them
+ * 
+ * Runs after the resources are copied, so the compiled resources end up in the jar. At run time, set 
+ * 'com.verymuchme.appconfig.compiledConfiguration.enabled = true' (with snapshots enabled and ConfigurationBuilderDirect) to use them.
+ * 
+ * <pre>
+ *   &lt;plugin&gt;
+ *     &lt;groupId&gt;com.verymuchme.appconfig&lt;/groupId&gt;
+ *     &lt;artifactId&gt;app_config-maven-plugin&lt;/artifactId&gt;
+ *     &lt;version&gt;4.0.1&lt;/version&gt;
+ *     &lt;configuration&gt;
+ *       &lt;applicationPropertiesPackageName&gt;com.example.config&lt;/applicationPropertiesPackageName&gt;
+ *     &lt;/configuration&gt;
+ *     &lt;executions&gt;
+ *       &lt;execution&gt;
+ *         &lt;goals&gt;&lt;goal&gt;compile-configuration&lt;/goal&gt;&lt;/goals&gt;
+ *       &lt;/execution&gt;
+ *     &lt;/executions&gt;
+ *   &lt;/plugin&gt;
+ * </pre>
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+@Mojo(name = "compile-configuration", defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
+public class CompileConfigurationMojo extends AbstractMojo {
+
+  /*
+   * Directory holding the packaged configuration files
+   */
+  @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+  private File classesDirectory;
+
+  /*
+   * Package holding the configuration files - as passed to AppConfig.setApplicationPropertiesPackageName
+   */
+  @Parameter(required = true)
+  private String applicationPropertiesPackageName;
+
+  /*
+   * Run-time environments to compile. Defaults to 'com.verymuchme.appconfig.permittedRunTimeEnvironments'
+   */
+  @Parameter
+  private List<String> runTimeEnvironments;
+
+  /*
+   * Other AppConfig settings the application uses - e.g. a different 'com.verymuchme.appconfig.applicationConfigurationPrefix'.
+   * Only these settings apply - system properties and environment variables of the build are ignored
+   */
+  @Parameter
+  private Map<String,String> settings;
+
+  @Parameter(property = "app_config.compile.skip", defaultValue = "false")
+  private boolean skip;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (this.skip) {
+      getLog().info("Skipping configuration compilation");
+      return;
+    }
+    List<String> environments = this.runTimeEnvironments;
+    if (environments == null || environments.isEmpty()) {
+      ExtendedProperties.setActiveLogger();
+      ConfigurationHelper.setActiveLogger();
+      ExtendedProperties internalProperties = new ConfigurationHelper().loadInternalPropertiesFromOptions(createOptions());
+      environments = internalProperties.getListProperty(InternalConfigurationConstants.PERMITTED_RUN_TIME_ENVIRONMENTS_PROPERTY_NAME);
+    }
+    for (String environment : environments) {
+      Options options = createOptions();
+      options.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME, environment);
+      try {
+        File compiledFile = CompiledConfiguration.compile(options, this.classesDirectory);
+        getLog().info(String.format("Compiled %s configuration to %s", environment, compiledFile));
+      }
+      catch (AppConfigException e) {
+        throw new MojoExecutionException(String.format("Failed to compile %s configuration: %s", environment, e.getMessage()), e);
+      }
+    }
+  }
+
+  private Options createOptions() {
+    Options options = new Options();
+    if (this.settings != null) {
+      for (Map.Entry<String,String> setting : this.settings.entrySet()) {
+        options.setProperty(setting.getKey(), setting.getValue());
+      }
+    }
+    options.setProperty(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_NAME_PROPERTY_NAME, this.applicationPropertiesPackageName);
+    return options;
+  }
+
+}
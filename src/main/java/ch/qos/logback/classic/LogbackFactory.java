@@ -3,8 +3,14 @@ package ch.qos.logback.classic;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.Logger;
 
+import org.slf4j.ILoggerFactory;
+
 public class LogbackFactory {
 
+	/*
+	 * Logger context used when slf4j isn't bound to Logback
+	 */
+	private static LoggerContext standaloneLoggerContext = null;
 	
 	/**
 	 * Get a Logback logger
@@ -25,8 +31,19 @@ public class LogbackFactory {
 	 * @return Logback logger instance
 	 */
 	public static Logger getLogger(String className) {
-		LoggerContext loggerContext = (LoggerContext) org.slf4j.LoggerFactory.getILoggerFactory();
+		ILoggerFactory loggerFactory = org.slf4j.LoggerFactory.getILoggerFactory();
+		LoggerContext loggerContext = loggerFactory instanceof LoggerContext ? (LoggerContext) loggerFactory : getStandaloneLoggerContext();
 		Logger logger = loggerContext.getLogger(className);
 		return logger;
 	}
+	
+	/*
+	 * Create the standalone logger context on first use - e.g. when running inside Maven, where slf4j is bound to Maven's own logging
+	 */
+	private static synchronized LoggerContext getStandaloneLoggerContext() {
+		if (standaloneLoggerContext == null) {
+			standaloneLoggerContext = new LoggerContext();
+		}
+		return standaloneLoggerContext;
+	}
 }
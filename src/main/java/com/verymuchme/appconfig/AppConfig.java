@@ -14,6 +14,7 @@
  */
 package com.verymuchme.appconfig;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 
@@ -62,9 +63,25 @@ public class AppConfig {
   private ExtendedProperties internalProperties = null;
 
   /*
-   * Private copy of Configuration object returned
+   * Private copy of Configuration object returned - contents are swapped atomically on reload
    */
-  private Configuration configuration = null;
+  private volatile ReloadableConfiguration configuration = null;
+
+  /*
+   * Serializes configuration builds. Readers never take this lock
+   */
+  private final Object reloadLock = new Object();
+
+  /*
+   * Timings of the last configure() and reload()
+   */
+  private volatile ConfigurationTimings configurationTimings = null;
+  private volatile ConfigurationTimings reloadTimings = null;
+
+  /*
+   * Watcher for the external configuration directory - null unless watching is enabled
+   */
+  private ExternalConfigurationWatcher externalConfigurationWatcher = null;
   
   /*
    * Base application package name with which to locate application property files 
@@ -126,16 +143,24 @@ public class AppConfig {
    */
   public void configure() {
     
+    ConfigurationTimings timings = new ConfigurationTimings("configure");
+    this.configurationTimings = timings;
 
     // Configure initial logging using internal defaults. Allow override for initial logging level
-    String logLevelOverride = (String) this.configurationHelper.getSettingFromOptionsEnvSystem(InternalConfigurationConstants.DEFAULT_BOOTSTRAP_LOGGING_LEVEL_PROPERTY_NAME, this.options);
-    this.loggingHelper.bootstrapInternalLogging(logLevelOverride);
+    ConfigurationTimings.Phase phase = timings.start(ConfigurationTimings.BOOTSTRAP_INTERNAL_LOGGING);
+    try {
+      String logLevelOverride = (String) this.configurationHelper.getSettingFromOptionsEnvSystem(InternalConfigurationConstants.DEFAULT_BOOTSTRAP_LOGGING_LEVEL_PROPERTY_NAME, this.options);
+      this.loggingHelper.bootstrapInternalLogging(logLevelOverride);
 
-    // Activate loggers needed for configuration sequence
-    AppConfig.setActiveLogger();
-    AppConfigUtils.setActiveLogger();
-    ConfigurationHelper.setActiveLogger();
-    ExtendedProperties.setActiveLogger();
+      // Activate loggers needed for configuration sequence
+      AppConfig.setActiveLogger();
+      AppConfigUtils.setActiveLogger();
+      ConfigurationHelper.setActiveLogger();
+      ExtendedProperties.setActiveLogger();
+    }
+    finally {
+      phase.stop();
+    }
 
     logger.trace(String.format("AppConfig.configure Added bootstrap internal logging"));
 
@@ -147,19 +172,37 @@ public class AppConfig {
       String packageDir = this.applicationPropertiesPackageName.replaceAll("\\.", "/");
       this.options.put(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_DIR_PROPERTY_NAME, packageDir);
     }
-    this.internalProperties = this.configurationHelper.loadInternalProperties(this.options);
+    phase = timings.start(ConfigurationTimings.LOAD_INTERNAL_PROPERTIES);
+    try {
+      this.internalProperties = this.configurationHelper.loadInternalProperties(this.options);
+    }
+    finally {
+      phase.stop();
+    }
 
     // Make sure the runtime environment is set
-    this.configurationHelper.checkRunTimeEnvironment(this.internalProperties);
+    phase = timings.start(ConfigurationTimings.CHECK_RUN_TIME_ENVIRONMENT);
+    try {
+      this.configurationHelper.checkRunTimeEnvironment(this.internalProperties);
+    }
+    finally {
+      phase.stop();
+    }
     
     logger.trace(String.format("AppConfig.configure runtime options and internal properties"));
 
     // Load the real internal logger configuration
-    String loggingConfigurationFileName = internalProperties.getProperty(InternalConfigurationConstants.INTERNAL_LOGGING_CONFIGURATION_FILE_PROPERTY_NAME);
-    String loggingLevel = internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME);
-    this.loggingHelper.setExtendedProperties(this.internalProperties);
-    this.loggingHelper.configureLoggerFromConfigurationFile(loggingConfigurationFileName,loggingLevel);
-    this.loggingHelper.overrideLogLevel(this.getClass().getPackage().getName(), loggingLevel);
+    phase = timings.start(ConfigurationTimings.CONFIGURE_INTERNAL_LOGGING);
+    try {
+      String loggingConfigurationFileName = internalProperties.getProperty(InternalConfigurationConstants.INTERNAL_LOGGING_CONFIGURATION_FILE_PROPERTY_NAME);
+      String loggingLevel = internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME);
+      this.loggingHelper.setExtendedProperties(this.internalProperties);
+      this.loggingHelper.configureLoggerFromConfigurationFile(loggingConfigurationFileName,loggingLevel);
+      this.loggingHelper.overrideLogLevel(this.getClass().getPackage().getName(), loggingLevel);
+    }
+    finally {
+      phase.stop();
+    }
 
     // Generate the configuration
     // Get a ConfigurationBuilder
@@ -167,15 +210,221 @@ public class AppConfig {
       this.configurationBuilder = ConfigurationBuilderFactory.instance(this.internalProperties);
     }
     this.configurationBuilder.setInternalProperties(this.internalProperties);
-    // Now generate the actual configuration
-    this.configuration = this.configurationBuilder.buildConfiguration();
+    // Now generate the actual configuration - unless a saved snapshot of it is still current
+    SnapshotCacheFile snapshotCacheFile = createSnapshotCacheFile();
+    Configuration builtConfiguration = readSnapshotCache(snapshotCacheFile, timings);
+    if (builtConfiguration == null) {
+      builtConfiguration = buildConfiguration(timings);
+      writeSnapshotCache(snapshotCacheFile, builtConfiguration, timings);
+    }
+    if (builtConfiguration == null) {
+      logger.warn(String.format("AppConfig.configure configuration builder %s did not build a configuration", this.configurationBuilder.getClass().getName()));
+      this.configuration = null;
+    }
+    else {
+      publishConfiguration(builtConfiguration);
+    }
 
     logger.trace(String.format("AppConfig.configure Generated configuration definitions"));
 
+    // Watch the external configuration directory if requested
+    startExternalConfigurationWatcher();
+
     // Configure application-level logging
-    List<String> applicationLoggerConfigurationFileNames = this.configurationHelper.generateLoggingConfigurationNames(this.internalProperties);
-    this.loggingHelper.configureLoggerFromConfigurationFiles(applicationLoggerConfigurationFileNames);
+    phase = timings.start(ConfigurationTimings.APPLICATION_LOGGING);
+    try {
+      List<String> applicationLoggerConfigurationFileNames = this.configurationHelper.generateLoggingConfigurationNames(this.internalProperties);
+      this.loggingHelper.configureLoggerFromConfigurationFiles(applicationLoggerConfigurationFileNames);
+    }
+    finally {
+      phase.stop();
+    }
     logger.trace(String.format("AppConfig.configure loaded application logging"));
+    logger.debug(String.format("AppConfig.configure timings %s", timings));
+  }
+
+  /**
+   * Reload the configuration
+   * 
+   * A complete new configuration is built from the same internal settings while the current one stays in service. 
+   * It is then published with a single atomic swap. Readers of getConfiguration() are never blocked and never see a partially built configuration.
+   * Concurrent reloads are serialized - each one builds and publishes before the next starts.
+   */
+  public void reload() {
+    if (this.configuration == null) {
+      String errorMessage = "AppConfig.reload configure() must be called before reload()";
+      logger.error(errorMessage);
+      throw new AppConfigException(errorMessage);
+    }
+    // Build and publish under one lock, so an overlapping reload can't publish an older configuration last
+    synchronized (this.reloadLock) {
+      ConfigurationTimings timings = new ConfigurationTimings("reload");
+      this.reloadTimings = timings;
+      Configuration reloadedConfiguration = buildConfiguration(timings);
+      if (reloadedConfiguration == null) {
+        String errorMessage = "AppConfig.reload configuration builder failed to build a configuration";
+        logger.error(errorMessage);
+        throw new AppConfigException(errorMessage);
+      }
+      publishConfiguration(reloadedConfiguration);
+      logger.trace(String.format("AppConfig.reload published reloaded configuration"));
+      logger.debug(String.format("AppConfig.reload timings %s", timings));
+    }
+  }
+
+  /**
+   * Get the phase timings of the last configure()
+   * 
+   * Phases are bootstrapInternalLogging, loadInternalProperties, checkRunTimeEnvironment, configureLoggerFromConfigurationFile,
+   * buildConfiguration (with nested phases from the configuration builder, e.g. templateRender, definitionParse, sourceLoad) and applicationLogging.
+   * If configure() failed, the phases that completed are available.
+   * 
+   * @return Timings, or null if configure() hasn't been called
+   */
+  public ConfigurationTimings getConfigurationTimings() {
+    return this.configurationTimings;
+  }
+
+  /**
+   * Get the phase timings of the last reload() - the buildConfiguration phase and its nested phases
+   * 
+   * @return Timings, or null if there has been no reload
+   */
+  public ConfigurationTimings getReloadTimings() {
+    return this.reloadTimings;
+  }
+
+  /**
+   * Release resources held by this instance - stops watching the external configuration directory
+   */
+  public synchronized void shutdown() {
+    if (this.externalConfigurationWatcher != null) {
+      this.externalConfigurationWatcher.stop();
+      this.externalConfigurationWatcher = null;
+    }
+  }
+
+  /**
+   * Get the watcher for the external configuration directory
+   * 
+   * @return Watcher instance, or null if the directory is not being watched
+   */
+  public ExternalConfigurationWatcher getExternalConfigurationWatcher() {
+    return this.externalConfigurationWatcher;
+  }
+
+  /*
+   * Start watching the external configuration directory if enabled. Any previous watcher is stopped first
+   */
+  private synchronized void startExternalConfigurationWatcher() {
+    shutdown();
+    String externalDirectory = this.internalProperties.getProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_DIRECTORY_PROPERTY_NAME);
+    boolean watchEnabled = this.internalProperties.getBooleanProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_WATCH_ENABLED_PROPERTY_NAME);
+    if (!watchEnabled || externalDirectory == null || this.configuration == null) {
+      return;
+    }
+    long quietPeriod = this.internalProperties.getDurationProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_WATCH_QUIET_PERIOD_PROPERTY_NAME, InternalConfigurationConstants.DEFAULT_EXTERNAL_CONFIGURATION_WATCH_QUIET_PERIOD);
+    List<String> fileNames = this.configurationHelper.generateExternalConfigurationNames(this.internalProperties);
+    this.externalConfigurationWatcher = new ExternalConfigurationWatcher(this, externalDirectory, fileNames, quietPeriod);
+    this.externalConfigurationWatcher.start();
+    logger.trace(String.format("AppConfig.startExternalConfigurationWatcher watching %s", externalDirectory));
+  }
+
+  /*
+   * Build a new configuration. Builds are serialized because ConfigurationBuilder instances are not thread safe
+   */
+  private Configuration buildConfiguration(ConfigurationTimings timings) {
+    synchronized (this.reloadLock) {
+      Configuration builtConfiguration = null;
+      ConfigurationTimings.Phase phase = timings.start(ConfigurationTimings.BUILD_CONFIGURATION);
+      try {
+        // Only builders derived from ConfigurationBuilderBase report their phases
+        if (this.configurationBuilder instanceof ConfigurationBuilderBase) {
+          ((ConfigurationBuilderBase) this.configurationBuilder).setConfigurationTimings(timings);
+        }
+        builtConfiguration = this.configurationBuilder.buildConfiguration();
+      }
+      finally {
+        phase.stop();
+      }
+      return builtConfiguration;
+    }
+  }
+
+  /*
+   * Get the snapshot cache file, or null if snapshot caching isn't in use
+   */
+  private SnapshotCacheFile createSnapshotCacheFile() {
+    String fileName = this.internalProperties.getProperty(InternalConfigurationConstants.SNAPSHOT_CACHE_FILE_NAME_PROPERTY_NAME);
+    if (fileName == null) {
+      return null;
+    }
+    if (!this.internalProperties.getBooleanProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME)) {
+      logger.warn(String.format("AppConfig.createSnapshotCacheFile snapshot cache file %s ignored - snapshots are not enabled", fileName));
+      return null;
+    }
+    if (!(this.configurationBuilder instanceof ConfigurationBuilderBase)) {
+      logger.warn(String.format("AppConfig.createSnapshotCacheFile snapshot cache file %s ignored - configuration builder %s can't describe its sources", fileName, this.configurationBuilder.getClass().getName()));
+      return null;
+    }
+    String definitionFingerprint = ((ConfigurationBuilderBase) this.configurationBuilder).getDefinitionFingerprint();
+    return new SnapshotCacheFile(new File(fileName), this.internalProperties, definitionFingerprint);
+  }
+
+  /*
+   * Read the cached snapshot. Null if there is no cache or it is out of date
+   */
+  private Configuration readSnapshotCache(SnapshotCacheFile snapshotCacheFile, ConfigurationTimings timings) {
+    if (snapshotCacheFile == null) {
+      return null;
+    }
+    Configuration cachedConfiguration = null;
+    ConfigurationTimings.Phase phase = timings.start(ConfigurationTimings.SNAPSHOT_CACHE_READ);
+    try {
+      cachedConfiguration = snapshotCacheFile.read();
+    }
+    finally {
+      phase.stop();
+    }
+    if (cachedConfiguration != null) {
+      logger.debug(String.format("AppConfig.readSnapshotCache configuration loaded from snapshot cache file %s", snapshotCacheFile.getFile()));
+    }
+    return cachedConfiguration;
+  }
+
+  /*
+   * Save a newly built snapshot for the next start
+   */
+  private void writeSnapshotCache(SnapshotCacheFile snapshotCacheFile, Configuration builtConfiguration, ConfigurationTimings timings) {
+    if (snapshotCacheFile == null || !(builtConfiguration instanceof ConfigurationSnapshot) || !(this.configurationBuilder instanceof ConfigurationBuilderBase)) {
+      return;
+    }
+    List<ConfigurationSource> buildSources = ((ConfigurationBuilderBase) this.configurationBuilder).getBuildSources();
+    if (buildSources == null) {
+      logger.debug("AppConfig.writeSnapshotCache configuration sources not known, snapshot not saved");
+      return;
+    }
+    ConfigurationTimings.Phase phase = timings.start(ConfigurationTimings.SNAPSHOT_CACHE_WRITE);
+    try {
+      snapshotCacheFile.write((ConfigurationSnapshot) builtConfiguration, buildSources);
+    }
+    finally {
+      phase.stop();
+    }
+  }
+
+  /*
+   * Make a newly built configuration visible to readers
+   */
+  private void publishConfiguration(Configuration newConfiguration) {
+    synchronized (this.reloadLock) {
+      if (this.configuration == null) {
+        this.configuration = new ReloadableConfiguration(newConfiguration);
+      }
+      else {
+        this.configuration.publish(newConfiguration);
+      }
+    }
   }
   
   
@@ -254,6 +503,8 @@ public class AppConfig {
    /**
     * Get the current configuration object
     * 
+    * The object returned is stable across reloads - it always reads from the most recently published configuration.
+    * 
     * @return Current configuration object
     */
    public Configuration getConfiguration() {
@@ -14,7 +14,11 @@
  */
 package com.verymuchme.appconfig;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -45,6 +49,11 @@ public class AppConfigUtils {
   
   public static final String STRING_VALUE_NULL = "null";
   
+  /*
+   * Characters with a special meaning in a regular expression
+   */
+  private static final String REGEX_META_CHARACTERS = "\\.[]{}()<>*+-=!?^$|";
+  
   /**
    * Get a string as a boolean. 
    * Returns the value true if the string argument is not null and is equal, ignoring case, to the string "true". 
@@ -134,9 +143,16 @@ public class AppConfigUtils {
    * @return Array of string values, or null if no values are present
    */
   public static ArrayList<String> getListValue(String value, String separator) {
-    ArrayList<String> returnList = new ArrayList<String>();
-    if (value != null && separator != null) {
+    if (value == null || separator == null) {
+      return null;
+    }
+    ArrayList<String> returnList = null;
+    if (isLiteralSeparator(separator)) {
+      returnList = ListValue.splitLiteral(value, separator);
+    }
+    else {
       String[] stringValues = value.split(separator);
+      returnList = new ArrayList<String>(stringValues.length);
       for (int i = 0 ; i < stringValues.length ; i++) {
         returnList.add(stringValues[i]);
       }
@@ -147,6 +163,21 @@ public class AppConfigUtils {
     return returnList;
   }
   
+  /*
+   * Does a separator match only itself as a regular expression, so it can be split on without the regex machinery
+   */
+  private static boolean isLiteralSeparator(String separator) {
+    if (separator.length() == 0) {
+      return false;
+    }
+    for (int i = 0; i < separator.length(); i++) {
+      if (REGEX_META_CHARACTERS.indexOf(separator.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
   /**
    * Try to convert an object to its corresponding string value via 'toString()' method
    * 
@@ -165,6 +196,40 @@ public class AppConfigUtils {
     return stringValue;
   }
   
+  /**
+   * Compute a SHA-256 digest of a file's contents
+   * 
+   * @param file File to digest
+   * @return Digest bytes, or null if the file does not exist or can't be read
+   */
+  public static byte[] digestFile(File file) {
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+    InputStream is = null;
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      is = new FileInputStream(file);
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = is.read(buffer)) > 0) {
+        messageDigest.update(buffer, 0, count);
+      }
+      return messageDigest.digest();
+    }
+    catch (Exception e) {
+      return null;
+    }
+    finally {
+      try {
+        is.close();
+      }
+      catch (Exception e) {
+        // Ignore
+      }
+    }
+  }
+  
   /**
    * Dump a properties file to System.out
    * 
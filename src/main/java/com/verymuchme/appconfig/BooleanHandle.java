@@ -0,0 +1,55 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+/**
+ * Precompiled accessor for a boolean configuration value - see ConfigurationHandle
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class BooleanHandle extends ConfigurationHandle {
+
+  /**
+   * Create a new handle
+   *
+   * @param configuration Configuration to read from
+   * @param key Property name
+   * @param hasDefault true if defaultValue applies when the key is missing
+   * @param defaultValue Value used when the key is missing
+   */
+  public BooleanHandle(Configuration configuration, String key, boolean hasDefault, boolean defaultValue) {
+    super(configuration, key, hasDefault, defaultValue ? 1L : 0L);
+  }
+
+  /**
+   * Get the current value
+   *
+   * @return Value for the current configuration version
+   * @throws java.util.NoSuchElementException if the key is missing and there is no default
+   * @throws org.apache.commons.configuration.ConversionException if the value can't be converted
+   */
+  public boolean get() {
+    return currentBits() != 0L;
+  }
+
+  @Override
+  protected Long readBits() {
+    Boolean value = this.configuration.getBoolean(this.key, (Boolean) null);
+    return value == null ? null : Long.valueOf(value.booleanValue() ? 1L : 0L);
+  }
+
+}
@@ -0,0 +1,238 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * The packaged configuration files of one run-time environment, parsed at build time into a single binary resource
+ * 
+ * The resource holds each packaged source - application and database, run-time environment and defaults - parsed but not merged or interpolated.
+ * Keeping the sources separate lets external files slot in between them at run time with the usual precedence, exactly as if the 
+ * packaged files had been parsed. The resource ends with a CRC32 of its contents.
+ * 
+ * Resources are written by the app_config Maven plugin, or by calling compile() directly, and are used by ConfigurationBuilderDirect when
+ * 'com.verymuchme.appconfig.compiledConfiguration.enabled' is set and snapshots are enabled.
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class CompiledConfiguration {
+
+  /*
+   * Logger instance for this class
+   */
+  private static final Logger logger = LogbackFactory.getLogger(CompiledConfiguration.class);
+
+  /*
+   * 'ACCC' - AppConfig compiled configuration
+   */
+  private static final int MAGIC = 0x41434343;
+
+  private static final int FORMAT_VERSION = 1;
+
+  /*
+   * Parsed sources by file name. A source that didn't exist at build time maps to null
+   */
+  private final HashMap<String,ConfigurationSnapshotBuilder> sources;
+
+  private CompiledConfiguration(HashMap<String,ConfigurationSnapshotBuilder> sources) {
+    this.sources = sources;
+  }
+
+  /**
+   * Get the name of the compiled configuration resource for a run-time environment
+   * 
+   * @param packageDirectory Application properties package directory - e.g. com/example/config
+   * @param runTimeEnvironment Run-time environment name
+   * @return Resource name
+   */
+  public static String resourceName(String packageDirectory, String runTimeEnvironment) {
+    return String.format("%s/appconfig-%s.compiled", packageDirectory, runTimeEnvironment);
+  }
+
+  /**
+   * Compile the packaged configuration files of a run-time environment
+   * 
+   * @param options Settings, as passed to AppConfig. Must include the application properties package name and the run-time environment.
+   * System properties and environment variables of the build are ignored - they would be baked into every deployment
+   * @param classesDirectory Directory holding the packaged configuration files - the compiled resource is written there too
+   * @return Compiled resource file
+   */
+  public static File compile(Options options, File classesDirectory) {
+    ConfigurationHelper.setActiveLogger();
+    ExtendedProperties.setActiveLogger();
+    String packageName = options.getString(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_NAME_PROPERTY_NAME);
+    if (packageName == null) {
+      String errorMessage = "AppConfig.CompiledConfiguration.compile application properties package name is not set";
+      logger.error(errorMessage);
+      throw new AppConfigException(errorMessage);
+    }
+    String packageDirectory = packageName.replaceAll("\\.", "/");
+    options.put(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_DIR_PROPERTY_NAME, packageDirectory);
+    ExtendedProperties internalProperties = new ConfigurationHelper().loadInternalPropertiesFromOptions(options);
+    String runTimeEnvironment = internalProperties.getProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME);
+    if (runTimeEnvironment == null || !internalProperties.getListProperty(InternalConfigurationConstants.PERMITTED_RUN_TIME_ENVIRONMENTS_PROPERTY_NAME).contains(runTimeEnvironment)) {
+      String errorMessage = String.format("AppConfig.CompiledConfiguration.compile run-time environment '%s' is not permitted", runTimeEnvironment);
+      logger.error(errorMessage);
+      throw new AppConfigException(errorMessage);
+    }
+    // Only the packaged sources - the external directory is overlaid at run time
+    internalProperties.put(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_DIRECTORY_PROPERTY_NAME, null);
+    internalProperties.put(InternalConfigurationConstants.SYSTEM_PROPERTIES_OVERRIDE_PROPERTY_NAME, null);
+    ConfigurationBuilderDirect configurationBuilder = new ConfigurationBuilderDirect();
+    configurationBuilder.setInternalProperties(internalProperties);
+    List<ConfigurationSource> configurationSources = configurationBuilder.getConfigurationSources();
+
+    File compiledFile = new File(classesDirectory, resourceName(packageDirectory, runTimeEnvironment));
+    try {
+      PropertiesFileParser parser = new PropertiesFileParser();
+      ByteArrayOutputStream contents = new ByteArrayOutputStream(16 * 1024);
+      DataOutputStream os = new DataOutputStream(contents);
+      os.writeInt(MAGIC);
+      os.writeInt(FORMAT_VERSION);
+      os.writeInt(configurationSources.size());
+      for (ConfigurationSource configurationSource : configurationSources) {
+        SnapshotCacheFile.writeString(os, configurationSource.getFileName());
+        File sourceFile = new File(classesDirectory, configurationSource.getFileName());
+        if (!sourceFile.isFile()) {
+          if (!configurationSource.isOptional()) {
+            String errorMessage = String.format("AppConfig.CompiledConfiguration.compile required configuration %s not found", sourceFile);
+            logger.error(errorMessage);
+            throw new AppConfigException(errorMessage);
+          }
+          os.writeInt(-1);
+          continue;
+        }
+        ConfigurationSnapshotBuilder sourceBuilder = new ConfigurationSnapshotBuilder();
+        parser.parse(sourceFile.toURI().toURL(), sourceBuilder);
+        ConfigurationSnapshot parsed = sourceBuilder.build();
+        os.writeInt(sourceBuilder.size());
+        Iterator<String> keys = parsed.getKeys();
+        while (keys.hasNext()) {
+          String key = keys.next();
+          SnapshotCacheFile.writeString(os, key);
+          Object value = parsed.getProperty(key);
+          if (!SnapshotCacheFile.writeValue(os, value)) {
+            String errorMessage = String.format("AppConfig.CompiledConfiguration.compile value of %s in %s can't be compiled - unsupported type %s", key, sourceFile, value == null ? null : value.getClass().getName());
+            logger.error(errorMessage);
+            throw new AppConfigException(errorMessage);
+          }
+        }
+      }
+      os.flush();
+      byte[] bytes = contents.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length);
+      compiledFile.getParentFile().mkdirs();
+      DataOutputStream fos = new DataOutputStream(new FileOutputStream(compiledFile));
+      try {
+        fos.write(bytes);
+        fos.writeLong(crc.getValue());
+      }
+      finally {
+        fos.close();
+      }
+    }
+    catch (AppConfigException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      String errorMessage = String.format("AppConfig.CompiledConfiguration.compile failed to compile configuration %s", compiledFile);
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+    logger.trace(String.format("AppConfig.CompiledConfiguration.compile compiled %d sources into %s", configurationSources.size(), compiledFile));
+    return compiledFile;
+  }
+
+  /**
+   * Load the compiled configuration of a run-time environment from the classpath
+   * 
+   * @param packageDirectory Application properties package directory
+   * @param runTimeEnvironment Run-time environment name
+   * @return Compiled configuration, or null if there is no compiled resource
+   */
+  static CompiledConfiguration load(String packageDirectory, String runTimeEnvironment) {
+    String resourceName = resourceName(packageDirectory, runTimeEnvironment);
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    URL url = (classLoader == null ? CompiledConfiguration.class.getClassLoader() : classLoader).getResource(resourceName);
+    if (url == null) {
+      logger.trace(String.format("AppConfig.CompiledConfiguration.load no compiled configuration %s", resourceName));
+      return null;
+    }
+    try {
+      ByteBuffer bytes = PropertiesFileParser.read(url);
+      int contentLength = bytes.limit() - 8;
+      if (contentLength < 8 || bytes.getInt() != MAGIC || bytes.getInt() != FORMAT_VERSION || SnapshotCacheFile.checksum(bytes, contentLength) != bytes.getLong(contentLength)) {
+        throw new AppConfigException(String.format("AppConfig.CompiledConfiguration.load %s is damaged or from another version", resourceName));
+      }
+      byte[] buffer = new byte[256];
+      HashMap<String,ConfigurationSnapshotBuilder> sources = new HashMap<String,ConfigurationSnapshotBuilder>();
+      int sourceCount = bytes.getInt();
+      for (int i = 0; i < sourceCount; i++) {
+        String fileName = SnapshotCacheFile.readString(bytes, buffer);
+        int entryCount = bytes.getInt();
+        ConfigurationSnapshotBuilder sourceBuilder = entryCount < 0 ? null : new ConfigurationSnapshotBuilder();
+        for (int j = 0; j < entryCount; j++) {
+          String key = SnapshotCacheFile.readString(bytes, buffer);
+          sourceBuilder.setProperty(key, SnapshotCacheFile.readValue(bytes, buffer));
+        }
+        sources.put(fileName, sourceBuilder);
+      }
+      logger.trace(String.format("AppConfig.CompiledConfiguration.load loaded %d sources from %s", sourceCount, url));
+      return new CompiledConfiguration(sources);
+    }
+    catch (Exception e) {
+      String errorMessage = String.format("AppConfig.CompiledConfiguration.load failed to load compiled configuration %s", url);
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+  }
+
+  /**
+   * Check whether a source was compiled
+   * 
+   * @param fileName Source file name
+   * @return True if the source is part of this compiled configuration
+   */
+  boolean contains(String fileName) {
+    return this.sources.containsKey(fileName);
+  }
+
+  /**
+   * Get a compiled source
+   * 
+   * @param fileName Source file name
+   * @return Parsed properties, or null if the source didn't exist at build time
+   */
+  ConfigurationSnapshotBuilder getSource(String fileName) {
+    return this.sources.get(fileName);
+  }
+
+}
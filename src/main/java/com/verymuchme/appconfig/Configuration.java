@@ -109,6 +109,92 @@ public interface Configuration {
 
   public List<Object> getList(String key);
 
+  /**
+   * Get a list value as ints. Each element is converted like getInt. The array is converted once per configuration version
+   * and shared by all callers until the configuration changes
+   * 
+   * @param key Property name
+   * @return Read-only array, empty if the key is missing
+   * @throws org.apache.commons.configuration.ConversionException if an element can't be converted
+   */
+  public ReadOnlyIntArray getIntArray(String key);
+
+  public ReadOnlyLongArray getLongArray(String key);
+
+  public ReadOnlyDoubleArray getDoubleArray(String key);
+
   //public List<Object> getList(String key, List<Object> defaultValue);
 
-}
\ No newline at end of file
+  /**
+   * Version of the values visible through this configuration. Changes whenever a value may have changed.
+   * Versions are unique across all Configuration instances in a JVM
+   * 
+   * @return Current version
+   */
+  public long getVersion();
+
+  /**
+   * Get a reusable accessor for an int value. Throws NoSuchElementException on read if the key is missing
+   * 
+   * @param key Property name
+   * @return Handle caching the converted value per configuration version
+   */
+  public IntHandle intHandle(String key);
+
+  public IntHandle intHandle(String key, int defaultValue);
+
+  public LongHandle longHandle(String key);
+
+  public LongHandle longHandle(String key, long defaultValue);
+
+  public BooleanHandle booleanHandle(String key);
+
+  public BooleanHandle booleanHandle(String key, boolean defaultValue);
+
+  public DoubleHandle doubleHandle(String key);
+
+  public DoubleHandle doubleHandle(String key, double defaultValue);
+
+  /**
+   * Get a boolean value the JIT compiler may treat as a constant. The constant follows changes to this configuration,
+   * falling back to the default if the key is missing or its value can't be converted
+   * 
+   * @param key Property name
+   * @param defaultValue Fallback value
+   * @return Constant registered with this configuration - the same instance for the same key and default
+   */
+  public BooleanConstant booleanConstant(String key, boolean defaultValue);
+
+  public IntConstant intConstant(String key, int defaultValue);
+
+  /**
+   * Look up an int value without throwing. The outcome and value are stored in the holder, which can be reused
+   * 
+   * @param key Property name
+   * @param result Holder for the outcome
+   * @return true if the key exists and its value converts to int
+   */
+  public boolean tryGetInt(String key, LookupResult result);
+
+  public boolean tryGetLong(String key, LookupResult result);
+
+  public boolean tryGetDouble(String key, LookupResult result);
+
+  public boolean tryGetBoolean(String key, LookupResult result);
+
+  /**
+   * Get an int value, or the default if the key is missing or its value can't be converted. Never throws
+   * 
+   * @param key Property name
+   * @param defaultValue Value to return if there's no usable value
+   * @return Value
+   */
+  public int getIntOrDefault(String key, int defaultValue);
+
+  public long getLongOrDefault(String key, long defaultValue);
+
+  public double getDoubleOrDefault(String key, double defaultValue);
+
+  public boolean getBooleanOrDefault(String key, boolean defaultValue);
+
+}
@@ -19,12 +19,22 @@ import java.math.BigInteger;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
-
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.ConversionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Base Configuration class - provides null implementations of all required methods
+ * Base Configuration class - null implementations of the source-specific methods, plus the version tracking, handles, constants,
+ * non-throwing lookups and primitive arrays shared by all configurations, built on those methods
  * 
  * @author Tracy Flynn
  * @version 3.0
@@ -38,6 +48,65 @@ public class ConfigurationBase implements Configuration {
    */
   private static final Logger logger = LoggerFactory.getLogger(ConfigurationBase.class);
 
+  /*
+   * Source of configuration versions - unique across all instances
+   */
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  /*
+   * Current version of this instance
+   */
+  private volatile long version = VERSIONS.incrementAndGet();
+
+  /*
+   * Holders for the getXOrDefault methods
+   */
+  private static final ThreadLocal<LookupResult> LOOKUP_RESULTS = new ThreadLocal<LookupResult>() {
+    @Override
+    protected LookupResult initialValue() {
+      return new LookupResult();
+    }
+  };
+
+  /*
+   * Primitive arrays converted by getIntArray, getLongArray and getDoubleArray, by key. Only the last type asked for is kept for a key
+   */
+  private final ConcurrentMap<String, CachedArray> arrays = new ConcurrentHashMap<String, CachedArray>();
+
+  /*
+   * Constants registered with this instance, by key, type and default, so asking again returns the same constant. Also serves as the lock for updating them
+   */
+  private final Map<List<Object>, ConfigurationConstant> constants = new LinkedHashMap<List<Object>, ConfigurationConstant>();
+
+  /**
+   * Record that values visible through this configuration may have changed. Subclasses that allow modification must call this after every change
+   */
+  protected void markChanged() {
+    this.version = VERSIONS.incrementAndGet();
+    updateConstants();
+  }
+
+  /*
+   * Re-read all registered constants and sync the call sites of those that changed in one batch
+   */
+  private void updateConstants() {
+    synchronized (this.constants) {
+      if (this.constants.isEmpty()) {
+        return;
+      }
+      List<MutableCallSite> changed = new ArrayList<MutableCallSite>();
+      for (ConfigurationConstant constant : this.constants.values()) {
+        if (constant.update(this)) {
+          changed.add(constant.callSite);
+        }
+      }
+      if (!changed.isEmpty()) {
+        MutableCallSite.syncAll(changed.toArray(new MutableCallSite[changed.size()]));
+        logger.trace(String.format("AppConfig.ConfigurationBase.updateConstants %d of %d constants changed", changed.size(), this.constants.size()));
+      }
+    }
+  }
+
   /* (non-Javadoc)
    * @see com.verymuchme.appconfig.Configuration#subset(java.lang.String)
    */
@@ -354,6 +423,277 @@ public class ConfigurationBase implements Configuration {
     return null;
   }
 
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getIntArray(java.lang.String)
+   */
+  @Override
+  public ReadOnlyIntArray getIntArray(String key) {
+    return (ReadOnlyIntArray) getArray(key, ArrayType.INT);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getLongArray(java.lang.String)
+   */
+  @Override
+  public ReadOnlyLongArray getLongArray(String key) {
+    return (ReadOnlyLongArray) getArray(key, ArrayType.LONG);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getDoubleArray(java.lang.String)
+   */
+  @Override
+  public ReadOnlyDoubleArray getDoubleArray(String key) {
+    return (ReadOnlyDoubleArray) getArray(key, ArrayType.DOUBLE);
+  }
+
+  /*
+   * Get a list value converted to a primitive array, from the cache if it was converted for the current version.
+   * Missing keys return the shared empty array and aren't cached
+   */
+  private ReadOnlyArray getArray(String key, ArrayType type) {
+    long currentVersion = getVersion();
+    CachedArray cached = this.arrays.get(key);
+    if (cached != null && cached.version == currentVersion && cached.type == type) {
+      return cached.array;
+    }
+    List<Object> elements = getList(key);
+    if (elements == null || elements.isEmpty()) {
+      return type.empty;
+    }
+    Object values = type.newArray(elements.size());
+    for (int i = 0; i < elements.size(); i++) {
+      Object element = elements.get(i);
+      if (element == null || !type.set(values, i, element)) {
+        throw new ConversionException(String.format("'%s' doesn't map to a %s array - element '%s' can't be converted", key, type.typeName, element));
+      }
+    }
+    ReadOnlyArray array = type.wrap(values);
+    this.arrays.put(key, new CachedArray(currentVersion, type, array));
+    return array;
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getVersion()
+   */
+  @Override
+  public long getVersion() {
+    return this.version;
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#intHandle(java.lang.String)
+   */
+  @Override
+  public IntHandle intHandle(String key) {
+    return new IntHandle(this, key, false, 0);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#intHandle(java.lang.String, int)
+   */
+  @Override
+  public IntHandle intHandle(String key, int defaultValue) {
+    return new IntHandle(this, key, true, defaultValue);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#longHandle(java.lang.String)
+   */
+  @Override
+  public LongHandle longHandle(String key) {
+    return new LongHandle(this, key, false, 0L);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#longHandle(java.lang.String, long)
+   */
+  @Override
+  public LongHandle longHandle(String key, long defaultValue) {
+    return new LongHandle(this, key, true, defaultValue);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#booleanHandle(java.lang.String)
+   */
+  @Override
+  public BooleanHandle booleanHandle(String key) {
+    return new BooleanHandle(this, key, false, false);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#booleanHandle(java.lang.String, boolean)
+   */
+  @Override
+  public BooleanHandle booleanHandle(String key, boolean defaultValue) {
+    return new BooleanHandle(this, key, true, defaultValue);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#doubleHandle(java.lang.String)
+   */
+  @Override
+  public DoubleHandle doubleHandle(String key) {
+    return new DoubleHandle(this, key, false, 0d);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#doubleHandle(java.lang.String, double)
+   */
+  @Override
+  public DoubleHandle doubleHandle(String key, double defaultValue) {
+    return new DoubleHandle(this, key, true, defaultValue);
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#booleanConstant(java.lang.String, boolean)
+   */
+  @Override
+  public BooleanConstant booleanConstant(String key, boolean defaultValue) {
+    List<Object> registration = Arrays.<Object>asList(key, Boolean.TYPE, Boolean.valueOf(defaultValue));
+    synchronized (this.constants) {
+      BooleanConstant constant = (BooleanConstant) this.constants.get(registration);
+      if (constant == null) {
+        constant = new BooleanConstant(key, defaultValue, defaultValue);
+        constant.update(this);
+        this.constants.put(registration, constant);
+      }
+      return constant;
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#intConstant(java.lang.String, int)
+   */
+  @Override
+  public IntConstant intConstant(String key, int defaultValue) {
+    List<Object> registration = Arrays.<Object>asList(key, Integer.TYPE, Integer.valueOf(defaultValue));
+    synchronized (this.constants) {
+      IntConstant constant = (IntConstant) this.constants.get(registration);
+      if (constant == null) {
+        constant = new IntConstant(key, defaultValue, defaultValue);
+        constant.update(this);
+        this.constants.put(registration, constant);
+      }
+      return constant;
+    }
+  }
+
+  /**
+   * Single value of a key for the non-throwing lookups - the first element of a list value. Subclasses returning uninterpolated values from getProperty should override
+   * 
+   * @param key Property name
+   * @return Value, or null if the key is missing. Never throws
+   */
+  protected Object getScalarProperty(String key) {
+    Object value = getProperty(key);
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      return list.isEmpty() ? null : list.get(0);
+    }
+    return value;
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#tryGetInt(java.lang.String, com.verymuchme.appconfig.LookupResult)
+   */
+  @Override
+  public boolean tryGetInt(String key, LookupResult result) {
+    Object value = getScalarProperty(key);
+    if (value == null) {
+      return result.missing();
+    }
+    if ((result.parser.parse(value) & ConfigurationValueParser.TYPE_INT) != 0) {
+      return result.foundInt(result.parser.intValue);
+    }
+    Integer converted = ConfigurationValueParser.toIntegerOrNull(value);
+    return converted == null ? result.notConvertible() : result.foundInt(converted.intValue());
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getIntOrDefault(java.lang.String, int)
+   */
+  @Override
+  public int getIntOrDefault(String key, int defaultValue) {
+    LookupResult result = LOOKUP_RESULTS.get();
+    return tryGetInt(key, result) ? result.getInt() : defaultValue;
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#tryGetLong(java.lang.String, com.verymuchme.appconfig.LookupResult)
+   */
+  @Override
+  public boolean tryGetLong(String key, LookupResult result) {
+    Object value = getScalarProperty(key);
+    if (value == null) {
+      return result.missing();
+    }
+    if ((result.parser.parse(value) & ConfigurationValueParser.TYPE_LONG) != 0) {
+      return result.foundLong(result.parser.longValue);
+    }
+    Long converted = ConfigurationValueParser.toLongOrNull(value);
+    return converted == null ? result.notConvertible() : result.foundLong(converted.longValue());
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getLongOrDefault(java.lang.String, long)
+   */
+  @Override
+  public long getLongOrDefault(String key, long defaultValue) {
+    LookupResult result = LOOKUP_RESULTS.get();
+    return tryGetLong(key, result) ? result.getLong() : defaultValue;
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#tryGetDouble(java.lang.String, com.verymuchme.appconfig.LookupResult)
+   */
+  @Override
+  public boolean tryGetDouble(String key, LookupResult result) {
+    Object value = getScalarProperty(key);
+    if (value == null) {
+      return result.missing();
+    }
+    if ((result.parser.parse(value) & ConfigurationValueParser.TYPE_DOUBLE) != 0) {
+      return result.foundDouble(result.parser.doubleValue);
+    }
+    Double converted = ConfigurationValueParser.toDoubleOrNull(value);
+    return converted == null ? result.notConvertible() : result.foundDouble(converted.doubleValue());
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getDoubleOrDefault(java.lang.String, double)
+   */
+  @Override
+  public double getDoubleOrDefault(String key, double defaultValue) {
+    LookupResult result = LOOKUP_RESULTS.get();
+    return tryGetDouble(key, result) ? result.getDouble() : defaultValue;
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#tryGetBoolean(java.lang.String, com.verymuchme.appconfig.LookupResult)
+   */
+  @Override
+  public boolean tryGetBoolean(String key, LookupResult result) {
+    Object value = getScalarProperty(key);
+    if (value == null) {
+      return result.missing();
+    }
+    if ((result.parser.parse(value) & ConfigurationValueParser.TYPE_BOOLEAN) != 0) {
+      return result.foundBoolean(result.parser.booleanValue);
+    }
+    Boolean converted = ConfigurationValueParser.toBooleanOrNull(value);
+    return converted == null ? result.notConvertible() : result.foundBoolean(converted.booleanValue());
+  }
+
+  /* (non-Javadoc)
+   * @see com.verymuchme.appconfig.Configuration#getBooleanOrDefault(java.lang.String, boolean)
+   */
+  @Override
+  public boolean getBooleanOrDefault(String key, boolean defaultValue) {
+    LookupResult result = LOOKUP_RESULTS.get();
+    return tryGetBoolean(key, result) ? result.getBoolean() : defaultValue;
+  }
+
   /* (non-Javadoc)
    * @see com.verymuchme.appconfig.Configuration#getList(java.lang.String, java.util.List)
    */
@@ -363,4 +703,88 @@ public class ConfigurationBase implements Configuration {
 //  }
 
   
+  /*
+   * A converted array and the configuration version it was converted for. The version is read before the values, so a concurrent change
+   * can only cause another conversion, never a stale array
+   */
+  private static final class CachedArray {
+    final long version;
+    final ArrayType type;
+    final ReadOnlyArray array;
+
+    CachedArray(long version, ArrayType type, ReadOnlyArray array) {
+      this.version = version;
+      this.type = type;
+      this.array = array;
+    }
+  }
+
+  /*
+   * Element conversion for each primitive array type. Elements are converted like the matching scalar getter
+   */
+  private enum ArrayType {
+    INT("int", ReadOnlyIntArray.EMPTY) {
+      Object newArray(int length) {
+        return new int[length];
+      }
+      boolean set(Object values, int index, Object element) {
+        Integer value = ConfigurationValueParser.toIntegerOrNull(element);
+        if (value != null) {
+          ((int[]) values)[index] = value.intValue();
+        }
+        return value != null;
+      }
+      ReadOnlyArray wrap(Object values) {
+        return new ReadOnlyIntArray((int[]) values);
+      }
+    },
+    LONG("long", ReadOnlyLongArray.EMPTY) {
+      Object newArray(int length) {
+        return new long[length];
+      }
+      boolean set(Object values, int index, Object element) {
+        Long value = ConfigurationValueParser.toLongOrNull(element);
+        if (value != null) {
+          ((long[]) values)[index] = value.longValue();
+        }
+        return value != null;
+      }
+      ReadOnlyArray wrap(Object values) {
+        return new ReadOnlyLongArray((long[]) values);
+      }
+    },
+    DOUBLE("double", ReadOnlyDoubleArray.EMPTY) {
+      Object newArray(int length) {
+        return new double[length];
+      }
+      boolean set(Object values, int index, Object element) {
+        Double value = ConfigurationValueParser.toDoubleOrNull(element);
+        if (value != null) {
+          ((double[]) values)[index] = value.doubleValue();
+        }
+        return value != null;
+      }
+      ReadOnlyArray wrap(Object values) {
+        return new ReadOnlyDoubleArray((double[]) values);
+      }
+    };
+
+    final String typeName;
+    final ReadOnlyArray empty;
+
+    ArrayType(String typeName, ReadOnlyArray empty) {
+      this.typeName = typeName;
+      this.empty = empty;
+    }
+
+    abstract Object newArray(int length);
+
+    /*
+     * Convert an element into the array. False if it can't be converted
+     */
+    abstract boolean set(Object values, int index, Object element);
+
+    abstract ReadOnlyArray wrap(Object values);
+  }
+
 }
@@ -22,7 +22,7 @@ public interface ConfigurationBuilder {
    * @param internalProperties
    */
   public void setInternalProperties(ExtendedProperties internalProperties);
-  
+
   /**
    * Build the configuration
    * 
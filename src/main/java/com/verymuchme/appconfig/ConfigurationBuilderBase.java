@@ -15,7 +15,12 @@
 package com.verymuchme.appconfig;
 
 import java.util.Iterator;
+import java.util.List;
 
+import org.apache.commons.configuration.CombinedConfiguration;
+import org.apache.commons.configuration.FileConfiguration;
+import org.apache.commons.configuration.reloading.InvariantReloadingStrategy;
+import org.apache.commons.configuration.reloading.ReloadingStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,10 +49,78 @@ public class ConfigurationBuilderBase {
    */
   protected ExtendedProperties internalProperties = null;
 
+  /*
+   * Timings for the phases of the current build. Nothing is recorded unless timings are set
+   */
+  protected ConfigurationTimings configurationTimings = ConfigurationTimings.NOT_RECORDED;
+
+  /*
+   * Sources the last configuration was built from, in order of precedence and including missing optional ones. Null if not known
+   */
+  protected List<ConfigurationSource> buildSources = null;
+
   public void setInternalProperties(ExtendedProperties internalProperties) {
     this.internalProperties= internalProperties;
   }
 
+  /**
+   * Set the timings the next build records its phases in
+   * 
+   * @param configurationTimings Timings, or null to record nothing
+   */
+  public void setConfigurationTimings(ConfigurationTimings configurationTimings) {
+    this.configurationTimings = configurationTimings == null ? ConfigurationTimings.NOT_RECORDED : configurationTimings;
+  }
+
+  /**
+   * Get a fingerprint of what decides the sources and their order, beyond the internal settings - for instance a definition template
+   * 
+   * @return Fingerprint, or null if the sources follow from the internal settings alone
+   */
+  String getDefinitionFingerprint() {
+    return null;
+  }
+
+  /**
+   * Get the sources the last configuration was built from
+   * 
+   * @return Sources in order of precedence, including missing optional ones. Null if the builder can't tell
+   */
+  List<ConfigurationSource> getBuildSources() {
+    return this.buildSources;
+  }
+
+  /**
+   * Add the internal settings to a loaded combined configuration, then flatten it into a snapshot if enabled, or wrap it otherwise.
+   * The missing key filter is only built for the wrapper
+   * 
+   * @param combinedConfiguration Combined configuration of all sources
+   * @return Configuration to hand out
+   */
+  protected Configuration completeConfiguration(CombinedConfiguration combinedConfiguration) {
+    addInternalProperties(combinedConfiguration);
+    if (this.internalProperties.getBooleanProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME)) {
+      ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.SNAPSHOT);
+      try {
+        this.configuration = ConfigurationSnapshot.fromConfiguration(combinedConfiguration);
+      }
+      finally {
+        phase.stop();
+      }
+      logger.trace("AppConfig.ConfigurationBuilderBase.completeConfiguration flattened configuration into snapshot");
+    }
+    else {
+      // Only sources that never change on their own let the absence of a key be cached
+      boolean missingKeyFilterEnabled = this.internalProperties.getBooleanProperty(InternalConfigurationConstants.MISSING_KEY_FILTER_ENABLED_PROPERTY_NAME)
+          && hasOnlyStaticSources(combinedConfiguration);
+      if (this.internalProperties.getBooleanProperty(InternalConfigurationConstants.MISSING_KEY_FILTER_ENABLED_PROPERTY_NAME) && !missingKeyFilterEnabled) {
+        logger.trace("AppConfig.ConfigurationBuilderBase.completeConfiguration missing key filter disabled - a configuration source can change on its own");
+      }
+      this.configuration = new ConfigurationCommonsConfiguration(combinedConfiguration, missingKeyFilterEnabled);
+    }
+    return this.configuration;
+  }
+
   /**
   * Add internal settings to configuration object - e.g. allow access to current runtime environment (com.verymuchme.appconfig.runTimeEnvironment)
   *  */
@@ -60,5 +133,40 @@ public class ConfigurationBuilderBase {
     }
   }
 
+  /*
+   * True if every source is a file configuration loaded once - system properties, reloading files and other sources can gain keys at any time
+   */
+  static boolean hasOnlyStaticSources(CombinedConfiguration combinedConfiguration) {
+    for (int i = 0; i < combinedConfiguration.getNumberOfConfigurations(); i++) {
+      org.apache.commons.configuration.Configuration source = combinedConfiguration.getConfiguration(i);
+      if (source instanceof CombinedConfiguration) {
+        if (!hasOnlyStaticSources((CombinedConfiguration) source)) {
+          return false;
+        }
+      }
+      else if (!(source instanceof FileConfiguration)) {
+        return false;
+      }
+      else {
+        ReloadingStrategy reloadingStrategy = ((FileConfiguration) source).getReloadingStrategy();
+        if (reloadingStrategy != null && !(reloadingStrategy instanceof InvariantReloadingStrategy)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Add the internal settings straight to the combined configuration, before it is wrapped or flattened
+   */
+  private void addInternalProperties(CombinedConfiguration combinedConfiguration) {
+    Iterator<String> propertyNames = this.internalProperties.propertyNames();
+    while (propertyNames.hasNext()) {
+      String propertyName = propertyNames.next();
+      combinedConfiguration.addProperty(propertyName, this.internalProperties.get(propertyName));
+    }
+  }
+
   
 }
@@ -19,19 +19,38 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.InputStream;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.configuration.CombinedConfiguration;
 import org.apache.commons.configuration.DefaultConfigurationBuilder;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.tree.ConfigurationNode;
 
 import ch.qos.logback.classic.LogbackFactory;
 import ch.qos.logback.classic.Logger;
 
 import com.google.common.base.Optional;
 
+import freemarker.template.Template;
+
 /**
  * Dynamically build a configuration definition compatible with Apache Commons Configuration
  *
@@ -47,6 +66,46 @@ public class ConfigurationBuilderCommonsConfiguration extends ConfigurationBuild
    * Logger instance for this class
    */
   private static final Logger logger = LogbackFactory.getLogger(ConfigurationBuilderCommonsConfiguration.class);
+
+  /*
+   * Most configuration definitions cached per Freemarker base class
+   */
+  private static final int DEFINITION_CACHE_SIZE = 16;
+
+  /*
+   * Parsed configuration definitions by fingerprint of their template data, per Freemarker base class.
+   * Held by the class itself, like the shared Freemarker configurations
+   */
+  private static final ClassValue<Map<String,CachedDefinition>> DEFINITION_CACHES = new ClassValue<Map<String,CachedDefinition>>() {
+    @Override
+    protected Map<String,CachedDefinition> computeValue(Class<?> classBase) {
+      return new LinkedHashMap<String,CachedDefinition>(DEFINITION_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,CachedDefinition> eldest) {
+          return size() > DEFINITION_CACHE_SIZE;
+        }
+      };
+    }
+  };
+
+  /*
+   * Characters buffered between the template renderer and the definition parser when streaming
+   */
+  private static final int DEFINITION_PIPE_SIZE = 8192;
+
+  /*
+   * Renders templates when streaming. Idle threads end after a minute
+   */
+  private static final ExecutorService TEMPLATE_RENDER_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "AppConfig-TemplateRender");
+      thread.setDaemon(true);
+      // Don't hold on to the context class loader of whichever application happened to start the thread
+      thread.setContextClassLoader(ConfigurationBuilderCommonsConfiguration.class.getClassLoader());
+      return thread;
+    }
+  });
   
   /**
    * Create a new instance
@@ -56,46 +115,98 @@ public class ConfigurationBuilderCommonsConfiguration extends ConfigurationBuild
 
   @Override
   public Configuration buildConfiguration() {
-    String configurationDefinition = generateConfigurationDefinition();
-    CombinedConfiguration combinedConfiguration = loadConfigurationDefinition(configurationDefinition);
-    this.configuration = new ConfigurationCommonsConfiguration(combinedConfiguration);
-    this.addInternalProperties();
-    return this.configuration;
+    HashMap<String,String> templateData = createTemplateData();
+    FreemarkerHandler freemarkerHandler = createFreemarkerHandler();
+    String templateName = this.internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_FREEMARKER_CONFIGURATION_TEMPLATE_PROPERTY_NAME);
+    boolean definitionCacheEnabled = this.internalProperties.getBooleanProperty(InternalConfigurationConstants.DEFINITION_CACHE_ENABLED_PROPERTY_NAME);
+
+    DefaultConfigurationBuilder defaultConfigurationBuilder = null;
+    String fingerprint = null;
+    Template template = null;
+    if (definitionCacheEnabled) {
+      fingerprint = definitionFingerprint(templateName, templateData);
+      template = freemarkerHandler.findTemplate(templateName);
+      defaultConfigurationBuilder = cachedConfigurationDefinition(freemarkerHandler.getClassBase(), fingerprint, template);
+    }
+    if (defaultConfigurationBuilder == null) {
+      if (this.internalProperties.getBooleanProperty(InternalConfigurationConstants.FREEMARKER_STREAMING_ENABLED_PROPERTY_NAME)) {
+        defaultConfigurationBuilder = streamConfigurationDefinition(freemarkerHandler, templateName, templateData);
+      }
+      else {
+        String configurationDefinition = null;
+        ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.TEMPLATE_RENDER);
+        try {
+          configurationDefinition = generateConfigurationDefinition(freemarkerHandler, templateName, templateData);
+        }
+        finally {
+          phase.stop();
+        }
+        defaultConfigurationBuilder = loadConfigurationDefinition(configurationDefinition);
+      }
+      if (definitionCacheEnabled) {
+        cacheConfigurationDefinition(freemarkerHandler.getClassBase(), fingerprint, template, defaultConfigurationBuilder);
+      }
+    }
+    this.buildSources = definitionSources(defaultConfigurationBuilder);
+    CombinedConfiguration combinedConfiguration = loadConfigurationSources(defaultConfigurationBuilder);
+    return completeConfiguration(combinedConfiguration);
+  }
+
+  /*
+   * The definition is rendered from the template, so its text is fingerprinted along with the data - a release that reorders
+   * or adds sources under the same template name changes the fingerprint
+   */
+  @Override
+  String getDefinitionFingerprint() {
+    String templateName = this.internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_FREEMARKER_CONFIGURATION_TEMPLATE_PROPERTY_NAME);
+    Template template = createFreemarkerHandler().findTemplate(templateName);
+    return definitionFingerprint(templateName, template.toString(), createTemplateData());
+  }
+
+  /*
+   * Sources named in a configuration definition, or null if it uses anything other than properties files and the system properties
+   */
+  private static List<ConfigurationSource> definitionSources(HierarchicalConfiguration definition) {
+    List<ConfigurationSource> sources = new ArrayList<ConfigurationSource>();
+    for (ConfigurationNode node : definition.getRootNode().getChildren()) {
+      if ("system".equals(node.getName())) {
+        sources.add(new ConfigurationSource(null, false));
+      }
+      else if ("properties".equals(node.getName()) && node.getAttributeCount("fileName") == 1) {
+        String fileName = String.valueOf(node.getAttributes("fileName").get(0).getValue());
+        sources.add(new ConfigurationSource(fileName, isAttributeTrue(node, "config-optional") || isAttributeTrue(node, "optional")));
+      }
+      else {
+        return null;
+      }
+    }
+    return sources;
   }
 
+  private static boolean isAttributeTrue(ConfigurationNode node, String attributeName) {
+    List<ConfigurationNode> attributes = node.getAttributes(attributeName);
+    return !attributes.isEmpty() && Boolean.parseBoolean(String.valueOf(attributes.get(0).getValue()));
+  }
+
+  /**
+   * Discard all cached configuration definitions for a Freemarker base class
+   * 
+   * @param classBase Base class used to find templates
+   */
+  public static void clearDefinitionCache(Class classBase) {
+    Map<String,CachedDefinition> definitionCache = DEFINITION_CACHES.get(classBase);
+    synchronized (definitionCache) {
+      definitionCache.clear();
+    }
+  }
   
   /**
    * Get the configuration definition as an (XML) string
    */
-  private String generateConfigurationDefinition() {
+  private String generateConfigurationDefinition(FreemarkerHandler freemarkerHandler, String templateName, HashMap<String,String> templateData) {
 
       try {
-        //Add all internal properties with appropriate prefixes to template data
-        HashMap<String,String> templateData = new HashMap<String,String>();
-        Iterator<String> propertyNamesItr = internalProperties.propertyNames();
-        while (propertyNamesItr.hasNext()) {
-          String propertyName = propertyNamesItr.next();
-          String propertyValueString = internalProperties.getProperty(propertyName);
-          propertyName = propertyName.replace(InternalConfigurationConstants.INTERNAL_PACKAGE_PREFIX_FULL, InternalConfigurationConstants.INTERNAL_PACKAGE_PREFIX_SHORT);
-          propertyName = propertyName.replaceAll("\\.", "_");
-          templateData.put(propertyName, propertyValueString);
-        }
-        if (logger.isTraceEnabled()) {
-          logger.trace("ConfigurationBuilderCommonsConfiguration: creating template data map");
-          AppConfigUtils.dumpMap(templateData);
-        }
-
-        FreemarkerHandler freemarkerHandler = null;
-        String freemarkerBaseClassName = this.internalProperties.getProperty(InternalConfigurationConstants.FREEMARKER_CONFIGURATION_BASE_CLASS_PROPERTY_NAME);
-        if (freemarkerBaseClassName == null) {
-          freemarkerHandler = new FreemarkerHandler();
-        }
-        else {
-          Class baseClass = Class.forName(freemarkerBaseClassName);
-          freemarkerHandler = new FreemarkerHandler(baseClass);
-        }
-        freemarkerHandler.setInternalProperties(this.internalProperties);
-        String templateContents = freemarkerHandler.getTemplate(this.internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_FREEMARKER_CONFIGURATION_TEMPLATE_PROPERTY_NAME),templateData);
+        String templateContents = freemarkerHandler.getTemplate(templateName,templateData);
         if (logger.isTraceEnabled()) {
           logger.trace("AppConfig.ConfigurationDefinitionBuilder.generateConfigurationDefinition definition file");
           logger.trace(templateContents);
@@ -108,26 +219,239 @@ public class ConfigurationBuilderCommonsConfiguration extends ConfigurationBuild
         throw new AppConfigException(errorMessage,e);
       }
   }
+
+  /**
+   * Create the template data - all internal properties with appropriate prefixes
+   */
+  private HashMap<String,String> createTemplateData() {
+    HashMap<String,String> templateData = new HashMap<String,String>();
+    Iterator<String> propertyNamesItr = internalProperties.propertyNames();
+    while (propertyNamesItr.hasNext()) {
+      String propertyName = propertyNamesItr.next();
+      String propertyValueString = internalProperties.getProperty(propertyName);
+      propertyName = propertyName.replace(InternalConfigurationConstants.INTERNAL_PACKAGE_PREFIX_FULL, InternalConfigurationConstants.INTERNAL_PACKAGE_PREFIX_SHORT);
+      propertyName = propertyName.replaceAll("\\.", "_");
+      templateData.put(propertyName, propertyValueString);
+    }
+    if (logger.isTraceEnabled()) {
+      logger.trace("ConfigurationBuilderCommonsConfiguration: creating template data map");
+      AppConfigUtils.dumpMap(templateData);
+    }
+    return templateData;
+  }
+
+  /**
+   * Create a Freemarker handler for the configured base class
+   */
+  private FreemarkerHandler createFreemarkerHandler() {
+    FreemarkerHandler freemarkerHandler = null;
+    String freemarkerBaseClassName = this.internalProperties.getProperty(InternalConfigurationConstants.FREEMARKER_CONFIGURATION_BASE_CLASS_PROPERTY_NAME);
+    if (freemarkerBaseClassName == null) {
+      freemarkerHandler = new FreemarkerHandler();
+    }
+    else {
+      try {
+        Class baseClass = Class.forName(freemarkerBaseClassName);
+        freemarkerHandler = new FreemarkerHandler(baseClass);
+      }
+      catch (Exception e) {
+        String errorMessage = String.format("AppConfig.ConfigurationDefinitionBuilder.createFreemarkerHandler failed to load Freemarker base class %s", freemarkerBaseClassName);
+        logger.error(errorMessage,e);
+        throw new AppConfigException(errorMessage,e);
+      }
+    }
+    freemarkerHandler.setInternalProperties(this.internalProperties);
+    return freemarkerHandler;
+  }
+
+  /**
+   * Compute a stable fingerprint of the template name and template data
+   * 
+   * @param templateName Template name
+   * @param templateData Template data
+   * @return Hex encoded SHA-256 digest
+   */
+  static String definitionFingerprint(String templateName, Map<String,String> templateData) {
+    return definitionFingerprint(templateName, null, templateData);
+  }
+
+  /**
+   * Compute a stable fingerprint of the template name, the template text and the template data
+   * 
+   * @param templateName Template name
+   * @param templateSource Template text, or null if not part of the fingerprint
+   * @param templateData Template data
+   * @return Hex encoded SHA-256 digest
+   */
+  static String definitionFingerprint(String templateName, String templateSource, Map<String,String> templateData) {
+    // Length prefixed, so no choice of names and values can run into each other. A null value has length -1
+    StringBuilder fingerprintData = new StringBuilder();
+    appendFingerprintField(fingerprintData, templateName);
+    appendFingerprintField(fingerprintData, templateSource);
+    for (Map.Entry<String,String> entry : new TreeMap<String,String>(templateData).entrySet()) {
+      appendFingerprintField(fingerprintData, entry.getKey());
+      appendFingerprintField(fingerprintData, entry.getValue());
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(fingerprintData.toString().getBytes("UTF-8"));
+      StringBuilder fingerprint = new StringBuilder(digest.length * 2);
+      for (byte digestByte : digest) {
+        fingerprint.append(Character.forDigit((digestByte >> 4) & 0xf, 16)).append(Character.forDigit(digestByte & 0xf, 16));
+      }
+      return fingerprint.toString();
+    }
+    catch (Exception e) {
+      String errorMessage = "AppConfig.ConfigurationDefinitionBuilder.definitionFingerprint failed to compute configuration definition fingerprint";
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+  }
+
+  private static void appendFingerprintField(StringBuilder fingerprintData, String field) {
+    fingerprintData.append(field == null ? -1 : field.length()).append(':');
+    if (field != null) {
+      fingerprintData.append(field);
+    }
+  }
+
+  /**
+   * Get a copy of a cached configuration definition
+   * 
+   * @return Builder loaded with the definition, or null if there is no definition cached for the fingerprint and template
+   */
+  private DefaultConfigurationBuilder cachedConfigurationDefinition(Class classBase, String fingerprint, Template template) {
+    Map<String,CachedDefinition> definitionCache = DEFINITION_CACHES.get(classBase);
+    CachedDefinition cachedDefinition = null;
+    synchronized (definitionCache) {
+      cachedDefinition = definitionCache.get(fingerprint);
+    }
+    // A re-parsed template means the template resource changed
+    if (cachedDefinition == null || cachedDefinition.template != template) {
+      return null;
+    }
+    DefaultConfigurationBuilder defaultConfigurationBuilder = new DefaultConfigurationBuilder();
+    defaultConfigurationBuilder.setRootNode(new HierarchicalConfiguration(cachedDefinition.definition).getRootNode());
+    logger.trace(String.format("AppConfig.ConfigurationDefinitionBuilder.cachedConfigurationDefinition using cached configuration definition %s", fingerprint));
+    return defaultConfigurationBuilder;
+  }
+
+  private void cacheConfigurationDefinition(Class classBase, String fingerprint, Template template, DefaultConfigurationBuilder defaultConfigurationBuilder) {
+    CachedDefinition cachedDefinition = new CachedDefinition(template, new HierarchicalConfiguration(defaultConfigurationBuilder));
+    Map<String,CachedDefinition> definitionCache = DEFINITION_CACHES.get(classBase);
+    synchronized (definitionCache) {
+      definitionCache.put(fingerprint, cachedDefinition);
+    }
+  }
+
+  /**
+   * Render the configuration definition on a separate thread and parse it as it is generated
+   * 
+   * @return Builder loaded with the configuration definition
+   */
+  private DefaultConfigurationBuilder streamConfigurationDefinition(final FreemarkerHandler freemarkerHandler, final String templateName, final HashMap<String,String> templateData) {
+    
+    DefaultConfigurationBuilder defaultConfigurationBuilder = null;
+    PipedReader configurationDefinitionReader = null;
+    Future<Void> rendering = null;
+    // Set once parsing has finished - the renderer then fails only because nothing reads the rest of its output
+    final AtomicBoolean parsingFinished = new AtomicBoolean(false);
+    Exception failure = null;
+    
+    try {
+      final ConfigurationTimings timings = this.configurationTimings;
+      configurationDefinitionReader = new PipedReader(DEFINITION_PIPE_SIZE);
+      final PipedWriter configurationDefinitionWriter = new PipedWriter(configurationDefinitionReader);
+      rendering = TEMPLATE_RENDER_EXECUTOR.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          // Rendering allocates on this thread - count it towards the build waiting for it
+          ConfigurationTimings.WorkerTask task = timings.startWorkerTask();
+          ConfigurationTimings.Phase phase = timings.start(ConfigurationTimings.TEMPLATE_RENDER);
+          try {
+            freemarkerHandler.processTemplate(templateName, templateData, configurationDefinitionWriter);
+            configurationDefinitionWriter.close();
+          }
+          catch (Exception e) {
+            configurationDefinitionWriter.close();
+            if (!parsingFinished.get()) {
+              throw e;
+            }
+          }
+          finally {
+            phase.stop();
+            task.stop();
+          }
+          return null;
+        }
+      });
+
+      ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.DEFINITION_PARSE);
+      try {
+        defaultConfigurationBuilder = new DefaultConfigurationBuilder();
+        defaultConfigurationBuilder.load(configurationDefinitionReader);
+      }
+      finally {
+        phase.stop();
+      }
+      logger.trace(String.format("AppConfig.ConfigurationDefinitionBuilder.streamConfigurationDefinition configuration definition streamed and loaded"));
+    }
+    catch (Exception e) {
+      failure = e;
+    }
+    finally {
+      parsingFinished.set(true);
+      try {
+        configurationDefinitionReader.close();
+      }
+      catch (Exception ee) {
+        // Ignore
+      }
+    }
+    
+    // A rendering failure truncates the definition, so report it in preference to the resulting parse error
+    if (rendering != null) {
+      try {
+        rendering.get();
+      }
+      catch (ExecutionException e) {
+        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = failure == null ? e : failure;
+      }
+    }
+    if (failure != null) {
+      String errorMessage = "AppConfig.ConfigurationDefinitionBuilder.streamConfigurationDefinition failed to render and load configuration definition";
+      logger.error(errorMessage,failure);
+      throw new AppConfigException(errorMessage,failure);
+    }
+    return defaultConfigurationBuilder;
+  }
   
   /**
    * Load a Configuration Definition file using Apache Commons Configuration DefaultConfigurationBuilder
    * 
    * @param configurationDefinition
-   * @return CommonConfiguration instance
+   * @return Builder loaded with the configuration definition
    */
-  private CombinedConfiguration loadConfigurationDefinition(String configurationDefinition) {
+  private DefaultConfigurationBuilder loadConfigurationDefinition(String configurationDefinition) {
     
     InputStream configurationDefinitionIs = null;
-    CombinedConfiguration combinedConfiguration = null;
+    DefaultConfigurationBuilder defaultConfigurationBuilder = null;
     
     try {
       configurationDefinitionIs = new ByteArrayInputStream(configurationDefinition.getBytes("UTF-8"));
       // Load configuration definition
-      DefaultConfigurationBuilder defaultConfigurationBuilder = new DefaultConfigurationBuilder();
-      defaultConfigurationBuilder.load(configurationDefinitionIs);
+      ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.DEFINITION_PARSE);
+      try {
+        defaultConfigurationBuilder = new DefaultConfigurationBuilder();
+        defaultConfigurationBuilder.load(configurationDefinitionIs);
+      }
+      finally {
+        phase.stop();
+      }
       logger.trace(String.format("AppConfig.ConfigurationDefinitionBuilder.loadConfigurationDefinition configuration definition loaded"));
-      combinedConfiguration = defaultConfigurationBuilder.getConfiguration(false);
-      logger.trace(String.format("AppConfig.ConfigurationDefinitionBuilder.loadConfigurationDefinition configuration generated successfully"));
     }
     catch (Exception e) {
       String errorMessage = "AppConfig.ConfigurationDefinitionBuilder.loadConfigurationDefinition failed to load configuration definition file";
@@ -143,8 +467,49 @@ public class ConfigurationBuilderCommonsConfiguration extends ConfigurationBuild
         // Ignore
       }
     }
+    return defaultConfigurationBuilder;
+  }
+
+  /**
+   * Create the configuration sources listed in a configuration definition
+   * 
+   * @param defaultConfigurationBuilder Builder loaded with the configuration definition
+   * @return CommonConfiguration instance
+   */
+  private CombinedConfiguration loadConfigurationSources(DefaultConfigurationBuilder defaultConfigurationBuilder) {
+    CombinedConfiguration combinedConfiguration = null;
+    try {
+      ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.SOURCE_LOAD);
+      try {
+        combinedConfiguration = defaultConfigurationBuilder.getConfiguration(false);
+      }
+      finally {
+        phase.stop();
+      }
+      logger.trace(String.format("AppConfig.ConfigurationDefinitionBuilder.loadConfigurationSources configuration generated successfully"));
+    }
+    catch (Exception e) {
+      String errorMessage = "AppConfig.ConfigurationDefinitionBuilder.loadConfigurationSources failed to load configuration definition file";
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
     return combinedConfiguration;
   }
+
+  /*
+   * A parsed configuration definition and the compiled template it was rendered from
+   */
+  private static class CachedDefinition {
+
+    private final Template template;
+
+    private final HierarchicalConfiguration definition;
+
+    CachedDefinition(Template template, HierarchicalConfiguration definition) {
+      this.template = template;
+      this.definition = definition;
+    }
+  }
   
 
 }
@@ -0,0 +1,219 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.CombinedConfiguration;
+import org.apache.commons.configuration.interpol.ConfigurationInterpolator;
+import org.apache.commons.configuration.tree.OverrideCombiner;
+import org.apache.commons.lang.text.StrLookup;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Build the layered Apache Commons Configuration directly, without rendering a configuration definition template
+ * 
+ * The sources, their precedence and which of them are optional are the same as for the default template (configuration-xml.ftl)
+ * used by ConfigurationBuilderCommonsConfiguration, so the resulting configurations are identical. 
+ * The 'com.verymuchme.appconfig.configurationTemplateName' setting is ignored.
+ * 
+ * To use it, set 'com.verymuchme.appconfig.configurationBuilder.className' to 'com.verymuchme.appconfig.ConfigurationBuilderDirect'.
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class ConfigurationBuilderDirect extends ConfigurationBuilderBase implements ConfigurationBuilder {
+
+  /*
+   * Logger instance for this class
+   */
+  private static final Logger logger = LogbackFactory.getLogger(ConfigurationBuilderDirect.class);
+
+  /**
+   * Create a new instance
+   */
+  public ConfigurationBuilderDirect() {
+  }
+
+  @Override
+  public Configuration buildConfiguration() {
+    List<ConfigurationSource> configurationSources = getConfigurationSources();
+    this.buildSources = configurationSources;
+    if (this.internalProperties.getBooleanProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME)
+        && (this.internalProperties.getBooleanProperty(InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME)
+            || this.internalProperties.getBooleanProperty(InternalConfigurationConstants.COMPILED_CONFIGURATION_ENABLED_PROPERTY_NAME))) {
+      return parseConfigurationSources(configurationSources);
+    }
+    CombinedConfiguration combinedConfiguration = null;
+    ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.SOURCE_LOAD);
+    try {
+      combinedConfiguration = loadConfigurationSources(configurationSources);
+    }
+    finally {
+      phase.stop();
+    }
+    return completeConfiguration(combinedConfiguration);
+  }
+
+  /**
+   * Get the configuration sources in order of precedence - highest first
+   * 
+   * @return List of configuration sources
+   */
+  List<ConfigurationSource> getConfigurationSources() {
+    // A setting takes part when it has a string value - the same test as '??' in the template
+    String externalDirectory = this.internalProperties.getProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_DIRECTORY_PROPERTY_NAME);
+    String packageDirectory = this.internalProperties.getProperty(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_DIR_PROPERTY_NAME);
+    
+    List<ConfigurationSource> configurationSources = new ArrayList<ConfigurationSource>();
+    if (this.internalProperties.getProperty(InternalConfigurationConstants.SYSTEM_PROPERTIES_OVERRIDE_PROPERTY_NAME) != null) {
+      configurationSources.add(new ConfigurationSource(null, false));
+    }
+    String[] prefixPropertyNames = {InternalConfigurationConstants.APPLICATION_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME, InternalConfigurationConstants.DATABASE_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME};
+    for (String prefixPropertyName : prefixPropertyNames) {
+      String runTimeEnvironmentName = String.format("%s-%s.%s", requiredProperty(prefixPropertyName), 
+          requiredProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME), 
+          requiredProperty(InternalConfigurationConstants.CONFIGURATION_NAME_SUFFIX_PROPERTY_NAME));
+      String defaultName = String.format("%s-%s.%s", requiredProperty(prefixPropertyName), 
+          requiredProperty(InternalConfigurationConstants.DEFAULT_CONFIGURATION_NAME_PROPERTY_NAME), 
+          requiredProperty(InternalConfigurationConstants.CONFIGURATION_NAME_SUFFIX_PROPERTY_NAME));
+      if (externalDirectory != null) {
+        configurationSources.add(new ConfigurationSource(externalDirectory + "/" + runTimeEnvironmentName, true));
+      }
+      if (packageDirectory != null) {
+        configurationSources.add(new ConfigurationSource(packageDirectory + "/" + runTimeEnvironmentName, true));
+      }
+      if (externalDirectory != null) {
+        configurationSources.add(new ConfigurationSource(externalDirectory + "/" + defaultName, true));
+      }
+      if (packageDirectory != null) {
+        configurationSources.add(new ConfigurationSource(packageDirectory + "/" + defaultName, false));
+      }
+    }
+    return configurationSources;
+  }
+
+  /**
+   * Load the configuration sources into a combined configuration
+   * 
+   * @param configurationSources Configuration sources in order of precedence
+   * @return Combined configuration
+   */
+  private CombinedConfiguration loadConfigurationSources(List<ConfigurationSource> configurationSources) {
+    final CombinedConfiguration combinedConfiguration = new CombinedConfiguration(new OverrideCombiner());
+    // As with DefaultConfigurationBuilder, variables in one source can refer to values in any of the others
+    ConfigurationInterpolator parentInterpolator = new ConfigurationInterpolator();
+    parentInterpolator.setDefaultLookup(new StrLookup() {
+      @Override
+      public String lookup(String key) {
+        Object value = combinedConfiguration.getProperty(key);
+        if (value instanceof Collection) {
+          Collection<?> values = (Collection<?>) value;
+          value = values.isEmpty() ? null : values.iterator().next();
+        }
+        return value == null ? null : value.toString();
+      }
+    });
+    List<AbstractConfiguration> sourceConfigurations = null;
+    if (this.internalProperties.getBooleanProperty(InternalConfigurationConstants.PARALLEL_SOURCE_LOADING_ENABLED_PROPERTY_NAME)) {
+      sourceConfigurations = ConfigurationSourceLoader.loadParallel(configurationSources, this.configurationTimings);
+    }
+    else {
+      sourceConfigurations = ConfigurationSourceLoader.load(configurationSources);
+    }
+    for (AbstractConfiguration sourceConfiguration : sourceConfigurations) {
+      sourceConfiguration.getInterpolator().setParentInterpolator(parentInterpolator);
+      combinedConfiguration.addConfiguration(sourceConfiguration);
+    }
+    return combinedConfiguration;
+  }
+
+  /**
+   * Parse the configuration sources straight into a snapshot. Gives the same result as loading them into a combined configuration
+   * and flattening it, without building the Apache Commons Configuration node trees.
+   * Packaged sources come from the compiled configuration of the run-time environment, if enabled and present
+   * 
+   * @param configurationSources Configuration sources in order of precedence
+   * @return Configuration snapshot
+   */
+  private Configuration parseConfigurationSources(List<ConfigurationSource> configurationSources) {
+    ConfigurationSnapshotBuilder snapshotBuilder = new ConfigurationSnapshotBuilder();
+    ConfigurationTimings.Phase phase = this.configurationTimings.start(ConfigurationTimings.SOURCE_LOAD);
+    try {
+      CompiledConfiguration compiledConfiguration = null;
+      String packageDirectory = this.internalProperties.getProperty(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_DIR_PROPERTY_NAME);
+      if (packageDirectory != null && this.internalProperties.getBooleanProperty(InternalConfigurationConstants.COMPILED_CONFIGURATION_ENABLED_PROPERTY_NAME)) {
+        compiledConfiguration = CompiledConfiguration.load(packageDirectory, requiredProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME));
+      }
+      PropertiesFileParser parser = new PropertiesFileParser();
+      for (ConfigurationSource configurationSource : configurationSources) {
+        ConfigurationSnapshotBuilder sourceBuilder = null;
+        if (compiledConfiguration != null && compiledConfiguration.contains(configurationSource.getFileName())) {
+          sourceBuilder = compiledConfiguration.getSource(configurationSource.getFileName());
+        }
+        else {
+          sourceBuilder = configurationSource.parse(parser);
+        }
+        if (sourceBuilder != null) {
+          snapshotBuilder.addAbsent(sourceBuilder);
+        }
+      }
+    }
+    finally {
+      phase.stop();
+    }
+
+    phase = this.configurationTimings.start(ConfigurationTimings.SNAPSHOT);
+    try {
+      Iterator<String> propertyNames = this.internalProperties.propertyNames();
+      while (propertyNames.hasNext()) {
+        String propertyName = propertyNames.next();
+        Object propertyValue = this.internalProperties.get(propertyName);
+        // Split as addProperty does on a combined configuration
+        if (propertyValue instanceof String && ((String) propertyValue).indexOf(',') > 0) {
+          propertyValue = ListValue.split((String) propertyValue, ',', true);
+        }
+        snapshotBuilder.addProperty(propertyName, propertyValue);
+      }
+      this.configuration = snapshotBuilder.interpolate().build();
+    }
+    finally {
+      phase.stop();
+    }
+    logger.trace("AppConfig.ConfigurationBuilderDirect.parseConfigurationSources parsed configuration into snapshot");
+    return this.configuration;
+  }
+
+  /*
+   * Get a setting used to build file names. A missing value fails the build, as it does when rendering the template
+   */
+  private String requiredProperty(String propertyName) {
+    String propertyValue = this.internalProperties.getProperty(propertyName);
+    if (propertyValue == null) {
+      String errorMessage = String.format("AppConfig.ConfigurationBuilderDirect.requiredProperty no value for setting %s", propertyName);
+      logger.error(errorMessage);
+      throw new AppConfigException(errorMessage);
+    }
+    return propertyValue;
+  }
+
+}
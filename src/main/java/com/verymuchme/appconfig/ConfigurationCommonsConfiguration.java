@@ -16,9 +16,16 @@ package com.verymuchme.appconfig;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.PropertyConverter;
 
 import ch.qos.logback.classic.LogbackFactory;
 import ch.qos.logback.classic.Logger;
@@ -38,9 +45,24 @@ public class ConfigurationCommonsConfiguration  extends ConfigurationBase implem
   private static final Logger logger = LogbackFactory.getLogger(AppConfig.class);
 
   /*
-   * Underlying combinedConfiguration instance
+   * Underlying combinedConfiguration instance - or a subset of one
+   */
+  private org.apache.commons.configuration.Configuration combinedConfiguration = new org.apache.commons.configuration.CombinedConfiguration();
+
+  /*
+   * Filter of the keys present, or null if disabled. Replaced, never reset, when rebuilt
+   */
+  private volatile KeyBloomFilter keyFilter = null;
+
+  /*
+   * Serializes changes - each filter add, the change it covers and any rebuild happen together, so a rebuild can't miss a key being added
    */
-  private org.apache.commons.configuration.CombinedConfiguration combinedConfiguration = new org.apache.commons.configuration.CombinedConfiguration();
+  private final Object keyFilterLock = new Object();
+
+  /*
+   * Subsets already handed out, by prefix. Commons subsets are copies of the node tree, so they are dropped whenever this configuration changes
+   */
+  private final ConcurrentMap<String, Configuration> subsets = new ConcurrentHashMap<String, Configuration>();
 
   /**
    * Create a new instance
@@ -56,10 +78,52 @@ public class ConfigurationCommonsConfiguration  extends ConfigurationBase implem
   public ConfigurationCommonsConfiguration(org.apache.commons.configuration.CombinedConfiguration combinedConfiguration) {
     this.combinedConfiguration = combinedConfiguration;
   }
+
+  /**
+   * Create a new instance from the specified CombinedConfiguration instance, optionally keeping a filter of its keys
+   *
+   * The filter answers lookups of absent keys without walking the configuration sources. It is kept up to date by the methods of this class,
+   * so the CombinedConfiguration must not be modified directly, and must not contain sources that change on their own, such as system properties
+   * 
+   * @param combinedConfiguration
+   * @param missingKeyFilterEnabled true to keep a filter of the keys
+   */
+  public ConfigurationCommonsConfiguration(org.apache.commons.configuration.CombinedConfiguration combinedConfiguration, boolean missingKeyFilterEnabled) {
+    this.combinedConfiguration = combinedConfiguration;
+    if (missingKeyFilterEnabled) {
+      synchronized (this.keyFilterLock) {
+        rebuildKeyFilter();
+      }
+    }
+  }
+
+  /*
+   * Create a new instance wrapping a subset of another configuration
+   */
+  private ConfigurationCommonsConfiguration(org.apache.commons.configuration.Configuration subsetConfiguration) {
+    this.combinedConfiguration = subsetConfiguration;
+  }
   
   @Override
   public Configuration subset(String prefix) {
-    return (Configuration) this.combinedConfiguration.subset(prefix);
+    Configuration subset = this.subsets.get(prefix);
+    if (subset == null) {
+      subset = new ConfigurationCommonsConfiguration(this.combinedConfiguration.subset(prefix));
+      Configuration existing = this.subsets.putIfAbsent(prefix, subset);
+      if (existing != null) {
+        subset = existing;
+      }
+    }
+    return subset;
+  }
+
+  /*
+   * Subsets copied before a change would keep the old values - forget them
+   */
+  @Override
+  protected void markChanged() {
+    this.subsets.clear();
+    super.markChanged();
   }
 
   @Override
@@ -69,37 +133,72 @@ public class ConfigurationCommonsConfiguration  extends ConfigurationBase implem
 
   @Override
   public boolean containsKey(String key) {
+    if (isKnownAbsent(key)) {
+      return false;
+    }
     return  this.combinedConfiguration.containsKey(key);
   }
 
   @Override
   public void addProperty(String key, Object value) {
-    this.combinedConfiguration.addProperty(key, value);
+    synchronized (this.keyFilterLock) {
+      addToKeyFilter(key);
+      this.combinedConfiguration.addProperty(key, value);
+      checkKeyFilter(key);
+    }
+    markChanged();
   }
 
   @Override
   public void setProperty(String key, Object value) {
-    this.combinedConfiguration.setProperty(key, value);
+    synchronized (this.keyFilterLock) {
+      addToKeyFilter(key);
+      this.combinedConfiguration.setProperty(key, value);
+      checkKeyFilter(key);
+    }
+    markChanged();
   }
 
   @Override
   public void clearProperty(String key) {
     this.combinedConfiguration.clearProperty(key);
+    markChanged();
   }
 
   @Override
   public void clear() {
-    this.combinedConfiguration.clear();
+    synchronized (this.keyFilterLock) {
+      this.combinedConfiguration.clear();
+      if (this.keyFilter != null) {
+        this.keyFilter = new KeyBloomFilter(0);
+      }
+    }
+    markChanged();
   }
 
   @Override
   public Object getProperty(String key) {
+    if (isKnownAbsent(key)) {
+      return null;
+    }
     return this.combinedConfiguration.getProperty(key);
   }
 
+  /**
+   * Commons returns raw values from getProperty - interpolate like the typed getters do
+   */
+  @Override
+  protected Object getScalarProperty(String key) {
+    Object value = super.getScalarProperty(key);
+    if (value instanceof String && ((String) value).indexOf("${") >= 0 && this.combinedConfiguration instanceof AbstractConfiguration) {
+      return PropertyConverter.interpolate(value, (AbstractConfiguration) this.combinedConfiguration);
+    }
+    return value;
+  }
+
   @Override
   public Iterator<String> getKeys(String prefix) {
-    return this.combinedConfiguration.getKeys();
+    return this.combinedConfiguration.getKeys(prefix);
   }
 
   @Override
@@ -114,146 +213,233 @@ public class ConfigurationCommonsConfiguration  extends ConfigurationBase implem
 
   @Override
   public boolean getBoolean(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getBoolean(key);
   }
 
   @Override
   public boolean getBoolean(String key, boolean defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getBoolean(key, defaultValue);
   }
 
   @Override
   public Boolean getBoolean(String key, Boolean defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getBoolean(key, defaultValue);
   }
 
   @Override
   public byte getByte(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getByte(key);
   }
 
   @Override
   public byte getByte(String key, byte defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getByte(key, defaultValue);
   }
 
   @Override
   public Byte getByte(String key, Byte defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getByte(key, defaultValue);
   }
 
   @Override
   public double getDouble(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getDouble(key);
   }
 
   @Override
   public double getDouble(String key, double defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getDouble(key, defaultValue);
   }
 
   @Override
   public Double getDouble(String key, Double defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getDouble(key, defaultValue);
   }
 
   @Override
   public float getFloat(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getFloat(key);
   }
 
   @Override
   public float getFloat(String key, float defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getFloat(key, defaultValue);
   }
 
   @Override
   public Float getFloat(String key, Float defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getFloat(key, defaultValue);
   }
 
   @Override
   public int getInt(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getInt(key);
   }
 
   @Override
   public int getInt(String key, int defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getInt(key, defaultValue);
   }
 
   @Override
   public Integer getInteger(String key, Integer defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getInteger(key, defaultValue);
   }
 
   @Override
   public long getLong(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getLong(key);
   }
 
   @Override
   public long getLong(String key, long defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getLong(key, defaultValue);
   }
 
   @Override
   public Long getLong(String key, Long defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getLong(key, defaultValue);
   }
 
   @Override
   public short getShort(String key) {
+    if (isKnownAbsent(key)) {
+      throw missing(key);
+    }
     return this.combinedConfiguration.getShort(key);
   }
 
   @Override
   public short getShort(String key, short defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getShort(key, defaultValue);
   }
 
   @Override
   public Short getShort(String key, Short defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getShort(key, defaultValue);
   }
 
   @Override
   public BigDecimal getBigDecimal(String key) {
+    if (isKnownAbsent(key)) {
+      return null;
+    }
     return this.combinedConfiguration.getBigDecimal(key);
   }
 
   @Override
   public BigDecimal getBigDecimal(String key, BigDecimal defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getBigDecimal(key, defaultValue);
   }
 
   @Override
   public BigInteger getBigInteger(String key) {
+    if (isKnownAbsent(key)) {
+      return null;
+    }
     return this.combinedConfiguration.getBigInteger(key);
   }
 
   @Override
   public BigInteger getBigInteger(String key, BigInteger defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getBigInteger(key, defaultValue);
   }
 
   @Override
   public String getString(String key) {
+    if (isKnownAbsent(key)) {
+      return null;
+    }
     return this.combinedConfiguration.getString(key);
   }
 
   @Override
   public String getString(String key, String defaultValue) {
+    if (isKnownAbsent(key)) {
+      return defaultValue;
+    }
     return this.combinedConfiguration.getString(key, defaultValue);
   }
 
   @Override
   public String[] getStringArray(String key) {
+    if (isKnownAbsent(key)) {
+      return new String[0];
+    }
     return this.combinedConfiguration.getStringArray(key);
   }
 
   @Override
   public List<Object> getList(String key) {
+    if (isKnownAbsent(key)) {
+      return new ArrayList<Object>();
+    }
     return this.combinedConfiguration.getList(key);
   }
 
@@ -263,4 +449,64 @@ public class ConfigurationCommonsConfiguration  extends ConfigurationBase implem
 //  }
 
   
+  /*
+   * True if the key filter shows the key is certainly absent. Keys using expression syntax - indexes, attributes, escaped delimiters - bypass the filter,
+   * since they can match keys spelled differently
+   */
+  private boolean isKnownAbsent(String key) {
+    KeyBloomFilter filter = this.keyFilter;
+    return filter != null && key != null && !filter.mightContain(key) && isPlainKey(key);
+  }
+
+  private static boolean isPlainKey(String key) {
+    return key.length() > 0 && key.indexOf('(') < 0 && key.indexOf('[') < 0 && key.indexOf("..") < 0
+        && key.charAt(0) != '.' && key.charAt(key.length() - 1) != '.';
+  }
+
+  /*
+   * Record a key before it is added, so readers never see it present in the configuration but absent from the filter. Called holding keyFilterLock
+   */
+  private void addToKeyFilter(String key) {
+    KeyBloomFilter filter = this.keyFilter;
+    if (filter != null && key != null) {
+      filter.add(key);
+    }
+  }
+
+  /*
+   * Rebuild the filter once it is full, or if a key in expression syntax may have added a key spelled differently. Called holding keyFilterLock
+   */
+  private void checkKeyFilter(String key) {
+    KeyBloomFilter filter = this.keyFilter;
+    if (filter != null && (filter.isSaturated() || key == null || !isPlainKey(key))) {
+      rebuildKeyFilter();
+    }
+  }
+
+  /*
+   * Build a new filter of the current keys and publish it. Called holding keyFilterLock
+   */
+  private void rebuildKeyFilter() {
+    int keyCount = 0;
+    Iterator<String> keys = this.combinedConfiguration.getKeys();
+    while (keys.hasNext()) {
+      keys.next();
+      keyCount++;
+    }
+    KeyBloomFilter filter = new KeyBloomFilter(keyCount * 2);
+    keys = this.combinedConfiguration.getKeys();
+    while (keys.hasNext()) {
+      filter.add(keys.next());
+    }
+    this.keyFilter = filter;
+    logger.trace(String.format("AppConfig.ConfigurationCommonsConfiguration.rebuildKeyFilter filter built for %d keys", keyCount));
+  }
+
+  /*
+   * Exception for a missing key - same as Apache Commons Configuration
+   */
+  private static NoSuchElementException missing(String key) {
+    return new NoSuchElementException(String.format("'%s' doesn't map to an existing object", key));
+  }
+
 }
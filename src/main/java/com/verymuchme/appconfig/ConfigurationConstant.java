@@ -0,0 +1,156 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Base class for configuration values the JIT compiler may treat as constants
+ *
+ * The value is held as the target of a MutableCallSite - a constant method handle. Compiled code that reads it through
+ * the invoker can fold the value and the branches depending on it. When the owning configuration changes, only the constants whose
+ * value actually changed get a new target, so only code depending on those keys is deoptimized.
+ *
+ * Meant for values that almost never change, such as feature toggles or buffer sizes - every change costs a deoptimization.
+ * Constants are registered with their configuration for its lifetime. Asking again for the same key and default returns the registered constant.
+ * For the value to be folded, the caller should keep the invoker in a static final field and call invokeExact on it; get() is a convenience that
+ * goes through an instance field.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public abstract class ConfigurationConstant {
+
+  /*
+   * Logger instance
+   */
+  protected static final Logger logger = LogbackFactory.getLogger(ConfigurationConstant.class);
+
+  /*
+   * Key of the constant
+   */
+  protected final String key;
+
+  /*
+   * Call site holding the current value
+   */
+  protected final MutableCallSite callSite;
+
+  /*
+   * Invoker for the call site
+   */
+  protected final MethodHandle invoker;
+
+  /*
+   * Primitive type of the value
+   */
+  private final Class<?> type;
+
+  /*
+   * Boxed value used when the key is missing or its value can't be converted
+   */
+  private final Object defaultValue;
+
+  /*
+   * Boxed value the call site currently returns. Only changed by update(), which the owning configuration serializes
+   */
+  private Object value;
+
+  /**
+   * Create a new constant
+   *
+   * @param key Property name
+   * @param type Primitive type of the value
+   * @param defaultValue Boxed value used when the key is missing or its value can't be converted
+   * @param initialValue Boxed initial value
+   */
+  protected ConfigurationConstant(String key, Class<?> type, Object defaultValue, Object initialValue) {
+    this.key = key;
+    this.type = type;
+    this.defaultValue = defaultValue;
+    this.value = initialValue;
+    this.callSite = new MutableCallSite(MethodHandles.constant(type, initialValue));
+    this.invoker = this.callSite.dynamicInvoker();
+  }
+
+  /**
+   * Get the key of this constant
+   *
+   * @return Property name
+   */
+  public String getKey() {
+    return this.key;
+  }
+
+  /**
+   * Get the invoker for this constant. It takes no arguments and returns the primitive value
+   *
+   * @return Method handle, suitable for a static final field
+   */
+  public MethodHandle invoker() {
+    return this.invoker;
+  }
+
+  /**
+   * Read the value again from the configuration and retarget the call site if it changed.
+   * Called by the owning configuration, which syncs all changed call sites in one batch
+   *
+   * @param configuration Configuration to read from
+   * @return true if the value changed
+   */
+  protected boolean update(Configuration configuration) {
+    Object newValue;
+    try {
+      newValue = read(configuration);
+    }
+    catch (RuntimeException e) {
+      // A reload never fails because of a constant
+      logger.warn(String.format("AppConfig.ConfigurationConstant value of %s can't be converted - using the default", this.key));
+      newValue = null;
+    }
+    if (newValue == null) {
+      newValue = this.defaultValue;
+    }
+    if (newValue.equals(this.value)) {
+      return false;
+    }
+    this.value = newValue;
+    this.callSite.setTarget(MethodHandles.constant(this.type, newValue));
+    return true;
+  }
+
+  /**
+   * Read and convert the value of the key
+   *
+   * @param configuration Configuration to read from
+   * @return Boxed value, or null if the key is missing
+   * @throws RuntimeException if the value can't be converted
+   */
+  protected abstract Object read(Configuration configuration);
+
+  /*
+   * Exception for a failed invocation - can't happen for a constant handle of the right type
+   */
+  protected AppConfigException invocationFailed(Throwable t) {
+    return new AppConfigException(String.format("AppConfig.ConfigurationConstant failed to read constant %s", this.key), t);
+  }
+
+}
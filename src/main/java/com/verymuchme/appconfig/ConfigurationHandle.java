@@ -0,0 +1,150 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for precompiled accessors of a single configuration key
+ *
+ * A handle caches the converted value together with the configuration version it was read from. Subclasses encode their primitive value as a long,
+ * so one kind of cached state serves all of them and reads never box.
+ * A read is a volatile read of the cached state plus a version check - the key is only looked up and converted again when the version changes.
+ *
+ * Handles are thread safe and meant to be created once and kept, e.g. in a static final field.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public abstract class ConfigurationHandle {
+
+  /*
+   * Configuration the handle reads from
+   */
+  protected final Configuration configuration;
+
+  /*
+   * Key read by the handle
+   */
+  protected final String key;
+
+  /*
+   * Whether a default value applies when the key is missing
+   */
+  protected final boolean hasDefault;
+
+  /*
+   * Default value, encoded like the cached value
+   */
+  private final long defaultBits;
+
+  /*
+   * Value cached for a configuration version
+   */
+  private volatile State state = null;
+
+  /**
+   * Create a new handle
+   *
+   * @param configuration Configuration to read from
+   * @param key Property name
+   * @param hasDefault true if a default value applies when the key is missing
+   * @param defaultBits Default value, encoded as the subclass encodes its values
+   */
+  protected ConfigurationHandle(Configuration configuration, String key, boolean hasDefault, long defaultBits) {
+    this.configuration = configuration;
+    this.key = key;
+    this.hasDefault = hasDefault;
+    this.defaultBits = defaultBits;
+  }
+
+  /**
+   * Get the current value, encoded as a long, reading it again if the configuration version changed
+   *
+   * @return Encoded value for the current configuration version
+   * @throws java.util.NoSuchElementException if the key is missing and there is no default
+   * @throws org.apache.commons.configuration.ConversionException if the value can't be converted
+   */
+  protected final long currentBits() {
+    State current = this.state;
+    if (current == null || current.version != this.configuration.getVersion()) {
+      current = refresh();
+    }
+    if (!current.present) {
+      throw missing();
+    }
+    return current.bits;
+  }
+
+  /**
+   * Read and convert the value of the key
+   *
+   * @return Value encoded as a long, or null if the key is missing
+   */
+  protected abstract Long readBits();
+
+  /*
+   * Read and convert the value again. The version is read first so a concurrent change can only cause another refresh, never a stale value
+   */
+  private State refresh() {
+    long version = this.configuration.getVersion();
+    Long bits = readBits();
+    State current = bits != null ? new State(version, bits.longValue(), true) : new State(version, this.defaultBits, this.hasDefault);
+    this.state = current;
+    return current;
+  }
+
+  /**
+   * Get the key read by this handle
+   *
+   * @return Property name
+   */
+  public String getKey() {
+    return this.key;
+  }
+
+  /**
+   * Get the configuration this handle reads from
+   *
+   * @return Configuration instance
+   */
+  public Configuration getConfiguration() {
+    return this.configuration;
+  }
+
+  /*
+   * Exception for a missing key without a default - same as the Configuration getters
+   */
+  protected NoSuchElementException missing() {
+    return new NoSuchElementException(String.format("'%s' doesn't map to an existing object", this.key));
+  }
+
+  /*
+   * Immutable cached state
+   */
+  private static final class State {
+    final long version;
+    final long bits;
+    final boolean present;
+
+    State(long version, long bits, boolean present) {
+      this.version = version;
+      this.bits = bits;
+      this.present = present;
+    }
+  }
+
+}
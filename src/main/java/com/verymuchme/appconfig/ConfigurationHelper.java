@@ -14,12 +14,15 @@
  */
 package com.verymuchme.appconfig;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ch.qos.logback.classic.LogbackFactory;
 import ch.qos.logback.classic.Logger;
@@ -38,28 +41,67 @@ public class ConfigurationHelper {
    * Logger instance
    */
   private static Logger logger = null;
+
+  /*
+   * Parsed internal defaults by resource name, per ConfigurationHelper class
+   */
+  private static final ClassValue<ConcurrentMap<String,ExtendedProperties>> INTERNAL_DEFAULTS_CACHE = new ClassValue<ConcurrentMap<String,ExtendedProperties>>() {
+    @Override
+    protected ConcurrentMap<String,ExtendedProperties> computeValue(Class<?> helperClass) {
+      return new ConcurrentHashMap<String,ExtendedProperties>();
+    }
+  };
   
   /**
-   * Get a setting. Look first in options, then system properties , then environment
+   * Get a setting. Look first in options, then system properties , then environment - by exact name, then relaxed name (e.g. COM_VERYMUCHME_APPCONFIG_RUNTIMEENVIRONMENT)
    * 
    * @param propertyName Name of setting
    * @param options Hash of runtime options
    * @return Value as an object
    */
   public Object getSettingFromOptionsEnvSystem(String propertyName, Options options) {
-    options = options == null ? new Options() : options;
-    Object setting = null;
-    setting = options.get(propertyName);
-    if (setting == null) {
-      setting = System.getProperty(propertyName);
-    }
-    if (setting == null) {
-      setting = System.getenv(propertyName);
-    }
-    return setting;
+    return SettingsResolver.resolve(propertyName, options);
   }
   
   
+  /**
+   * Discard the parsed internal defaults cached for a ConfigurationHelper class - e.g. after changing a defaults file on the classpath
+   * 
+   * @param helperClass ConfigurationHelper class (or subclass) the defaults were loaded through
+   */
+  public static void clearInternalDefaultsCache(Class<? extends ConfigurationHelper> helperClass) {
+    INTERNAL_DEFAULTS_CACHE.get(helperClass).clear();
+  }
+
+  /*
+   * Get the parsed internal defaults from a classpath resource. Each resource is read and typed once per class - and so per class loader.
+   * The instance returned is shared - copy it before changing it
+   */
+  private ExtendedProperties loadInternalDefaults(String resourceName) throws IOException {
+    ConcurrentMap<String,ExtendedProperties> internalDefaultsCache = INTERNAL_DEFAULTS_CACHE.get(getClass());
+    ExtendedProperties internalDefaults = internalDefaultsCache.get(resourceName);
+    if (internalDefaults == null) {
+      InputStream internalDefaultsInputStream = getClass().getResourceAsStream(resourceName);
+      if (internalDefaultsInputStream == null) {
+        throw new IOException(String.format("Internal defaults %s not found", resourceName));
+      }
+      Properties properties = new Properties();
+      try {
+        properties.load(internalDefaultsInputStream);
+      }
+      finally {
+        internalDefaultsInputStream.close();
+      }
+      internalDefaults = new ExtendedProperties();
+      internalDefaults.loadStringProperties(properties);
+      ExtendedProperties cachedDefaults = internalDefaultsCache.putIfAbsent(resourceName, internalDefaults);
+      if (cachedDefaults != null) {
+        internalDefaults = cachedDefaults;
+      }
+    }
+    return internalDefaults;
+  }
+
   /**
    * Load internal properties files
    * 
@@ -69,45 +111,49 @@ public class ConfigurationHelper {
    * @param options Runtime options
    */
   public ExtendedProperties loadInternalProperties(Options options) {
+    return loadInternalProperties(options, true);
+  }
+
+  /**
+   * Load internal properties from the options and defaults alone, ignoring system properties and environment variables
+   * 
+   * For build time, where the build machine's settings must not end up in what is built
+   * 
+   * @param options Build options
+   */
+  public ExtendedProperties loadInternalPropertiesFromOptions(Options options) {
+    return loadInternalProperties(options, false);
+  }
 
-    Properties internalDefaults = null;
-    InputStream internalDefaultsInputStream = null;
+  private ExtendedProperties loadInternalProperties(Options options, boolean useSystemAndEnvironment) {
+
+    ExtendedProperties internalDefaults = null;
     ExtendedProperties internalProperties = null;
     
     // Load internal defaults
     try {
-      internalDefaults = new Properties();
-      internalDefaultsInputStream = getClass().getResourceAsStream(InternalConfigurationConstants.INTERNAL_DEFAULTS_PROPERTY_FILE_NAME);
-      internalDefaults.load(internalDefaultsInputStream);
+      internalDefaults = loadInternalDefaults(InternalConfigurationConstants.INTERNAL_DEFAULTS_PROPERTY_FILE_NAME);
     }
     catch (Exception e) {
       String errorMessage = "AppConfig.ConfigurationDefinitionBuilder.setInternalProperties failed to load the default internal properties for AppConfig";
       logger.error(errorMessage,e);
       throw new AppConfigException(errorMessage,e);
     }
-    finally {
-      try {
-        internalDefaultsInputStream.close();
-      }
-      catch (Exception e) {
-        // Ignore
-      }
-    }
 
     try {
       boolean overriddenAlready = false; 
+      // Capture the options, system properties and environment once for all settings and both passes
+      SettingsResolver settingsResolver = new SettingsResolver(options, useSystemAndEnvironment);
       
       while (true) {
   
-        internalProperties = new ExtendedProperties();
-        internalProperties.loadStringProperties(internalDefaults);
+        internalProperties = internalDefaults.copy();
         
         // Do this in reverse order so the value defaulting order works
-        @SuppressWarnings("unchecked")
-        Iterator<String> propertyNamesItr = internalProperties.propertyNames();
+        Iterator<String> propertyNamesItr = internalDefaults.propertyNames();
         while (propertyNamesItr.hasNext()) {
           String propertyName = propertyNamesItr.next();
-          Object overrideValue = getSettingFromOptionsEnvSystem(propertyName,options);
+          Object overrideValue = settingsResolver.get(propertyName);
           if (overrideValue != null) {
             internalProperties.put(propertyName, overrideValue);
           }
@@ -127,10 +173,7 @@ public class ConfigurationHelper {
           else {
             // Go around again to reload everything against the new defaults
             logger.trace(String.format("AppConfig.ConfigurationHelper.loadInternalProperties Reloading because found internal property file override %s",overriddenInternalPropertiesFileName));
-            internalDefaults = new Properties();
-            internalDefaultsInputStream = getClass().getResourceAsStream(overriddenInternalPropertiesFileName);
-            internalDefaults.load(internalDefaultsInputStream);
-            internalDefaultsInputStream.close();        
+            internalDefaults = loadInternalDefaults(overriddenInternalPropertiesFileName);
             overriddenAlready = true;
           }
         }
@@ -239,6 +282,36 @@ public class ConfigurationHelper {
     return configNames;
   }
 
+  /**
+   * Generate the names of the configuration files looked for in the external configuration directory - same files as the default configuration template
+   * 
+   * @param internalProperties Internal Properties
+   * 
+   * @return List of file names (without directory), empty if no external configuration directory is set
+   */
+  public List<String> generateExternalConfigurationNames(ExtendedProperties internalProperties) {
+    List<String> configNames = new ArrayList<String>();
+    if (internalProperties.getProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_DIRECTORY_PROPERTY_NAME) == null) {
+      return configNames;
+    }
+    String suffix = internalProperties.getProperty(InternalConfigurationConstants.CONFIGURATION_NAME_SUFFIX_PROPERTY_NAME);
+    String rtEnv = internalProperties.getProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME);
+    String defaultPropName = internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_CONFIGURATION_NAME_PROPERTY_NAME);
+    String[] prefixes = new String[] {
+        internalProperties.getProperty(InternalConfigurationConstants.APPLICATION_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME),
+        internalProperties.getProperty(InternalConfigurationConstants.DATABASE_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME)
+    };
+    for (String prefix : prefixes) {
+      configNames.add(String.format("%s-%s.%s",prefix,rtEnv,suffix));
+      configNames.add(String.format("%s-%s.%s",prefix,defaultPropName,suffix));
+    }
+    if (logger.isTraceEnabled()) {
+      for (String confName : configNames) {
+        logger.trace(String.format("AppConfig.ConfigurationHelper.generateExternalConfigurationNames external configuration name %s",confName));
+      }
+    }
+    return configNames;
+  }
   
   /**
    * Set the active logger for this class
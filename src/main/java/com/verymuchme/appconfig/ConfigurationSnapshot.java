@@ -0,0 +1,891 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.ConversionException;
+import org.apache.commons.configuration.PropertyConverter;
+
+/**
+ * Immutable Configuration holding fully resolved values
+ *
+ * The combined result of all configuration sources is flattened once, at build time, into an open-addressing hash table.
+ * A read is a single probe of that table - no locks, no source walking, no interpolation.
+ *
+ * Values that parse as int, long, double or boolean are also stored converted, in primitive arrays indexed by slot. The matching getters
+ * read those directly - no boxing, no parsing, no exceptions. Other values are converted on each call, as before.
+ *
+ * List values are split once, when the configuration is parsed, and held as immutable lists. getList returns the held list itself.
+ *
+ * A sorted key index is built alongside, so getKeys(prefix) is a binary search plus the matching keys.
+ * subset(prefix) returns a cached view sharing the tables of the snapshot it was taken from - nothing is copied,
+ * and a lookup in the view probes the shared table with the hash of the full key computed on the fly.
+ *
+ * Typed getters follow the conversion rules (and exceptions) of Apache Commons Configuration.
+ * All mutators throw UnsupportedOperationException.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class ConfigurationSnapshot extends ConfigurationBase implements Configuration {
+
+  /*
+   * Open-addressing hash table. Keys, spread hash codes and values share a slot index. Kept at most half full
+   */
+  private final String[] tableKeys;
+  private final int[] tableHashes;
+  private final Object[] tableValues;
+  private final int tableMask;
+
+  /*
+   * Typed values by slot. tableTypes holds ConfigurationValueParser type flags, tableBooleans is a bitset
+   */
+  private final byte[] tableTypes;
+  private final int[] tableInts;
+  private final long[] tableLongs;
+  private final double[] tableDoubles;
+  private final long[] tableBooleans;
+
+  /*
+   * Keys in the order they were added
+   */
+  private final String[] orderedKeys;
+
+  /*
+   * All keys in sorted order - keys sharing a prefix form a contiguous range
+   */
+  private final String[] sortedKeys;
+
+  /*
+   * Subset views already handed out, by full prefix. Shared by a snapshot and all its views
+   */
+  private final ConcurrentMap<String, ConfigurationSnapshot> subsets;
+
+  /*
+   * For a subset view: the prefix, the prefix followed by the key delimiter and the hash code of the latter. Null for a full snapshot
+   */
+  private final String subsetPrefix;
+  private final String keyPrefix;
+  private final int keyPrefixHash;
+
+  /*
+   * For a subset view: range of sortedKeys starting with keyPrefix
+   */
+  private final int rangeStart;
+  private final int rangeEnd;
+
+  /**
+   * Create a snapshot of an Apache Commons Configuration instance
+   *
+   * @param configuration Source configuration
+   *
+   * @return Snapshot of the configuration with all values interpolated
+   */
+  public static ConfigurationSnapshot fromConfiguration(AbstractConfiguration configuration) {
+    return new ConfigurationSnapshotBuilder().addConfiguration(configuration).build();
+  }
+
+  /*
+   * Create a new instance - used by ConfigurationSnapshotBuilder. Lists in values must already be ListValue instances
+   */
+  ConfigurationSnapshot(String[] keys, Object[] values) {
+    int capacity = 2;
+    while (capacity < keys.length * 2) {
+      capacity <<= 1;
+    }
+    this.tableKeys = new String[capacity];
+    this.tableHashes = new int[capacity];
+    this.tableValues = new Object[capacity];
+    this.tableMask = capacity - 1;
+    this.tableTypes = new byte[capacity];
+    this.tableInts = new int[capacity];
+    this.tableLongs = new long[capacity];
+    this.tableDoubles = new double[capacity];
+    this.tableBooleans = new long[(capacity + 63) >>> 6];
+    this.orderedKeys = keys;
+    ConfigurationValueParser parser = new ConfigurationValueParser();
+    for (int i = 0; i < keys.length; i++) {
+      int hash = spread(keys[i].hashCode());
+      int slot = hash & this.tableMask;
+      while (this.tableKeys[slot] != null) {
+        slot = (slot + 1) & this.tableMask;
+      }
+      this.tableKeys[slot] = keys[i];
+      this.tableHashes[slot] = hash;
+      this.tableValues[slot] = values[i];
+      storeTyped(parser, slot);
+    }
+    this.sortedKeys = keys.clone();
+    Arrays.sort(this.sortedKeys);
+    this.subsets = new ConcurrentHashMap<String, ConfigurationSnapshot>();
+    this.subsetPrefix = null;
+    this.keyPrefix = null;
+    this.keyPrefixHash = 0;
+    this.rangeStart = 0;
+    this.rangeEnd = this.sortedKeys.length;
+  }
+
+  /*
+   * Create a subset view - shares all tables with the snapshot. The prefix is relative to the full snapshot
+   */
+  private ConfigurationSnapshot(ConfigurationSnapshot snapshot, String prefix) {
+    this.tableKeys = snapshot.tableKeys;
+    this.tableHashes = snapshot.tableHashes;
+    this.tableValues = snapshot.tableValues;
+    this.tableMask = snapshot.tableMask;
+    this.tableTypes = snapshot.tableTypes;
+    this.tableInts = snapshot.tableInts;
+    this.tableLongs = snapshot.tableLongs;
+    this.tableDoubles = snapshot.tableDoubles;
+    this.tableBooleans = snapshot.tableBooleans;
+    this.orderedKeys = null;
+    this.sortedKeys = snapshot.sortedKeys;
+    this.subsets = snapshot.subsets;
+    this.subsetPrefix = prefix;
+    this.keyPrefix = prefix + ".";
+    this.keyPrefixHash = this.keyPrefix.hashCode();
+    this.rangeStart = lowerBound(this.sortedKeys, this.keyPrefix);
+    this.rangeEnd = lowerBound(this.sortedKeys, prefix + "/");
+  }
+
+  /*
+   * Spread the high bits of a hash code into the low bits used for slot selection
+   */
+  static int spread(int hashCode) {
+    int hash = hashCode * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /*
+   * Classify the value in a slot and store its typed forms
+   */
+  private void storeTyped(ConfigurationValueParser parser, int slot) {
+    byte types = parser.parse(scalarAt(slot));
+    this.tableTypes[slot] = types;
+    this.tableInts[slot] = parser.intValue;
+    this.tableLongs[slot] = parser.longValue;
+    this.tableDoubles[slot] = parser.doubleValue;
+    if (parser.booleanValue && (types & ConfigurationValueParser.TYPE_BOOLEAN) != 0) {
+      this.tableBooleans[slot >>> 6] |= 1L << slot;
+    }
+  }
+
+  private boolean hasType(int slot, byte type) {
+    return (this.tableTypes[slot] & type) != 0;
+  }
+
+  private boolean booleanAt(int slot) {
+    return (this.tableBooleans[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  /*
+   * First index in a sorted array holding a value not less than key
+   */
+  private static int lowerBound(String[] sorted, String key) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sorted[middle].compareTo(key) < 0) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /*
+   * Full key for a key of this snapshot. Allocates for views - not for use on the read path
+   */
+  private String fullKey(String key) {
+    if (this.keyPrefix == null) {
+      return key;
+    }
+    return key.length() == 0 ? this.subsetPrefix : this.keyPrefix + key;
+  }
+
+  /*
+   * Slot holding a key, or -1 if absent
+   */
+  private int slotOf(String key) {
+    if (this.keyPrefix != null) {
+      return key.length() == 0 ? fullSlotOf(this.subsetPrefix) : viewSlotOf(key);
+    }
+    return fullSlotOf(key);
+  }
+
+  /*
+   * Slot holding a full key, or -1 if absent
+   */
+  private int fullSlotOf(String key) {
+    int hash = spread(key.hashCode());
+    int slot = hash & this.tableMask;
+    String slotKey;
+    while ((slotKey = this.tableKeys[slot]) != null) {
+      if (this.tableHashes[slot] == hash && (slotKey == key || slotKey.equals(key))) {
+        return slot;
+      }
+      slot = (slot + 1) & this.tableMask;
+    }
+    return -1;
+  }
+
+  /*
+   * Slot holding keyPrefix + key, or -1 if absent. The hash of the full key is continued from the hash of the prefix, so nothing is concatenated
+   */
+  private int viewSlotOf(String key) {
+    int length = key.length();
+    int prefixLength = this.keyPrefix.length();
+    int fullHash = this.keyPrefixHash;
+    for (int i = 0; i < length; i++) {
+      fullHash = 31 * fullHash + key.charAt(i);
+    }
+    int hash = spread(fullHash);
+    int slot = hash & this.tableMask;
+    String slotKey;
+    while ((slotKey = this.tableKeys[slot]) != null) {
+      if (this.tableHashes[slot] == hash && slotKey.length() == prefixLength + length
+          && slotKey.startsWith(this.keyPrefix) && slotKey.regionMatches(prefixLength, key, 0, length)) {
+        return slot;
+      }
+      slot = (slot + 1) & this.tableMask;
+    }
+    return -1;
+  }
+
+  /*
+   * Single value for a key - the first element for list values. Null if absent
+   */
+  private Object getScalar(String key) {
+    int slot = slotOf(key);
+    return slot < 0 ? null : scalarAt(slot);
+  }
+
+  private Object scalarAt(int slot) {
+    Object value = this.tableValues[slot];
+    return (value instanceof List) ? ((List<?>) value).get(0) : value;
+  }
+
+  private static NoSuchElementException missing(String key) {
+    return new NoSuchElementException(String.format("'%s' doesn't map to an existing object", key));
+  }
+
+  private static ConversionException notConvertible(String key, String typeName, Exception cause) {
+    return new ConversionException(String.format("'%s' doesn't map to a %s object", key, typeName), cause);
+  }
+
+  @Override
+  public Configuration subset(String prefix) {
+    if (prefix == null || prefix.length() == 0) {
+      return this;
+    }
+    String fullPrefix = fullKey(prefix);
+    ConfigurationSnapshot subset = this.subsets.get(fullPrefix);
+    if (subset == null) {
+      subset = new ConfigurationSnapshot(this, fullPrefix);
+      ConfigurationSnapshot existing = this.subsets.putIfAbsent(fullPrefix, subset);
+      if (existing != null) {
+        subset = existing;
+      }
+    }
+    return subset;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    if (this.keyPrefix == null) {
+      return this.orderedKeys.length == 0;
+    }
+    return this.rangeStart == this.rangeEnd && fullSlotOf(this.subsetPrefix) < 0;
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return slotOf(key) >= 0;
+  }
+
+  @Override
+  public void addProperty(String key, Object value) {
+    throw new UnsupportedOperationException("ConfigurationSnapshot is immutable");
+  }
+
+  @Override
+  public void setProperty(String key, Object value) {
+    throw new UnsupportedOperationException("ConfigurationSnapshot is immutable");
+  }
+
+  @Override
+  public void clearProperty(String key) {
+    throw new UnsupportedOperationException("ConfigurationSnapshot is immutable");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("ConfigurationSnapshot is immutable");
+  }
+
+  @Override
+  public Object getProperty(String key) {
+    int slot = slotOf(key);
+    return slot < 0 ? null : this.tableValues[slot];
+  }
+
+  @Override
+  public Iterator<String> getKeys(String prefix) {
+    String fullPrefix = fullKey(prefix);
+    String exactKey = fullSlotOf(fullPrefix) >= 0 ? fullPrefix : null;
+    int start = lowerBound(this.sortedKeys, fullPrefix + ".");
+    int end = lowerBound(this.sortedKeys, fullPrefix + "/");
+    return new KeyRangeIterator(exactKey, this.sortedKeys, start, end, this.keyPrefix == null ? 0 : this.keyPrefix.length());
+  }
+
+  @Override
+  public Iterator<String> getKeys() {
+    if (this.keyPrefix == null) {
+      return Arrays.asList(this.orderedKeys).iterator();
+    }
+    String exactKey = fullSlotOf(this.subsetPrefix) >= 0 ? this.subsetPrefix : null;
+    return new KeyRangeIterator(exactKey, this.sortedKeys, this.rangeStart, this.rangeEnd, this.keyPrefix.length());
+  }
+
+  @Override
+  public Properties getProperties(String key) {
+    Properties properties = new Properties();
+    String[] tokens = getStringArray(key);
+    for (String token : tokens) {
+      int equalSign = token.indexOf('=');
+      if (equalSign > 0) {
+        properties.put(token.substring(0, equalSign).trim(), token.substring(equalSign + 1).trim());
+      }
+      else if (tokens.length == 1 && "".equals(token)) {
+        // Equivalent to an empty Properties object
+        break;
+      }
+      else {
+        throw new IllegalArgumentException(String.format("'%s' does not contain an equals sign", token));
+      }
+    }
+    return properties;
+  }
+
+  @Override
+  public boolean getBoolean(String key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      throw missing(key);
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_BOOLEAN)) {
+      return booleanAt(slot);
+    }
+    return toBoolean(key, scalarAt(slot)).booleanValue();
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_BOOLEAN)) {
+      return booleanAt(slot);
+    }
+    return toBoolean(key, scalarAt(slot)).booleanValue();
+  }
+
+  @Override
+  public Boolean getBoolean(String key, Boolean defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_BOOLEAN)) {
+      return Boolean.valueOf(booleanAt(slot));
+    }
+    return toBoolean(key, scalarAt(slot));
+  }
+
+  private static Boolean toBoolean(String key, Object value) {
+    try {
+      return PropertyConverter.toBoolean(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Boolean", e);
+    }
+  }
+
+  @Override
+  public byte getByte(String key) {
+    Byte value = getByte(key, (Byte) null);
+    if (value == null) {
+      throw missing(key);
+    }
+    return value.byteValue();
+  }
+
+  @Override
+  public byte getByte(String key, byte defaultValue) {
+    Object value = getScalar(key);
+    return value == null ? defaultValue : toByte(key, value).byteValue();
+  }
+
+  @Override
+  public Byte getByte(String key, Byte defaultValue) {
+    Object value = getScalar(key);
+    return value == null ? defaultValue : toByte(key, value);
+  }
+
+  private static Byte toByte(String key, Object value) {
+    try {
+      return PropertyConverter.toByte(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Byte", e);
+    }
+  }
+
+  @Override
+  public double getDouble(String key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      throw missing(key);
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_DOUBLE)) {
+      return this.tableDoubles[slot];
+    }
+    return toDouble(key, scalarAt(slot)).doubleValue();
+  }
+
+  @Override
+  public double getDouble(String key, double defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_DOUBLE)) {
+      return this.tableDoubles[slot];
+    }
+    return toDouble(key, scalarAt(slot)).doubleValue();
+  }
+
+  @Override
+  public Double getDouble(String key, Double defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_DOUBLE)) {
+      return Double.valueOf(this.tableDoubles[slot]);
+    }
+    return toDouble(key, scalarAt(slot));
+  }
+
+  private static Double toDouble(String key, Object value) {
+    try {
+      return PropertyConverter.toDouble(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Double", e);
+    }
+  }
+
+  @Override
+  public float getFloat(String key) {
+    Float value = getFloat(key, (Float) null);
+    if (value == null) {
+      throw missing(key);
+    }
+    return value.floatValue();
+  }
+
+  @Override
+  public float getFloat(String key, float defaultValue) {
+    Object value = getScalar(key);
+    return value == null ? defaultValue : toFloat(key, value).floatValue();
+  }
+
+  @Override
+  public Float getFloat(String key, Float defaultValue) {
+    Object value = getScalar(key);
+    return value == null ? defaultValue : toFloat(key, value);
+  }
+
+  private static Float toFloat(String key, Object value) {
+    try {
+      return PropertyConverter.toFloat(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Float", e);
+    }
+  }
+
+  @Override
+  public int getInt(String key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      throw missing(key);
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_INT)) {
+      return this.tableInts[slot];
+    }
+    return toInteger(key, scalarAt(slot)).intValue();
+  }
+
+  @Override
+  public int getInt(String key, int defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_INT)) {
+      return this.tableInts[slot];
+    }
+    return toInteger(key, scalarAt(slot)).intValue();
+  }
+
+  @Override
+  public Integer getInteger(String key, Integer defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_INT)) {
+      return Integer.valueOf(this.tableInts[slot]);
+    }
+    return toInteger(key, scalarAt(slot));
+  }
+
+  private static Integer toInteger(String key, Object value) {
+    try {
+      return PropertyConverter.toInteger(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Integer", e);
+    }
+  }
+
+  @Override
+  public long getLong(String key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      throw missing(key);
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_LONG)) {
+      return this.tableLongs[slot];
+    }
+    return toLong(key, scalarAt(slot)).longValue();
+  }
+
+  @Override
+  public long getLong(String key, long defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_LONG)) {
+      return this.tableLongs[slot];
+    }
+    return toLong(key, scalarAt(slot)).longValue();
+  }
+
+  @Override
+  public Long getLong(String key, Long defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_LONG)) {
+      return Long.valueOf(this.tableLongs[slot]);
+    }
+    return toLong(key, scalarAt(slot));
+  }
+
+  private static Long toLong(String key, Object value) {
+    try {
+      return PropertyConverter.toLong(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Long", e);
+    }
+  }
+
+  @Override
+  public short getShort(String key) {
+    Short value = getShort(key, (Short) null);
+    if (value == null) {
+      throw missing(key);
+    }
+    return value.shortValue();
+  }
+
+  @Override
+  public short getShort(String key, short defaultValue) {
+    Object value = getScalar(key);
+    return value == null ? defaultValue : toShort(key, value).shortValue();
+  }
+
+  @Override
+  public Short getShort(String key, Short defaultValue) {
+    Object value = getScalar(key);
+    return value == null ? defaultValue : toShort(key, value);
+  }
+
+  private static Short toShort(String key, Object value) {
+    try {
+      return PropertyConverter.toShort(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "Short", e);
+    }
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String key) {
+    return getBigDecimal(key, null);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String key, BigDecimal defaultValue) {
+    Object value = getScalar(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return PropertyConverter.toBigDecimal(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "BigDecimal", e);
+    }
+  }
+
+  @Override
+  public BigInteger getBigInteger(String key) {
+    return getBigInteger(key, null);
+  }
+
+  @Override
+  public BigInteger getBigInteger(String key, BigInteger defaultValue) {
+    Object value = getScalar(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return PropertyConverter.toBigInteger(value);
+    }
+    catch (ConversionException e) {
+      throw notConvertible(key, "BigInteger", e);
+    }
+  }
+
+  @Override
+  public String getString(String key) {
+    return getString(key, null);
+  }
+
+  @Override
+  public String getString(String key, String defaultValue) {
+    Object value = getScalar(key);
+    if (value instanceof String) {
+      return (String) value;
+    }
+    else if (value == null) {
+      return defaultValue;
+    }
+    throw new ConversionException(String.format("'%s' doesn't map to a String object", key));
+  }
+
+  @Override
+  public String[] getStringArray(String key) {
+    Object value = getProperty(key);
+    if (value == null) {
+      return new String[0];
+    }
+    if (value instanceof ListValue) {
+      return ((ListValue) value).toStringArray();
+    }
+    return new String[] { value.toString() };
+  }
+
+  /**
+   * The list is immutable. For a list value it is the instance held by the snapshot, so repeated calls allocate nothing
+   */
+  @Override
+  public List<Object> getList(String key) {
+    Object value = getProperty(key);
+    if (value instanceof ListValue) {
+      return (ListValue) value;
+    }
+    if (value != null) {
+      return Collections.singletonList(value instanceof String ? value : value.toString());
+    }
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean tryGetInt(String key, LookupResult result) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return result.missing();
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_INT)) {
+      return result.foundInt(this.tableInts[slot]);
+    }
+    return super.tryGetInt(key, result);
+  }
+
+  @Override
+  public int getIntOrDefault(String key, int defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_INT)) {
+      return this.tableInts[slot];
+    }
+    return super.getIntOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean tryGetLong(String key, LookupResult result) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return result.missing();
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_LONG)) {
+      return result.foundLong(this.tableLongs[slot]);
+    }
+    return super.tryGetLong(key, result);
+  }
+
+  @Override
+  public long getLongOrDefault(String key, long defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_LONG)) {
+      return this.tableLongs[slot];
+    }
+    return super.getLongOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean tryGetDouble(String key, LookupResult result) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return result.missing();
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_DOUBLE)) {
+      return result.foundDouble(this.tableDoubles[slot]);
+    }
+    return super.tryGetDouble(key, result);
+  }
+
+  @Override
+  public double getDoubleOrDefault(String key, double defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_DOUBLE)) {
+      return this.tableDoubles[slot];
+    }
+    return super.getDoubleOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean tryGetBoolean(String key, LookupResult result) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return result.missing();
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_BOOLEAN)) {
+      return result.foundBoolean(booleanAt(slot));
+    }
+    return super.tryGetBoolean(key, result);
+  }
+
+  @Override
+  public boolean getBooleanOrDefault(String key, boolean defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return defaultValue;
+    }
+    if (hasType(slot, ConfigurationValueParser.TYPE_BOOLEAN)) {
+      return booleanAt(slot);
+    }
+    return super.getBooleanOrDefault(key, defaultValue);
+  }
+
+  /*
+   * Iterator over an optional exact key followed by a range of sorted keys, with the view prefix stripped
+   */
+  private static final class KeyRangeIterator implements Iterator<String> {
+    private String exactKey;
+    private final String[] keys;
+    private int position;
+    private final int end;
+    private final int stripLength;
+
+    KeyRangeIterator(String exactKey, String[] keys, int start, int end, int stripLength) {
+      this.exactKey = exactKey;
+      this.keys = keys;
+      this.position = start;
+      this.end = end;
+      this.stripLength = stripLength;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.exactKey != null || this.position < this.end;
+    }
+
+    @Override
+    public String next() {
+      String key;
+      if (this.exactKey != null) {
+        key = this.exactKey;
+        this.exactKey = null;
+      }
+      else if (this.position < this.end) {
+        key = this.keys[this.position++];
+      }
+      else {
+        throw new NoSuchElementException();
+      }
+      // The view's own key is one shorter than its key prefix and maps to ""
+      return key.length() < this.stripLength ? "" : key.substring(this.stripLength);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("ConfigurationSnapshot is immutable");
+    }
+  }
+
+}
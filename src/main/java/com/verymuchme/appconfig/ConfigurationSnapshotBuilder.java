@@ -0,0 +1,344 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.PropertyConverter;
+import org.apache.commons.configuration.interpol.ConfigurationInterpolator;
+import org.apache.commons.lang.text.StrLookup;
+import org.apache.commons.lang.text.StrSubstitutor;
+
+/**
+ * Accumulates resolved key/value pairs and produces an immutable ConfigurationSnapshot
+ *
+ * Keys are kept in the order they were first added. Values are either scalars or lists - adding a second value for a key turns it into a list,
+ * in the same way as Apache Commons Configuration addProperty.
+ *
+ * Not thread safe - a builder is expected to be filled and built by a single thread.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class ConfigurationSnapshotBuilder {
+
+  /*
+   * Initial capacity of the key table - must be a power of two
+   */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /*
+   * Keys in insertion order
+   */
+  private String[] keys = new String[INITIAL_CAPACITY / 2];
+
+  /*
+   * Values in insertion order - either a scalar or an ArrayList<Object>
+   */
+  private Object[] values = new Object[INITIAL_CAPACITY / 2];
+
+  /*
+   * Number of keys added
+   */
+  private int size = 0;
+
+  /*
+   * Open-addressing index into keys/values. Holds position + 1, 0 marks an empty slot
+   */
+  private int[] index = new int[INITIAL_CAPACITY];
+
+  /**
+   * Create a new, empty builder
+   */
+  public ConfigurationSnapshotBuilder() {
+  }
+
+  /**
+   * Copy every key of an Apache Commons Configuration instance. Values are interpolated on the way in
+   *
+   * @param configuration Source configuration
+   *
+   * @return Current builder instance
+   */
+  public ConfigurationSnapshotBuilder addConfiguration(AbstractConfiguration configuration) {
+    Iterator<String> keysItr = configuration.getKeys();
+    while (keysItr.hasNext()) {
+      String key = keysItr.next();
+      Object rawValue = configuration.getProperty(key);
+      if (rawValue instanceof Collection) {
+        // getList interpolates each element
+        setProperty(key, configuration.getList(key));
+      }
+      else {
+        setProperty(key, PropertyConverter.interpolate(rawValue, configuration));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Add a value for a key. If the key already has a value, the values are combined into a list
+   *
+   * @param key Property name
+   * @param value Property value. Collections are added element by element, null is ignored
+   *
+   * @return Current builder instance
+   */
+  public ConfigurationSnapshotBuilder addProperty(String key, Object value) {
+    if (value == null) {
+      return this;
+    }
+    int position = find(key);
+    if (position < 0) {
+      return setProperty(key, value);
+    }
+    ArrayList<Object> combined = toList(this.values[position]);
+    if (value instanceof Collection) {
+      addNonNull(combined, (Collection<?>) value);
+    }
+    else {
+      combined.add(value);
+    }
+    this.values[position] = combined;
+    return this;
+  }
+
+  /**
+   * Set the value for a key, replacing any existing value
+   *
+   * @param key Property name
+   * @param value Property value. Collections are stored as lists, null or an empty collection removes nothing and is ignored
+   *
+   * @return Current builder instance
+   */
+  public ConfigurationSnapshotBuilder setProperty(String key, Object value) {
+    if (value instanceof Collection) {
+      ArrayList<Object> list = new ArrayList<Object>();
+      addNonNull(list, (Collection<?>) value);
+      value = list.isEmpty() ? null : (list.size() == 1 ? list.get(0) : list);
+    }
+    if (value == null) {
+      return this;
+    }
+    int position = find(key);
+    if (position >= 0) {
+      this.values[position] = value;
+    }
+    else {
+      append(key, value);
+    }
+    return this;
+  }
+
+  /**
+   * Add the keys of another builder that are not present in this one. Used to layer sources, highest precedence first
+   *
+   * @param other Builder to take keys from
+   *
+   * @return Current builder instance
+   */
+  public ConfigurationSnapshotBuilder addAbsent(ConfigurationSnapshotBuilder other) {
+    for (int i = 0; i < other.size; i++) {
+      if (find(other.keys[i]) < 0) {
+        Object value = other.values[i];
+        append(other.keys[i], value instanceof ArrayList ? new ArrayList<Object>((ArrayList<?>) value) : value);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Resolve variables in every string value, in the same way as Apache Commons Configuration does when reading a value.
+   * Variables refer to other keys of this builder (the first element of a list) or use the sys:, env: and const: prefixes. 
+   * Unresolvable variables are left as they are
+   *
+   * @return Current builder instance
+   */
+  public ConfigurationSnapshotBuilder interpolate() {
+    StrSubstitutor substitutor = createSubstitutor();
+    // Resolve against the raw values, then replace them all at once
+    Object[] resolved = new Object[this.size];
+    for (int i = 0; i < this.size; i++) {
+      Object value = this.values[i];
+      if (value instanceof ArrayList) {
+        ArrayList<Object> list = new ArrayList<Object>();
+        for (Object element : (ArrayList<?>) value) {
+          list.add(element instanceof String ? substitutor.replace((String) element) : element);
+        }
+        value = list;
+      }
+      else if (value instanceof String) {
+        value = substitutor.replace((String) value);
+      }
+      resolved[i] = value;
+    }
+    System.arraycopy(resolved, 0, this.values, 0, this.size);
+    return this;
+  }
+
+  /**
+   * Resolve variables in a single value against the current contents
+   *
+   * @param value Value to resolve
+   *
+   * @return Resolved value
+   */
+  String interpolate(String value) {
+    return value.indexOf("${") < 0 ? value : createSubstitutor().replace(value);
+  }
+
+  /**
+   * Check whether a key has been added
+   *
+   * @param key Property name
+   *
+   * @return true if the key is present
+   */
+  public boolean containsKey(String key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   * Number of keys added so far
+   *
+   * @return Key count
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Build an immutable snapshot from the current contents. The builder may continue to be used afterwards
+   *
+   * @return New ConfigurationSnapshot instance
+   */
+  public ConfigurationSnapshot build() {
+    String[] snapshotKeys = new String[this.size];
+    Object[] snapshotValues = new Object[this.size];
+    System.arraycopy(this.keys, 0, snapshotKeys, 0, this.size);
+    for (int i = 0; i < this.size; i++) {
+      Object value = this.values[i];
+      if (value instanceof List) {
+        value = ListValue.of((List<?>) value);
+      }
+      snapshotValues[i] = value;
+    }
+    return new ConfigurationSnapshot(snapshotKeys, snapshotValues);
+  }
+
+  /*
+   * Substitutor using the default Apache Commons Configuration lookups, with this builder's values as the default
+   */
+  private StrSubstitutor createSubstitutor() {
+    ConfigurationInterpolator interpolator = new ConfigurationInterpolator();
+    interpolator.setDefaultLookup(new StrLookup() {
+      @Override
+      public String lookup(String key) {
+        int position = find(key);
+        if (position < 0) {
+          return null;
+        }
+        Object value = ConfigurationSnapshotBuilder.this.values[position];
+        if (value instanceof ArrayList) {
+          List<?> list = (List<?>) value;
+          value = list.isEmpty() ? null : list.get(0);
+        }
+        return value == null ? null : value.toString();
+      }
+    });
+    return new StrSubstitutor(interpolator);
+  }
+
+  /*
+   * Position of a key in insertion order, or -1 if absent
+   */
+  private int find(String key) {
+    int mask = this.index.length - 1;
+    int slot = ConfigurationSnapshot.spread(key.hashCode()) & mask;
+    while (true) {
+      int entry = this.index[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      if (this.keys[entry - 1].equals(key)) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /*
+   * Add a new key at the end of the insertion order
+   */
+  private void append(String key, Object value) {
+    if (this.size == this.keys.length) {
+      grow();
+    }
+    this.keys[this.size] = key;
+    this.values[this.size] = value;
+    this.size++;
+    insertIndex(key, this.size);
+  }
+
+  /*
+   * Double all storage - the index is kept at most half full
+   */
+  private void grow() {
+    int capacity = this.keys.length * 2;
+    String[] newKeys = new String[capacity];
+    Object[] newValues = new Object[capacity];
+    System.arraycopy(this.keys, 0, newKeys, 0, this.size);
+    System.arraycopy(this.values, 0, newValues, 0, this.size);
+    this.keys = newKeys;
+    this.values = newValues;
+    this.index = new int[capacity * 2];
+    for (int i = 0; i < this.size; i++) {
+      insertIndex(this.keys[i], i + 1);
+    }
+  }
+
+  private void insertIndex(String key, int entry) {
+    int mask = this.index.length - 1;
+    int slot = ConfigurationSnapshot.spread(key.hashCode()) & mask;
+    while (this.index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    this.index[slot] = entry;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArrayList<Object> toList(Object value) {
+    if (value instanceof ArrayList) {
+      return (ArrayList<Object>) value;
+    }
+    ArrayList<Object> list = new ArrayList<Object>();
+    list.add(value);
+    return list;
+  }
+
+  private static void addNonNull(List<Object> target, Collection<?> source) {
+    for (Object element : source) {
+      if (element != null) {
+        target.add(element);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.net.URL;
+import java.util.Map;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.ConfigurationUtils;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.SystemConfiguration;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * A source in the combined configuration - a properties file or, if there's no file name, the system properties
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+class ConfigurationSource {
+
+  /*
+   * Logger instance for this class
+   */
+  private static final Logger logger = LogbackFactory.getLogger(ConfigurationSource.class);
+
+  private final String fileName;
+
+  private final boolean optional;
+
+  /**
+   * Create a new instance
+   * 
+   * @param fileName Properties file name - a path or classpath resource. Null for the system properties
+   * @param optional True if the file may be missing
+   */
+  ConfigurationSource(String fileName, boolean optional) {
+    this.fileName = fileName;
+    this.optional = optional;
+  }
+
+  String getFileName() {
+    return this.fileName;
+  }
+
+  boolean isOptional() {
+    return this.optional;
+  }
+
+  /**
+   * Load the source
+   * 
+   * @return Loaded configuration, or null if an optional file couldn't be loaded
+   */
+  AbstractConfiguration load() {
+    if (this.fileName == null) {
+      return new SystemConfiguration();
+    }
+    try {
+      PropertiesConfiguration propertiesConfiguration = new PropertiesConfiguration();
+      propertiesConfiguration.setFileName(this.fileName);
+      propertiesConfiguration.load();
+      return propertiesConfiguration;
+    }
+    catch (Exception e) {
+      if (this.optional) {
+        logger.trace(String.format("AppConfig.ConfigurationSource.load skipped optional configuration %s", this.fileName));
+        return null;
+      }
+      String errorMessage = String.format("AppConfig.ConfigurationSource.load failed to load configuration %s", this.fileName);
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+  }
+
+  /**
+   * Parse the source straight into a snapshot builder, without building an Apache Commons Configuration instance
+   * 
+   * @param parser Parser to use for properties files
+   * @return Builder holding the source's properties, or null if an optional file couldn't be loaded
+   */
+  ConfigurationSnapshotBuilder parse(PropertiesFileParser parser) {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    if (this.fileName == null) {
+      // Split as SystemConfiguration does when reading a value
+      for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+        Object value = entry.getValue();
+        builder.setProperty(String.valueOf(entry.getKey()), value instanceof String ? ListValue.split((String) value, ',', true) : value);
+      }
+      return builder;
+    }
+    try {
+      URL url = ConfigurationUtils.locate(this.fileName);
+      if (url == null) {
+        throw new AppConfigException(String.format("AppConfig.ConfigurationSource.parse cannot locate configuration source %s", this.fileName));
+      }
+      parser.parse(url, builder);
+      return builder;
+    }
+    catch (Exception e) {
+      if (this.optional) {
+        logger.trace(String.format("AppConfig.ConfigurationSource.parse skipped optional configuration %s", this.fileName));
+        return null;
+      }
+      String errorMessage = String.format("AppConfig.ConfigurationSource.parse failed to load configuration %s", this.fileName);
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.fileName == null ? "system properties" : this.fileName;
+  }
+
+}
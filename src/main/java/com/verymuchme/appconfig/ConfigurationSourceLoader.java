@@ -0,0 +1,161 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Load configuration sources, one after another or concurrently
+ * 
+ * Concurrent loading overlaps the I/O latency of the sources - worthwhile when the configuration directory is on a slow or network-mounted disk.
+ * Either way, the loaded configurations are returned in the order of the sources.
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+class ConfigurationSourceLoader {
+
+  /*
+   * Logger instance for this class
+   */
+  private static final Logger logger = LogbackFactory.getLogger(ConfigurationSourceLoader.class);
+
+  /*
+   * Most sources loaded at once - the standard layout has eight
+   */
+  private static final int MAX_LOADER_THREADS = 8;
+
+  /*
+   * Loads sources concurrently. Idle threads end after a minute
+   */
+  private static final ThreadPoolExecutor SOURCE_LOAD_EXECUTOR = createExecutor();
+
+  private ConfigurationSourceLoader() {
+  }
+
+  /**
+   * Load the sources one after another
+   * 
+   * @param configurationSources Sources in order of precedence
+   * @return Loaded configurations in order of precedence. Optional sources that couldn't be loaded are left out
+   */
+  static List<AbstractConfiguration> load(List<ConfigurationSource> configurationSources) {
+    List<AbstractConfiguration> sourceConfigurations = new ArrayList<AbstractConfiguration>(configurationSources.size());
+    for (ConfigurationSource configurationSource : configurationSources) {
+      addLoaded(sourceConfigurations, configurationSource, configurationSource.load());
+    }
+    return sourceConfigurations;
+  }
+
+  /**
+   * Load the sources concurrently
+   * 
+   * @param configurationSources Sources in order of precedence
+   * @param timings Timings the loading threads' allocations are counted in
+   * @return Loaded configurations in order of precedence. Optional sources that couldn't be loaded are left out
+   */
+  static List<AbstractConfiguration> loadParallel(List<ConfigurationSource> configurationSources, final ConfigurationTimings timings) {
+    if (configurationSources.size() < 2) {
+      return load(configurationSources);
+    }
+    // Classpath resources are located through the context class loader, so load with the caller's
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    List<Future<AbstractConfiguration>> loads = new ArrayList<Future<AbstractConfiguration>>(configurationSources.size());
+    for (final ConfigurationSource configurationSource : configurationSources) {
+      loads.add(SOURCE_LOAD_EXECUTOR.submit(new Callable<AbstractConfiguration>() {
+        @Override
+        public AbstractConfiguration call() {
+          ConfigurationTimings.WorkerTask task = timings.startWorkerTask();
+          Thread currentThread = Thread.currentThread();
+          ClassLoader threadClassLoader = currentThread.getContextClassLoader();
+          currentThread.setContextClassLoader(contextClassLoader);
+          try {
+            return configurationSource.load();
+          }
+          finally {
+            currentThread.setContextClassLoader(threadClassLoader);
+            task.stop();
+          }
+        }
+      }));
+    }
+
+    List<AbstractConfiguration> sourceConfigurations = new ArrayList<AbstractConfiguration>(configurationSources.size());
+    try {
+      for (int i = 0; i < loads.size(); i++) {
+        addLoaded(sourceConfigurations, configurationSources.get(i), loads.get(i).get());
+      }
+    }
+    catch (ExecutionException e) {
+      cancel(loads);
+      if (e.getCause() instanceof AppConfigException) {
+        throw (AppConfigException) e.getCause();
+      }
+      String errorMessage = "AppConfig.ConfigurationSourceLoader.loadParallel failed to load configuration sources";
+      logger.error(errorMessage,e.getCause());
+      throw new AppConfigException(errorMessage,e.getCause());
+    }
+    catch (InterruptedException e) {
+      cancel(loads);
+      Thread.currentThread().interrupt();
+      String errorMessage = "AppConfig.ConfigurationSourceLoader.loadParallel interrupted loading configuration sources";
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+    return sourceConfigurations;
+  }
+
+  private static void addLoaded(List<AbstractConfiguration> sourceConfigurations, ConfigurationSource configurationSource, AbstractConfiguration sourceConfiguration) {
+    if (sourceConfiguration != null) {
+      sourceConfigurations.add(sourceConfiguration);
+      logger.trace(String.format("AppConfig.ConfigurationSourceLoader.addLoaded loaded configuration %s", configurationSource));
+    }
+  }
+
+  private static void cancel(List<Future<AbstractConfiguration>> loads) {
+    for (Future<AbstractConfiguration> load : loads) {
+      load.cancel(true);
+    }
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LOADER_THREADS, MAX_LOADER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "AppConfig-SourceLoader");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(ConfigurationSourceLoader.class.getClassLoader());
+        return thread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+}
@@ -0,0 +1,329 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Wall time and allocated bytes of the phases of a configure() or reload()
+ *
+ * Phases are listed in the order they started. Phases nested in another carry its name as a prefix, e.g. buildConfiguration.templateRender.
+ * Allocated bytes are measured for the thread that started the phase, plus the worker tasks (see startWorkerTask) that end while it runs on other threads.
+ * They are only available on JVMs that support per-thread allocation counting (HotSpot does) - otherwise they are reported as -1.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class ConfigurationTimings {
+
+  /*
+   * Phase names
+   */
+  public static final String BOOTSTRAP_INTERNAL_LOGGING = "bootstrapInternalLogging";
+  public static final String LOAD_INTERNAL_PROPERTIES = "loadInternalProperties";
+  public static final String CHECK_RUN_TIME_ENVIRONMENT = "checkRunTimeEnvironment";
+  public static final String CONFIGURE_INTERNAL_LOGGING = "configureLoggerFromConfigurationFile";
+  public static final String BUILD_CONFIGURATION = "buildConfiguration";
+  public static final String TEMPLATE_RENDER = BUILD_CONFIGURATION + ".templateRender";
+  public static final String DEFINITION_PARSE = BUILD_CONFIGURATION + ".definitionParse";
+  public static final String SOURCE_LOAD = BUILD_CONFIGURATION + ".sourceLoad";
+  public static final String SNAPSHOT = BUILD_CONFIGURATION + ".snapshot";
+  public static final String SNAPSHOT_CACHE_READ = "snapshotCache.read";
+  public static final String SNAPSHOT_CACHE_WRITE = "snapshotCache.write";
+  public static final String APPLICATION_LOGGING = "applicationLogging";
+
+  /**
+   * Timings that measure phases but keep none of them - for builds nobody reports on
+   */
+  public static final ConfigurationTimings NOT_RECORDED = new ConfigurationTimings("none", false);
+
+  /*
+   * Per-thread allocation counter, or null if the JVM doesn't provide one
+   */
+  private static final com.sun.management.ThreadMXBean ALLOCATION_COUNTER = allocationCounter();
+
+  /*
+   * Operation timed - configure or reload
+   */
+  private final String operation;
+
+  /*
+   * Wall clock time the operation started, in milliseconds
+   */
+  private final long startedAt = System.currentTimeMillis();
+
+  private final List<Phase> phases = new ArrayList<Phase>();
+
+  /*
+   * False if phases are not kept
+   */
+  private final boolean recording;
+
+  /**
+   * Create a new instance
+   *
+   * @param operation Name of the operation timed
+   */
+  public ConfigurationTimings(String operation) {
+    this(operation, true);
+  }
+
+  private ConfigurationTimings(String operation, boolean recording) {
+    this.operation = operation;
+    this.recording = recording;
+  }
+
+  /**
+   * Start timing a phase
+   *
+   * @param name Phase name
+   * @return Phase to stop when done
+   */
+  public Phase start(String name) {
+    Phase phase = new Phase(name);
+    if (this.recording) {
+      synchronized (this) {
+        this.phases.add(phase);
+      }
+    }
+    return phase;
+  }
+
+  /**
+   * Start counting the allocations of a task run on a worker thread for the operation.
+   * When the task ends, they are added to every phase still running on another thread - for instance the phase waiting for the task
+   *
+   * @return Task to end on the worker thread when done
+   */
+  public WorkerTask startWorkerTask() {
+    return new WorkerTask();
+  }
+
+  /*
+   * Add the allocations of a worker task to the phases running on other threads
+   */
+  private synchronized void addWorkerAllocatedBytes(long bytes, Thread worker) {
+    for (Phase phase : this.phases) {
+      if (phase.thread != worker) {
+        phase.addWorkerAllocatedBytes(bytes);
+      }
+    }
+  }
+
+  /**
+   * Get the operation timed
+   *
+   * @return configure or reload
+   */
+  public String getOperation() {
+    return this.operation;
+  }
+
+  /**
+   * Get the wall clock time the operation started
+   *
+   * @return Milliseconds since the epoch
+   */
+  public long getStartedAt() {
+    return this.startedAt;
+  }
+
+  /**
+   * Get all phases, in the order they started
+   *
+   * @return Unmodifiable list of phases
+   */
+  public synchronized List<Phase> getPhases() {
+    return Collections.unmodifiableList(new ArrayList<Phase>(this.phases));
+  }
+
+  /**
+   * Get a phase by name
+   *
+   * @param name Phase name
+   * @return The phase, or null if it didn't run
+   */
+  public synchronized Phase getPhase(String name) {
+    for (Phase phase : this.phases) {
+      if (phase.getName().equals(name)) {
+        return phase;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Total wall time of the top level phases
+   *
+   * @return Nanoseconds
+   */
+  public synchronized long getTotalWallTimeNanos() {
+    long total = 0;
+    for (Phase phase : this.phases) {
+      if (phase.getName().indexOf('.') < 0 && phase.isComplete()) {
+        total += phase.getWallTimeNanos();
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder result = new StringBuilder(String.format("%s: %.3f ms", this.operation, getTotalWallTimeNanos() / 1e6d));
+    for (Phase phase : this.phases) {
+      result.append(String.format(", %s %.3f ms %d bytes", phase.getName(), phase.getWallTimeNanos() / 1e6d, phase.getAllocatedBytes()));
+    }
+    return result.toString();
+  }
+
+  /*
+   * Bytes allocated so far by the current thread, or -1 if unknown
+   */
+  private static long allocatedBytes() {
+    return ALLOCATION_COUNTER == null ? -1 : ALLOCATION_COUNTER.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    try {
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+          return counter;
+        }
+      }
+    }
+    catch (Throwable t) {
+      // Not a HotSpot compatible JVM - allocation counts unavailable
+    }
+    return null;
+  }
+
+  /**
+   * A timed phase
+   */
+  public static class Phase {
+
+    private final String name;
+
+    /*
+     * Thread that started the phase
+     */
+    private final Thread thread = Thread.currentThread();
+
+    private final long startNanos;
+
+    private final long startBytes;
+
+    private volatile long wallTimeNanos = -1;
+
+    private volatile long allocatedBytes = -1;
+
+    /*
+     * Bytes allocated by worker tasks that ended while the phase ran
+     */
+    private long workerBytes = 0;
+
+    Phase(String name) {
+      this.name = name;
+      this.startBytes = allocatedBytes();
+      this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stop timing. Must be called on the thread that started the phase. Later calls are ignored
+     */
+    public synchronized void stop() {
+      if (this.wallTimeNanos >= 0) {
+        return;
+      }
+      long endNanos = System.nanoTime();
+      long endBytes = allocatedBytes();
+      this.allocatedBytes = (this.startBytes < 0 || endBytes < 0) ? -1 : endBytes - this.startBytes + this.workerBytes;
+      this.wallTimeNanos = endNanos - this.startNanos;
+    }
+
+    private synchronized void addWorkerAllocatedBytes(long bytes) {
+      if (this.wallTimeNanos < 0) {
+        this.workerBytes += bytes;
+      }
+    }
+
+    /**
+     * Get the phase name
+     *
+     * @return Name
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Get the wall time of the phase
+     *
+     * @return Nanoseconds, or -1 if the phase didn't complete
+     */
+    public long getWallTimeNanos() {
+      return this.wallTimeNanos;
+    }
+
+    /**
+     * Get the bytes allocated by the phase - on the thread that started it and by worker tasks that ended while it ran
+     *
+     * @return Bytes, or -1 if the phase didn't complete or the JVM can't count allocations
+     */
+    public long getAllocatedBytes() {
+      return this.allocatedBytes;
+    }
+
+    /**
+     * Whether the phase completed
+     *
+     * @return true if stopped
+     */
+    public boolean isComplete() {
+      return this.wallTimeNanos >= 0;
+    }
+
+  }
+
+  /**
+   * A task run on a worker thread for the operation
+   */
+  public class WorkerTask {
+
+    private final long startBytes = allocatedBytes();
+
+    WorkerTask() {
+    }
+
+    /**
+     * End the task. Must be called on the thread that started it
+     */
+    public void stop() {
+      long endBytes = allocatedBytes();
+      if (this.startBytes >= 0 && endBytes >= 0) {
+        addWorkerAllocatedBytes(endBytes - this.startBytes, Thread.currentThread());
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,315 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import org.apache.commons.configuration.ConversionException;
+import org.apache.commons.configuration.PropertyConverter;
+
+/**
+ * Classify a configuration value as int, long, double and/or boolean without throwing
+ *
+ * Only forms whose result is known to match Apache Commons Configuration's PropertyConverter are recognized: plain decimal integers,
+ * plain decimal floating point numbers and the boolean words accepted by PropertyConverter.toBoolean. Anything else - hexadecimal,
+ * surrounding white space, NaN - is left unclassified so the caller can fall back to PropertyConverter and get identical results, or identical exceptions.
+ *
+ * An instance holds the result of the last parse and is meant to be reused. Not thread safe.
+ *
+ * The static toXOrNull methods finish the job for values parse() left unclassified. They rule out strings PropertyConverter is certain to reject
+ * without calling it, so malformed values usually cost no exception either.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+final class ConfigurationValueParser {
+
+  /*
+   * Type flags - a value may have several
+   */
+  static final byte TYPE_INT = 1;
+  static final byte TYPE_LONG = 2;
+  static final byte TYPE_DOUBLE = 4;
+  static final byte TYPE_BOOLEAN = 8;
+
+  /*
+   * Words PropertyConverter.toBoolean accepts, in lower case
+   */
+  private static final String[] TRUE_WORDS = {"true", "on", "yes", "y", "t"};
+  private static final String[] FALSE_WORDS = {"false", "off", "no", "n", "f"};
+
+  /*
+   * Result of the last parse
+   */
+  byte types;
+  int intValue;
+  long longValue;
+  double doubleValue;
+  boolean booleanValue;
+
+  /**
+   * Classify a value. Non-String values are left unclassified
+   *
+   * @param value Value to classify
+   * @return Type flags of the value, also available as types
+   */
+  byte parse(Object value) {
+    this.types = 0;
+    if (!(value instanceof String)) {
+      return 0;
+    }
+    String string = (String) value;
+    int length = string.length();
+    if (length == 0) {
+      return 0;
+    }
+    if (parseLong(string, length)) {
+      this.types |= TYPE_LONG;
+      if (this.longValue >= Integer.MIN_VALUE && this.longValue <= Integer.MAX_VALUE) {
+        this.intValue = (int) this.longValue;
+        this.types |= TYPE_INT;
+      }
+    }
+    if (isDecimal(string, length)) {
+      // Can't throw for a plain decimal - and keeps results such as -0.0 identical to PropertyConverter
+      this.doubleValue = Double.parseDouble(string);
+      this.types |= TYPE_DOUBLE;
+    }
+    else if (length <= 5) {
+      if (matches(string, TRUE_WORDS)) {
+        this.booleanValue = true;
+        this.types |= TYPE_BOOLEAN;
+      }
+      else if (matches(string, FALSE_WORDS)) {
+        this.booleanValue = false;
+        this.types |= TYPE_BOOLEAN;
+      }
+    }
+    return this.types;
+  }
+
+  /*
+   * Optional sign followed by decimal digits, within the range of long. Accumulates negatively, like Long.parseLong
+   */
+  private boolean parseLong(String string, int length) {
+    int position = 0;
+    boolean negative = false;
+    char first = string.charAt(0);
+    if (first == '-' || first == '+') {
+      negative = first == '-';
+      position++;
+      if (length == 1) {
+        return false;
+      }
+    }
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multiplyLimit = limit / 10;
+    long result = 0;
+    for (; position < length; position++) {
+      int digit = string.charAt(position) - '0';
+      if (digit < 0 || digit > 9 || result < multiplyLimit) {
+        return false;
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        return false;
+      }
+      result -= digit;
+    }
+    this.longValue = negative ? result : -result;
+    return true;
+  }
+
+  /*
+   * [+-]? (digits [. digits*] | . digits) ([eE] [+-]? digits)?
+   */
+  private static boolean isDecimal(String string, int length) {
+    int position = 0;
+    char c = string.charAt(0);
+    if (c == '-' || c == '+') {
+      position++;
+    }
+    int mantissaDigits = 0;
+    while (position < length && isDigit(string.charAt(position))) {
+      position++;
+      mantissaDigits++;
+    }
+    if (position < length && string.charAt(position) == '.') {
+      position++;
+      while (position < length && isDigit(string.charAt(position))) {
+        position++;
+        mantissaDigits++;
+      }
+    }
+    if (mantissaDigits == 0) {
+      return false;
+    }
+    if (position < length && (string.charAt(position) == 'e' || string.charAt(position) == 'E')) {
+      position++;
+      if (position < length && (string.charAt(position) == '-' || string.charAt(position) == '+')) {
+        position++;
+      }
+      int exponentDigits = 0;
+      while (position < length && isDigit(string.charAt(position))) {
+        position++;
+        exponentDigits++;
+      }
+      if (exponentDigits == 0) {
+        return false;
+      }
+    }
+    return position == length;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /*
+   * Case-insensitive match against lower case words, ASCII only - String.equalsIgnoreCase would also accept e.g. a long s for 's'
+   */
+  private static boolean matches(String string, String[] words) {
+    int length = string.length();
+    for (String word : words) {
+      if (word.length() != length) {
+        continue;
+      }
+      int position = 0;
+      while (position < length) {
+        char c = string.charAt(position);
+        if (c >= 'A' && c <= 'Z') {
+          c = (char) (c + ('a' - 'A'));
+        }
+        if (c != word.charAt(position)) {
+          break;
+        }
+        position++;
+      }
+      if (position == length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Convert a value parse() didn't classify as int, the way PropertyConverter.toInteger does
+   *
+   * @param value Non-null value
+   * @return Converted value, or null if not convertible
+   */
+  static Integer toIntegerOrNull(Object value) {
+    if (value instanceof String && !mayBeInteger((String) value)) {
+      return null;
+    }
+    try {
+      return PropertyConverter.toInteger(value);
+    }
+    catch (ConversionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Convert a value parse() didn't classify as long, the way PropertyConverter.toLong does
+   *
+   * @param value Non-null value
+   * @return Converted value, or null if not convertible
+   */
+  static Long toLongOrNull(Object value) {
+    if (value instanceof String && !mayBeInteger((String) value)) {
+      return null;
+    }
+    try {
+      return PropertyConverter.toLong(value);
+    }
+    catch (ConversionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Convert a value parse() didn't classify as double, the way PropertyConverter.toDouble does
+   *
+   * @param value Non-null value
+   * @return Converted value, or null if not convertible
+   */
+  static Double toDoubleOrNull(Object value) {
+    if (value instanceof String && !mayBeDouble((String) value)) {
+      return null;
+    }
+    try {
+      return PropertyConverter.toDouble(value);
+    }
+    catch (ConversionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Convert a value parse() didn't classify as boolean, the way PropertyConverter.toBoolean does. parse() knows every accepted word, so strings are never convertible
+   *
+   * @param value Non-null value
+   * @return Converted value, or null if not convertible
+   */
+  static Boolean toBooleanOrNull(Object value) {
+    if (value instanceof String) {
+      return null;
+    }
+    try {
+      return PropertyConverter.toBoolean(value);
+    }
+    catch (ConversionException e) {
+      return null;
+    }
+  }
+
+  /*
+   * Whether PropertyConverter might still accept an unclassified string as an integer: hexadecimal or binary prefix, or digits outside ASCII
+   */
+  private static boolean mayBeInteger(String string) {
+    if (string.startsWith("0x") || string.startsWith("-0x") || string.startsWith("0b") || string.startsWith("-0b")) {
+      return true;
+    }
+    int length = string.length();
+    if (length == 0) {
+      return false;
+    }
+    char first = string.charAt(0);
+    for (int position = (first == '-' || first == '+') ? 1 : 0; position < length; position++) {
+      if (!Character.isDigit(string.charAt(position))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Whether Double.valueOf might still accept an unclassified string: white space, NaN, Infinity, hexadecimal or a type suffix.
+   * Any other character means it certainly won't
+   */
+  private static boolean mayBeDouble(String string) {
+    if (string.startsWith("0x") || string.startsWith("-0x") || string.startsWith("0b") || string.startsWith("-0b")) {
+      return true;
+    }
+    for (int position = 0; position < string.length(); position++) {
+      char c = string.charAt(position);
+      if (c > ' ' && (c < '0' || c > '9') && "+-.eENaInfinitytyxXpPdDfF".indexOf(c) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -16,28 +16,28 @@ package com.verymuchme.appconfig;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import ch.qos.logback.classic.LogbackFactory;
 import ch.qos.logback.classic.Logger;
 
-
-import com.google.common.base.Optional;
-
 /**
  * Manage internal properties settings
  * 
+ * Properties are kept in parallel key, value and type tag arrays indexed by an open addressing table, so storing a property
+ * allocates nothing beyond its (classified) value
+ * 
  * @author Tracy Flynn
  * @version 2.0
  * @since 2.0
  * 
  */
-//public class ExtendedProperties extends Properties {
 public class ExtendedProperties {
 
   /*
@@ -46,17 +46,42 @@ public class ExtendedProperties {
   private static Logger logger = null;
 
   /*
-   * Internal properties storage
+   * Type tags
    */
-  private HashMap<String,ExtendedPropertiesEntry> internalProperties = new HashMap<String,ExtendedPropertiesEntry>();
-  
-  
-  private static final String TYPE_STRING = "String";
-  private static final String TYPE_BOOLEAN = "Boolean";
-  private static final String TYPE_OBJECT = "Object";
-  private static final String TYPE_ARRAYLIST = "ArrayList";
-  private static final String TYPE_ARRAYLIST_STRING = "ArrayListString";
-  
+  private static final byte TAG_STRING = 0;
+  private static final byte TAG_BOOLEAN = 1;
+  private static final byte TAG_ARRAY_LIST_STRING = 2;
+  private static final byte TAG_ARRAY_LIST = 3;
+  private static final byte TAG_OBJECT = 4;
+
+  /*
+   * ExtendedPropertiesEntry target type for each tag
+   */
+  private static final String[] TARGET_TYPES = {ExtendedPropertiesEntry.TYPE_STRING, ExtendedPropertiesEntry.TYPE_BOOLEAN,
+    ExtendedPropertiesEntry.TYPE_ARRAY_LIST_STRING, ExtendedPropertiesEntry.TYPE_ARRAY_LIST, ExtendedPropertiesEntry.TYPE_OBJECT};
+
+  /*
+   * Initial number of entries and index slots. The index is kept at most half full
+   */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /*
+   * Entries in insertion order
+   */
+  private String[] keys = new String[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private byte[] tags = new byte[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /*
+   * Open addressing index - entry position + 1, 0 for an empty slot
+   */
+  private int[] index = new int[INITIAL_CAPACITY * 2];
+
+  /*
+   * Classification of a string value meaning null - stored with TAG_STRING
+   */
+  private static final byte NULL_STRING = -1;
   
   /**
    * Creates an empty property list with no default values.
@@ -64,6 +89,26 @@ public class ExtendedProperties {
   public ExtendedProperties() {
   }
 
+  /**
+   * Create an independent copy. List values are copied, other values are shared
+   * 
+   * @return Copy of this instance
+   */
+  public ExtendedProperties copy() {
+    ExtendedProperties copy = new ExtendedProperties();
+    copy.keys = this.keys.clone();
+    copy.values = this.values.clone();
+    copy.tags = this.tags.clone();
+    copy.index = this.index.clone();
+    copy.size = this.size;
+    for (int i = 0; i < this.size; i++) {
+      if (copy.values[i] instanceof ArrayList) {
+        copy.values[i] = new ArrayList<Object>((ArrayList<?>) copy.values[i]);
+      }
+    }
+    return copy;
+  }
+
   /**
    * Get value of a property as a String value
    * 
@@ -72,17 +117,8 @@ public class ExtendedProperties {
    * @return String value or null if not a string, or property is null
    */
   public String getProperty(String key) {
-    ExtendedPropertiesEntry extendedPropertiesEntry = internalProperties.get(key);
-    String returnVal = null;
-    if (extendedPropertiesEntry != null) {
-      Object entryValue = extendedPropertiesEntry.getEntryValue();
-      if (entryValue != null) {
-        if (extendedPropertiesEntry.getTargetType().equals(ExtendedPropertiesEntry.TYPE_STRING)) {
-          returnVal = (String) entryValue;
-        }
-      }
-    }
-    return returnVal;
+    int position = find(key);
+    return position >= 0 && this.tags[position] == TAG_STRING ? (String) this.values[position] : null;
   }
   
   /**
@@ -104,19 +140,115 @@ public class ExtendedProperties {
    * @return true or false
    */
   public boolean getBooleanProperty(String key) {
-    ExtendedPropertiesEntry extendedPropertiesEntry = internalProperties.get(key);
-    boolean returnVal = false;
-    if (extendedPropertiesEntry != null) {
-      Object entryValue = extendedPropertiesEntry.getEntryValue();
-      if (entryValue != null) {
-        if (extendedPropertiesEntry.getTargetType().equals(ExtendedPropertiesEntry.TYPE_BOOLEAN)) {
-          returnVal = ((Boolean) entryValue).booleanValue();
-        }
-      }
+    int position = find(key);
+    return position >= 0 && this.tags[position] == TAG_BOOLEAN && this.values[position] != null && ((Boolean) this.values[position]).booleanValue();
+  }
+  
+  /**
+   * Get a property as an int
+   * 
+   * @param key Property name
+   * @param defaultValue Value to use if the property is missing, null or not an int
+   * @return Property value or the default
+   */
+  public int getIntProperty(String key, int defaultValue) {
+    Object value = get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    Integer intValue = ConfigurationValueParser.toIntegerOrNull(value instanceof String ? ((String) value).trim() : value);
+    if (intValue == null) {
+      warnInvalid("getIntProperty", key, value, defaultValue);
+      return defaultValue;
+    }
+    return intValue.intValue();
+  }
+  
+  /**
+   * Get a property as a long
+   * 
+   * @param key Property name
+   * @param defaultValue Value to use if the property is missing, null or not a long
+   * @return Property value or the default
+   */
+  public long getLongProperty(String key, long defaultValue) {
+    Object value = get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    Long longValue = ConfigurationValueParser.toLongOrNull(value instanceof String ? ((String) value).trim() : value);
+    if (longValue == null) {
+      warnInvalid("getLongProperty", key, value, defaultValue);
+      return defaultValue;
     }
-    return returnVal;
+    return longValue.longValue();
   }
   
+  /**
+   * Get a property as a duration in milliseconds. The value is a whole number, optionally followed by one of the units
+   * ms (the default), s, m, h or d - e.g. '500', '30s' or '5 m'
+   * 
+   * @param key Property name
+   * @param defaultMillis Value to use if the property is missing, null or not a duration
+   * @return Duration in milliseconds or the default
+   */
+  public long getDurationProperty(String key, long defaultMillis) {
+    Object value = get(key);
+    if (value == null) {
+      return defaultMillis;
+    }
+    if (!(value instanceof String)) {
+      Long longValue = ConfigurationValueParser.toLongOrNull(value);
+      if (longValue == null) {
+        warnInvalid("getDurationProperty", key, value, defaultMillis);
+        return defaultMillis;
+      }
+      return longValue.longValue();
+    }
+    String durationString = ((String) value).trim();
+    int unitStart = durationString.length();
+    while (unitStart > 0 && Character.isLetter(durationString.charAt(unitStart - 1))) {
+      unitStart--;
+    }
+    TimeUnit unit = durationUnit(durationString.substring(unitStart));
+    Long amount = unit == null ? null : ConfigurationValueParser.toLongOrNull(durationString.substring(0, unitStart).trim());
+    if (amount == null || amount.longValue() < 0) {
+      warnInvalid("getDurationProperty", key, value, defaultMillis);
+      return defaultMillis;
+    }
+    return unit.toMillis(amount.longValue());
+  }
+
+  /*
+   * Time unit for a duration suffix, or null if not recognized
+   */
+  private static TimeUnit durationUnit(String suffix) {
+    if (suffix.length() == 0 || suffix.equalsIgnoreCase("ms")) {
+      return TimeUnit.MILLISECONDS;
+    }
+    if (suffix.equalsIgnoreCase("s")) {
+      return TimeUnit.SECONDS;
+    }
+    if (suffix.equalsIgnoreCase("m")) {
+      return TimeUnit.MINUTES;
+    }
+    if (suffix.equalsIgnoreCase("h")) {
+      return TimeUnit.HOURS;
+    }
+    if (suffix.equalsIgnoreCase("d")) {
+      return TimeUnit.DAYS;
+    }
+    return null;
+  }
+
+  /*
+   * Warn about a value a typed getter couldn't convert
+   */
+  private static void warnInvalid(String methodName, String key, Object value, long defaultValue) {
+    if (logger != null) {
+      logger.warn(String.format("ExtendedProperties.%s invalid value '%s' for %s, using %d", methodName, value, key, defaultValue));
+    }
+  }
   
   /**
    * Get a property as an ArrayList<String>. Uses ',' as the default separator. 
@@ -125,18 +257,10 @@ public class ExtendedProperties {
    * 
    * @return Array of string values, or null if no property present
    */
+  @SuppressWarnings("unchecked")
   public ArrayList<String> getListProperty(String key) {
-    ExtendedPropertiesEntry extendedPropertiesEntry = internalProperties.get(key);
-    ArrayList<String> returnVal = null;
-    if (extendedPropertiesEntry != null) {
-      Object entryValue = extendedPropertiesEntry.getEntryValue();
-      if (entryValue != null) {
-        if (extendedPropertiesEntry.getTargetType().equals(ExtendedPropertiesEntry.TYPE_ARRAY_LIST_STRING)) {
-          returnVal = (ArrayList<String>) entryValue;
-        }
-      }
-    }
-    return returnVal;
+    int position = find(key);
+    return position >= 0 && this.tags[position] == TAG_ARRAY_LIST_STRING ? (ArrayList<String>) this.values[position] : null;
   }
   
   /**
@@ -146,12 +270,8 @@ public class ExtendedProperties {
    * @return Property value as an object, or null if no entry
    */
   public Object get(String key) {
-    ExtendedPropertiesEntry extendedPropertiesEntry = internalProperties.get(key);
-    Object returnValue = null;
-    if (extendedPropertiesEntry != null) {
-      returnValue = extendedPropertiesEntry.getEntryValue();
-    }
-    return returnValue;
+    int position = find(key);
+    return position >= 0 ? this.values[position] : null;
   }
   
   /**
@@ -160,8 +280,29 @@ public class ExtendedProperties {
    * @return Iterator over property names
    */
   public Iterator<String> propertyNames() {
-    Set<String> propertyNamesSet = this.internalProperties.keySet();
-    return propertyNamesSet.iterator();
+    final String[] names = this.keys;
+    final int count = this.size;
+    return new Iterator<String>() {
+      private int position = 0;
+
+      @Override
+      public boolean hasNext() {
+        return this.position < count;
+      }
+
+      @Override
+      public String next() {
+        if (this.position >= count) {
+          throw new NoSuchElementException();
+        }
+        return names[this.position++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
   /**
@@ -171,8 +312,14 @@ public class ExtendedProperties {
    * @param propertyValue
    */
   public void put(String propertyName, Object propertyValue) {
-    ExtendedPropertiesEntry extendedPropertiesEntry = convertObjectToEntry(propertyName,propertyValue);
-    internalProperties.put(propertyName, extendedPropertiesEntry);
+    if (propertyValue instanceof String) {
+      String propertyValueString = (String) propertyValue;
+      byte classification = classifyString(propertyValueString, true);
+      store(propertyName, stringValue(propertyValueString, classification), tagOf(classification));
+    }
+    else {
+      store(propertyName, propertyValue, objectTag(propertyValue));
+    }
   }
   
   /**
@@ -186,8 +333,8 @@ public class ExtendedProperties {
     while(propertyNames.hasNext()) {
       String propertyName = propertyNames.next();
       String propertyValueString = properties.getProperty(propertyName);
-      ExtendedPropertiesEntry extendedPropertiesEntry = convertToEntry(propertyName,propertyValueString);
-      internalProperties.put(propertyName, extendedPropertiesEntry);
+      byte classification = classifyString(propertyValueString, false);
+      store(propertyName, stringValue(propertyValueString, classification), tagOf(classification));
     }
   }
   
@@ -201,33 +348,8 @@ public class ExtendedProperties {
    * 
    */
   public ExtendedPropertiesEntry convertToEntry(String propertyName, String propertyValueString) {
-    ExtendedPropertiesEntry entry = new ExtendedPropertiesEntry();
-    entry.setEntryName(propertyName);
-    if (propertyValueString == null) {
-      entry.setEntryValue(null);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
-    }
-    else if (propertyValueString == "") {
-      entry.setEntryValue(null);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
-    }
-    else if (AppConfigUtils.isNullStringValue(propertyValueString)) {
-      entry.setEntryValue(null);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
-    }
-    else if (AppConfigUtils.isListValue(propertyValueString)) {
-      entry.setEntryValue(AppConfigUtils.getListValue(propertyValueString));
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_ARRAY_LIST_STRING);
-    }
-    else if (AppConfigUtils.isBooleanValue(propertyValueString)) {
-      entry.setEntryValue(AppConfigUtils.getBooleanValue(propertyValueString));
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_BOOLEAN);
-    }
-    else {
-      entry.setEntryValue(propertyValueString);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
-    }
-    return entry;
+    byte classification = classifyString(propertyValueString, false);
+    return toEntry(propertyName, stringValue(propertyValueString, classification), tagOf(classification));
   }
 
   /**
@@ -240,66 +362,154 @@ public class ExtendedProperties {
    * 
    */
   public ExtendedPropertiesEntry convertObjectToEntry(String propertyName, Object propertyValue) {
+    if (propertyValue instanceof String) {
+      String propertyValueString = (String) propertyValue;
+      byte classification = classifyString(propertyValueString, true);
+      return toEntry(propertyName, stringValue(propertyValueString, classification), tagOf(classification));
+    }
+    return toEntry(propertyName, propertyValue, objectTag(propertyValue));
+  }
+
+  /*
+   * Build an entry
+   */
+  private static ExtendedPropertiesEntry toEntry(String propertyName, Object value, byte tag) {
     ExtendedPropertiesEntry entry = new ExtendedPropertiesEntry();
     entry.setEntryName(propertyName);
-    String propertyType = TYPE_OBJECT;
-    if (propertyValue instanceof String) {
-      propertyType = TYPE_STRING;
-    }
-    else if (propertyValue instanceof Boolean) {
-      propertyType = TYPE_BOOLEAN;
-    }
-    else if (propertyValue instanceof ArrayList) {
-      propertyType = TYPE_ARRAYLIST;
-      ArrayList arrList = (ArrayList) propertyValue;
-      if (! (arrList.isEmpty())) {
-        Object arrListValue = arrList.get(0);
-        if (arrListValue instanceof String) {
-          propertyType = TYPE_ARRAYLIST_STRING;
-        }
-      }
+    entry.setEntryValue(value);
+    entry.setTargetType(TARGET_TYPES[tag]);
+    return entry;
+  }
+
+  /*
+   * Tag of a non-string value. Booleans and ArrayLists are tagged by type and anything else, including null, is an opaque object
+   */
+  private static byte objectTag(Object propertyValue) {
+    if (propertyValue instanceof Boolean) {
+      return TAG_BOOLEAN;
+    }
+    if (propertyValue instanceof ArrayList) {
+      ArrayList<?> arrList = (ArrayList<?>) propertyValue;
+      return !arrList.isEmpty() && arrList.get(0) instanceof String ? TAG_ARRAY_LIST_STRING : TAG_ARRAY_LIST;
+    }
+    return TAG_OBJECT;
+  }
+
+  /*
+   * Classify a string value in a single pass. 'null' values are null strings, as are empty values if emptyIsNull is set.
+   * Values containing ',' are lists, 'true' and 'false' in any case are booleans and anything else is a plain string
+   */
+  private static byte classifyString(String value, boolean emptyIsNull) {
+    if (value == null) {
+      return NULL_STRING;
     }
-    if (propertyValue == null) {
-      entry.setEntryValue(null);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_OBJECT);
+    int length = value.length();
+    if (length == 0) {
+      return emptyIsNull ? NULL_STRING : TAG_STRING;
     }
-    else if (propertyType == TYPE_STRING && "".equals((String) propertyValue)) {
-      entry.setEntryValue(null);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
+    // Only the words null, true and false need comparing, and none of them contains the list separator
+    char first = length == 4 || length == 5 ? Character.toLowerCase(value.charAt(0)) : 0;
+    if (length == 4 && first == 'n' && value.regionMatches(true, 1, AppConfigUtils.STRING_VALUE_NULL, 1, 3)) {
+      return NULL_STRING;
     }
-    else if (propertyType == TYPE_STRING  && AppConfigUtils.isNullStringValue((String) propertyValue)) {
-      entry.setEntryValue(null);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
+    if ((length == 4 && first == 't' && value.regionMatches(true, 1, "true", 1, 3))
+        || (length == 5 && first == 'f' && value.regionMatches(true, 1, "false", 1, 4))) {
+      return TAG_BOOLEAN;
     }
-    else if (propertyType == TYPE_STRING && AppConfigUtils.isListValue((String) propertyValue)) {
-      entry.setEntryValue(AppConfigUtils.getListValue((String) propertyValue));
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_ARRAY_LIST_STRING);
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) == ',') {
+        return TAG_ARRAY_LIST_STRING;
+      }
     }
-    else if (propertyType == TYPE_STRING && AppConfigUtils.isBooleanValue((String) propertyValue)) {
-      entry.setEntryValue(AppConfigUtils.getBooleanValue((String) propertyValue));
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_BOOLEAN);
+    return TAG_STRING;
+  }
+
+  /*
+   * Value to store for a classified string
+   */
+  private static Object stringValue(String value, byte classification) {
+    switch (classification) {
+      case NULL_STRING:
+        return null;
+      case TAG_BOOLEAN:
+        return Boolean.valueOf(value);
+      case TAG_ARRAY_LIST_STRING:
+        return AppConfigUtils.getListValue(value);
+      default:
+        return value;
     }
-    else if (propertyType == TYPE_STRING) {
-      entry.setEntryValue((String) propertyValue);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_STRING);
+  }
+
+  /*
+   * Tag to store for a classified string
+   */
+  private static byte tagOf(byte classification) {
+    return classification == NULL_STRING ? TAG_STRING : classification;
+  }
+
+  /*
+   * Position of a key in the entry arrays, or -1 if not present
+   */
+  private int find(String key) {
+    if (key == null) {
+      return -1;
     }
-    else if (propertyType == TYPE_BOOLEAN) {
-      entry.setEntryValue(propertyValue);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_BOOLEAN);
+    int mask = this.index.length - 1;
+    for (int slot = ConfigurationSnapshot.spread(key.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+      int entry = this.index[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      String candidate = this.keys[entry - 1];
+      if (candidate == key || candidate.equals(key)) {
+        return entry - 1;
+      }
     }
-    else if (propertyType == TYPE_ARRAYLIST_STRING) {
-      entry.setEntryValue(propertyValue);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_ARRAY_LIST_STRING);
+  }
+
+  /*
+   * Store or replace an entry
+   */
+  private void store(String key, Object value, byte tag) {
+    int mask = this.index.length - 1;
+    int slot = ConfigurationSnapshot.spread(key.hashCode()) & mask;
+    for (int entry = this.index[slot]; entry != 0; entry = this.index[slot]) {
+      if (this.keys[entry - 1].equals(key)) {
+        this.values[entry - 1] = value;
+        this.tags[entry - 1] = tag;
+        return;
+      }
+      slot = (slot + 1) & mask;
     }
-    else if (propertyType == TYPE_ARRAYLIST) {
-      entry.setEntryValue(propertyValue);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_ARRAY_LIST);
+    if (this.size == this.keys.length) {
+      grow();
+      store(key, value, tag);
+      return;
     }
-    else {
-      entry.setEntryValue(propertyValue);
-      entry.setTargetType(ExtendedPropertiesEntry.TYPE_OBJECT);
+    this.keys[this.size] = key;
+    this.values[this.size] = value;
+    this.tags[this.size] = tag;
+    this.size++;
+    this.index[slot] = this.size;
+  }
+
+  /*
+   * Double the entry arrays and rebuild the index
+   */
+  private void grow() {
+    int capacity = this.keys.length * 2;
+    this.keys = Arrays.copyOf(this.keys, capacity);
+    this.values = Arrays.copyOf(this.values, capacity);
+    this.tags = Arrays.copyOf(this.tags, capacity);
+    this.index = new int[capacity * 2];
+    int mask = this.index.length - 1;
+    for (int i = 0; i < this.size; i++) {
+      int slot = ConfigurationSnapshot.spread(this.keys[i].hashCode()) & mask;
+      while (this.index[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      this.index[slot] = i + 1;
     }
-    return entry;
   }
   
   
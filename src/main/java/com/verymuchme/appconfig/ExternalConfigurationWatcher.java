@@ -0,0 +1,241 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.io.File;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Watch the external configuration directory and reload AppConfig when a configuration file changes
+ *
+ * Events are coalesced - a reload happens once no further event has arrived for the quiet period,
+ * or at the latest MAX_WAIT_QUIET_PERIODS quiet periods after the first event, so a constant writer can't hold off the reload.
+ * The configuration is only rebuilt if the contents of the watched files actually changed.
+ * If a reload fails, the current configuration stays in service and the next change triggers another attempt.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class ExternalConfigurationWatcher {
+
+  /*
+   * Logger instance
+   */
+  private static final Logger logger = LogbackFactory.getLogger(ExternalConfigurationWatcher.class);
+
+  /*
+   * Longest wait for a burst of events to end, in quiet periods from the first event
+   */
+  static final int MAX_WAIT_QUIET_PERIODS = 4;
+
+  /*
+   * AppConfig instance to reload
+   */
+  private final AppConfig appConfig;
+
+  /*
+   * Watched directory
+   */
+  private final File directory;
+
+  /*
+   * Names of the watched files within the directory
+   */
+  private final Set<String> fileNames;
+
+  /*
+   * Quiet period in milliseconds
+   */
+  private final long quietPeriod;
+
+  /*
+   * Content digests of the watched files at the last successful (re)load
+   */
+  private byte[][] digests = null;
+
+  /*
+   * Number of reloads triggered by this watcher
+   */
+  private volatile long reloadCount = 0;
+
+  private WatchService watchService = null;
+
+  private Thread watchThread = null;
+
+  /**
+   * Create a new watcher
+   *
+   * @param appConfig AppConfig instance to reload
+   * @param directoryName External configuration directory
+   * @param fileNames Names of the configuration files within the directory
+   * @param quietPeriod Milliseconds without events before a reload
+   */
+  public ExternalConfigurationWatcher(AppConfig appConfig, String directoryName, List<String> fileNames, long quietPeriod) {
+    this.appConfig = appConfig;
+    this.directory = new File(directoryName);
+    this.fileNames = new HashSet<String>(fileNames);
+    this.quietPeriod = quietPeriod;
+  }
+
+  /**
+   * Start watching. The watch runs on a daemon thread
+   */
+  public synchronized void start() {
+    if (this.watchThread != null) {
+      return;
+    }
+    try {
+      Path directoryPath = this.directory.toPath();
+      this.watchService = FileSystems.getDefault().newWatchService();
+      directoryPath.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+    catch (Exception e) {
+      String errorMessage = String.format("AppConfig.ExternalConfigurationWatcher.start failed to watch directory %s", this.directory);
+      logger.error(errorMessage,e);
+      throw new AppConfigException(errorMessage,e);
+    }
+    this.digests = currentDigests();
+    this.watchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "AppConfig-ExternalConfigurationWatcher");
+    this.watchThread.setDaemon(true);
+    this.watchThread.start();
+    logger.trace(String.format("AppConfig.ExternalConfigurationWatcher.start watching %s for %s", this.directory, this.fileNames));
+  }
+
+  /**
+   * Stop watching
+   */
+  public synchronized void stop() {
+    if (this.watchThread == null) {
+      return;
+    }
+    this.watchThread.interrupt();
+    try {
+      this.watchService.close();
+    }
+    catch (Exception e) {
+      // Ignore
+    }
+    this.watchThread = null;
+    this.watchService = null;
+    logger.trace(String.format("AppConfig.ExternalConfigurationWatcher.stop stopped watching %s", this.directory));
+  }
+
+  /**
+   * Number of reloads triggered by this watcher
+   *
+   * @return Reload count
+   */
+  public long getReloadCount() {
+    return this.reloadCount;
+  }
+
+  /*
+   * Watch loop - wait for a relevant event, drain further events until the quiet period passes or the maximum wait runs out,
+   * then reload if contents changed
+   */
+  private void watch() {
+    WatchService service = this.watchService;
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        if (!isRelevant(service.take())) {
+          continue;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.quietPeriod * MAX_WAIT_QUIET_PERIODS);
+        long wait = TimeUnit.MILLISECONDS.toNanos(this.quietPeriod);
+        WatchKey key;
+        while ((key = service.poll(wait, TimeUnit.NANOSECONDS)) != null) {
+          isRelevant(key);
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            break;
+          }
+          wait = Math.min(TimeUnit.MILLISECONDS.toNanos(this.quietPeriod), remaining);
+        }
+        reloadIfChanged();
+      }
+    }
+    catch (InterruptedException e) {
+      // Stopped
+    }
+    catch (ClosedWatchServiceException e) {
+      // Stopped
+    }
+  }
+
+  /*
+   * Consume the events for a key. True if any event concerns a watched file
+   */
+  private boolean isRelevant(WatchKey key) {
+    boolean relevant = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        relevant = true;
+      }
+      else if (this.fileNames.contains(event.context().toString())) {
+        relevant = true;
+      }
+    }
+    key.reset();
+    return relevant;
+  }
+
+  private void reloadIfChanged() {
+    byte[][] newDigests = currentDigests();
+    if (Arrays.deepEquals(newDigests, this.digests)) {
+      logger.trace(String.format("AppConfig.ExternalConfigurationWatcher.reloadIfChanged contents of %s unchanged", this.directory));
+      return;
+    }
+    try {
+      this.appConfig.reload();
+      this.digests = newDigests;
+      this.reloadCount++;
+      logger.trace(String.format("AppConfig.ExternalConfigurationWatcher.reloadIfChanged reloaded configuration from %s", this.directory));
+    }
+    catch (Exception e) {
+      logger.error(String.format("AppConfig.ExternalConfigurationWatcher.reloadIfChanged reload failed - keeping the current configuration"),e);
+    }
+  }
+
+  private byte[][] currentDigests() {
+    String[] names = this.fileNames.toArray(new String[this.fileNames.size()]);
+    Arrays.sort(names);
+    byte[][] currentDigests = new byte[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      currentDigests[i] = AppConfigUtils.digestFile(new File(this.directory, names[i]));
+    }
+    return currentDigests;
+  }
+
+}
@@ -16,7 +16,9 @@ package com.verymuchme.appconfig;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +30,10 @@ import freemarker.template.Template;
 /**
  * Manage template for Apache Commons Configuration DefaultConfigurationBuilder
  * 
+ * Freemarker configurations are shared process-wide, one per base class, so a template is only parsed once 
+ * no matter how many handlers, AppConfig instances or reloads use it. Freemarker checks the template resource 
+ * for changes (at most every five seconds by default) and re-parses it if it has been modified.
+ * 
  * @author Tracy Flynn
  * @version 2.0
  * @since 1.2
@@ -41,7 +47,21 @@ public class FreemarkerHandler {
   private static final Logger logger = LoggerFactory.getLogger(FreemarkerHandler.class);
  
   /*
-   * Local Freemarker configuration instance
+   * Shared Freemarker configurations, with their compiled template caches, per base class.
+   * Held by the class itself, so a web application's classes don't stay reachable after it is undeployed
+   */
+  private static final ClassValue<Configuration> SHARED_CONFIGURATIONS = new ClassValue<Configuration>() {
+    @Override
+    protected Configuration computeValue(Class<?> classBase) {
+      Configuration configuration = new Configuration();
+      configuration.setClassForTemplateLoading(classBase, "");
+      configuration.setObjectWrapper(new DefaultObjectWrapper());
+      return configuration;
+    }
+  };
+
+  /*
+   * Freemarker configuration instance - shared by all handlers with the same base class
    */
   private Configuration configuration = null;
   
@@ -70,11 +90,17 @@ public class FreemarkerHandler {
   public FreemarkerHandler(Class classBase) {
     
     this.classBase = classBase;
+    this.configuration = SHARED_CONFIGURATIONS.get(classBase);
     
-    this.configuration = new Configuration();
-    this.configuration.setClassForTemplateLoading(this.classBase, "");
-    this.configuration.setObjectWrapper(new DefaultObjectWrapper());  
-    
+  }
+
+  /**
+   * Discard the compiled templates cached for a base class, so they are reloaded on next use
+   * 
+   * @param classBase Base class used to find templates
+   */
+  public static void clearTemplateCache(Class classBase) {
+    SHARED_CONFIGURATIONS.get(classBase).clearTemplateCache();
   }
   
   /**
@@ -85,34 +111,59 @@ public class FreemarkerHandler {
    * @return Filled out template if found, null if any errors
    */
   public String getTemplate(String templateName, HashMap data) {
+    StringWriter outputWriter = new StringWriter();
+    processTemplate(templateName, data, outputWriter);
+    return outputWriter.toString();
+  }
+
+  /**
+   * Fill out the specified template, writing the output as it is generated
+   * 
+   * @param templateName Name of template to load
+   * @param data Data hash to be used for the template
+   * @param outputWriter Writer for the filled out template. Not closed
+   */
+  public void processTemplate(String templateName, Map data, Writer outputWriter) {
     
     if (templateName == null) {
       templateName = internalProperties.getProperty(InternalConfigurationConstants.DEFAULT_FREEMARKER_CONFIGURATION_TEMPLATE_PROPERTY_NAME);
     }
     
-    Template template = null;
+    Template template = findTemplate(templateName);
     try {
-      template = this.configuration.getTemplate(templateName);
-    }
-    catch (IOException ioe) {
-      String errorMessage = String.format("FreemarkerHandler: failed to load template %s relative to class %s", templateName, this.classBase.getName() );
-      logger.error(errorMessage,ioe);
-      throw new AppConfigException(errorMessage,ioe);
-    }
-    String templateContents = null;
-    try {
-      if (template != null) {
-        StringWriter outputWriter = new StringWriter();
-        template.process(data, outputWriter);
-        templateContents = outputWriter.toString();
-      }
+      template.process(data, outputWriter);
     }
     catch (Exception e) {
       String errorMessage = String.format("FreemarkerHandler: failed to generate template %s", templateName );
       logger.error(errorMessage,e);
       throw new AppConfigException(errorMessage,e);
     }
-    return templateContents;
+  }
+
+  /**
+   * Get a compiled template from the shared cache, loading and parsing it if necessary
+   * 
+   * @param templateName Name of template to load
+   * @return Compiled template
+   */
+  Template findTemplate(String templateName) {
+    try {
+      return this.configuration.getTemplate(templateName);
+    }
+    catch (IOException ioe) {
+      String errorMessage = String.format("FreemarkerHandler: failed to load template %s relative to class %s", templateName, this.classBase.getName() );
+      logger.error(errorMessage,ioe);
+      throw new AppConfigException(errorMessage,ioe);
+    }
+  }
+
+  /**
+   * Get the base class used to find templates
+   * 
+   * @return Base class
+   */
+  public Class getClassBase() {
+    return this.classBase;
   }
 
   /**
@@ -0,0 +1,63 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+/**
+ * Integer configuration value the JIT compiler may treat as a constant - see ConfigurationConstant
+ *
+ * Usage:
+ * <pre>
+ * private static final MethodHandle BUFFER_SIZE = configuration.intConstant("buffer.size", 8192).invoker();
+ * ...
+ * byte[] buffer = new byte[(int) BUFFER_SIZE.invokeExact()];
+ * </pre>
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class IntConstant extends ConfigurationConstant {
+
+  /**
+   * Create a new constant
+   *
+   * @param key Property name
+   * @param defaultValue Value used when the key is missing or its value can't be converted
+   * @param initialValue Current value
+   */
+  public IntConstant(String key, int defaultValue, int initialValue) {
+    super(key, int.class, defaultValue, initialValue);
+  }
+
+  /**
+   * Get the current value
+   *
+   * @return Current value
+   */
+  public int get() {
+    try {
+      return (int) this.invoker.invokeExact();
+    }
+    catch (Throwable t) {
+      throw invocationFailed(t);
+    }
+  }
+
+  @Override
+  protected Object read(Configuration configuration) {
+    return configuration.getInteger(this.key, (Integer) null);
+  }
+
+}
@@ -71,5 +71,25 @@ public class InternalConfigurationConstants {
   
   public static final String USE_CONTEXT_PATH_AS_SUFFIX_PROPERTY_NAME = "com.verymuchme.appconfig.externalConfigurationDirectory.useContextPathAsSuffix";
   public static final String CONTEXT_PATH_PROPERTY_NAME = "application.contextPath";
+
+  public static final String EXTERNAL_CONFIGURATION_WATCH_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.externalConfigurationDirectory.watchEnabled";
+  public static final String EXTERNAL_CONFIGURATION_WATCH_QUIET_PERIOD_PROPERTY_NAME = "com.verymuchme.appconfig.externalConfigurationDirectory.watchQuietPeriod";
+  public static final long DEFAULT_EXTERNAL_CONFIGURATION_WATCH_QUIET_PERIOD = 500;
+
+  public static final String SNAPSHOT_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.snapshot.enabled";
+
+  public static final String MISSING_KEY_FILTER_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.missingKeyFilter.enabled";
+
+  public static final String FREEMARKER_STREAMING_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.freemarker.streamingEnabled";
+
+  public static final String DEFINITION_CACHE_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.definitionCache.enabled";
+
+  public static final String PARALLEL_SOURCE_LOADING_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.parallelSourceLoading.enabled";
+
+  public static final String SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.snapshot.directParsing.enabled";
+
+  public static final String SNAPSHOT_CACHE_FILE_NAME_PROPERTY_NAME = "com.verymuchme.appconfig.snapshotCache.fileName";
+
+  public static final String COMPILED_CONFIGURATION_ENABLED_PROPERTY_NAME = "com.verymuchme.appconfig.compiledConfiguration.enabled";
   
 }
@@ -0,0 +1,106 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over configuration keys - answers "certainly absent" for most missing keys
+ *
+ * Sized for about 10 bits per expected key with 3 probes, giving a false positive rate of roughly 2% at the expected size.
+ * Keys can only be added. Once more keys than expected were added, isSaturated() tells the owner to rebuild a larger filter.
+ *
+ * Reads are not synchronized. Adds must be serialized by the owner, which also has to add a key before it becomes visible
+ * in the underlying configuration so concurrent readers never wrongly report it absent.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+final class KeyBloomFilter {
+
+  private static final int BITS_PER_KEY = 10;
+
+  private static final int MINIMUM_BITS = 1024;
+
+  private final AtomicLongArray bits;
+
+  private final int bitMask;
+
+  private final int expectedKeys;
+
+  private int addedKeys = 0;
+
+  /**
+   * Create an empty filter
+   *
+   * @param expectedKeys Number of keys the filter is sized for
+   */
+  KeyBloomFilter(int expectedKeys) {
+    int size = MINIMUM_BITS;
+    while (size < expectedKeys * BITS_PER_KEY && size < (1 << 30)) {
+      size <<= 1;
+    }
+    this.bits = new AtomicLongArray(size >>> 6);
+    this.bitMask = size - 1;
+    this.expectedKeys = Math.max(expectedKeys, size / BITS_PER_KEY);
+  }
+
+  /**
+   * Add a key. Callers must not add concurrently
+   *
+   * @param key Key to add
+   */
+  void add(String key) {
+    int hash = key.hashCode();
+    int h1 = ConfigurationSnapshot.spread(hash);
+    int h2 = (hash >>> 15 | hash << 17) * 0x85EBCA6B | 1;
+    for (int i = 0; i < 3; i++) {
+      int bit = (h1 + i * h2) & this.bitMask;
+      int word = bit >>> 6;
+      this.bits.set(word, this.bits.get(word) | 1L << bit);
+    }
+    this.addedKeys++;
+  }
+
+  /**
+   * Whether a key may have been added. false means it certainly wasn't
+   *
+   * @param key Key to test
+   * @return false if the key is certainly absent
+   */
+  boolean mightContain(String key) {
+    int hash = key.hashCode();
+    int h1 = ConfigurationSnapshot.spread(hash);
+    int h2 = (hash >>> 15 | hash << 17) * 0x85EBCA6B | 1;
+    for (int i = 0; i < 3; i++) {
+      int bit = (h1 + i * h2) & this.bitMask;
+      if ((this.bits.get(bit >>> 6) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether more keys were added than the filter was sized for
+   *
+   * @return true if the filter should be rebuilt
+   */
+  boolean isSaturated() {
+    return this.addedKeys > this.expectedKeys;
+  }
+
+}
@@ -0,0 +1,183 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.commons.configuration.PropertyConverter;
+
+/**
+ * Immutable list value held by a configuration snapshot
+ *
+ * The same instance is handed out by every getList call for the lifetime of the snapshot, so reading a list allocates nothing.
+ * The String form used by getStringArray is built once, on first use.
+ *
+ * Also provides the list splitting used when configuration values are parsed. It follows PropertyConverter.split,
+ * without the per token StringBuilder.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+final class ListValue extends AbstractList<Object> implements RandomAccess {
+
+  /*
+   * Escape character for the list delimiter
+   */
+  private static final char LIST_ESCAPE = '\\';
+
+  /*
+   * Elements in order
+   */
+  private final Object[] elements;
+
+  /*
+   * Elements as strings - created on first use
+   */
+  private volatile String[] strings;
+
+  /*
+   * Create a new instance owning the elements array
+   */
+  private ListValue(Object[] elements) {
+    this.elements = elements;
+  }
+
+  /**
+   * Create an immutable list holding the elements of a collection
+   *
+   * @param values Elements
+   * @return New ListValue instance
+   */
+  static ListValue of(Collection<?> values) {
+    return values instanceof ListValue ? (ListValue) values : new ListValue(values.toArray());
+  }
+
+  @Override
+  public Object get(int index) {
+    return this.elements[index];
+  }
+
+  @Override
+  public int size() {
+    return this.elements.length;
+  }
+
+  @Override
+  public Object[] toArray() {
+    return this.elements.clone();
+  }
+
+  /**
+   * Elements converted with toString, nulls kept. The array is the caller's to modify
+   *
+   * @return New array of element strings
+   */
+  String[] toStringArray() {
+    String[] current = this.strings;
+    if (current == null) {
+      current = new String[this.elements.length];
+      for (int i = 0; i < current.length; i++) {
+        Object element = this.elements[i];
+        current[i] = element == null ? null : element.toString();
+      }
+      this.strings = current;
+    }
+    return current.clone();
+  }
+
+  /**
+   * Split a value on a delimiter the way PropertyConverter.split does. Every token is kept, including empty ones
+   *
+   * @param value Value to split
+   * @param delimiter List delimiter
+   * @param trim true to trim the tokens
+   * @return Tokens, never empty for a non-null value
+   */
+  static List<String> split(String value, char delimiter, boolean trim) {
+    if (value == null) {
+      return new ArrayList<String>();
+    }
+    if (value.indexOf(LIST_ESCAPE) >= 0) {
+      // Escaped delimiters are rare enough not to need a fast path
+      return PropertyConverter.split(value, delimiter, trim);
+    }
+    int length = value.length();
+    int count = 1;
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) == delimiter) {
+        count++;
+      }
+    }
+    List<String> tokens = new ArrayList<String>(count);
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || value.charAt(i) == delimiter) {
+        tokens.add(token(value, start, i, trim));
+        start = i + 1;
+      }
+    }
+    return tokens;
+  }
+
+  /*
+   * Substring, optionally trimmed like String.trim, without the intermediate string
+   */
+  private static String token(String value, int start, int end, boolean trim) {
+    if (trim) {
+      while (start < end && value.charAt(start) <= ' ') {
+        start++;
+      }
+      while (end > start && value.charAt(end - 1) <= ' ') {
+        end--;
+      }
+    }
+    return value.substring(start, end);
+  }
+
+  /**
+   * Split a value on a literal separator the way String.split does - trailing empty tokens are dropped
+   *
+   * @param value Value to split
+   * @param separator Non-empty literal separator
+   * @return Tokens, possibly none, in a list the caller owns
+   */
+  static ArrayList<String> splitLiteral(String value, String separator) {
+    ArrayList<String> tokens = new ArrayList<String>();
+    int separatorLength = separator.length();
+    int start = 0;
+    int match = value.indexOf(separator);
+    if (match < 0) {
+      tokens.add(value);
+      return tokens;
+    }
+    while (match >= 0) {
+      tokens.add(value.substring(start, match));
+      start = match + separatorLength;
+      match = value.indexOf(separator, start);
+    }
+    tokens.add(value.substring(start));
+    int size = tokens.size();
+    while (size > 0 && tokens.get(size - 1).length() == 0) {
+      tokens.remove(--size);
+    }
+    return tokens;
+  }
+
+}
@@ -0,0 +1,163 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+/**
+ * Reusable holder for the result of a non-throwing lookup - see the Configuration tryGet methods
+ *
+ * Usage:
+ * <pre>
+ * LookupResult result = new LookupResult();
+ * for (String key : optionalKeys) {
+ *   if (configuration.tryGetInt(key, result)) {
+ *     total += result.getInt();
+ *   }
+ * }
+ * </pre>
+ *
+ * A lookup sets the status and, if found, the value of the requested type. Values of other types are left unchanged.
+ * Reusing one holder keeps lookups allocation free. Not thread safe - use one holder per thread.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public final class LookupResult {
+
+  /**
+   * Outcome of a lookup
+   */
+  public enum Status {
+    /** The key exists and its value was converted */
+    FOUND,
+    /** The key doesn't exist */
+    MISSING,
+    /** The key exists but its value can't be converted to the requested type */
+    NOT_CONVERTIBLE
+  }
+
+  private Status status = Status.MISSING;
+
+  private int intValue;
+
+  private long longValue;
+
+  private double doubleValue;
+
+  private boolean booleanValue;
+
+  /*
+   * Parser for values without a precomputed typed form - kept with the holder so lookups don't allocate one
+   */
+  final ConfigurationValueParser parser = new ConfigurationValueParser();
+
+  /**
+   * Create a new holder
+   */
+  public LookupResult() {
+  }
+
+  /**
+   * Get the outcome of the last lookup
+   *
+   * @return Status
+   */
+  public Status getStatus() {
+    return this.status;
+  }
+
+  /**
+   * Whether the last lookup found a convertible value
+   *
+   * @return true if found
+   */
+  public boolean isFound() {
+    return this.status == Status.FOUND;
+  }
+
+  /**
+   * Value of the last successful tryGetInt
+   *
+   * @return Value
+   */
+  public int getInt() {
+    return this.intValue;
+  }
+
+  /**
+   * Value of the last successful tryGetLong
+   *
+   * @return Value
+   */
+  public long getLong() {
+    return this.longValue;
+  }
+
+  /**
+   * Value of the last successful tryGetDouble
+   *
+   * @return Value
+   */
+  public double getDouble() {
+    return this.doubleValue;
+  }
+
+  /**
+   * Value of the last successful tryGetBoolean
+   *
+   * @return Value
+   */
+  public boolean getBoolean() {
+    return this.booleanValue;
+  }
+
+  /*
+   * Record the outcome - each returns whether the value was found, for use as the result of a tryGet method
+   */
+  boolean foundInt(int value) {
+    this.intValue = value;
+    this.status = Status.FOUND;
+    return true;
+  }
+
+  boolean foundLong(long value) {
+    this.longValue = value;
+    this.status = Status.FOUND;
+    return true;
+  }
+
+  boolean foundDouble(double value) {
+    this.doubleValue = value;
+    this.status = Status.FOUND;
+    return true;
+  }
+
+  boolean foundBoolean(boolean value) {
+    this.booleanValue = value;
+    this.status = Status.FOUND;
+    return true;
+  }
+
+  boolean missing() {
+    this.status = Status.MISSING;
+    return false;
+  }
+
+  boolean notConvertible() {
+    this.status = Status.NOT_CONVERTIBLE;
+    return false;
+  }
+
+}
@@ -17,6 +17,8 @@ package com.verymuchme.appconfig;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 /* 
  * Thin wrapper for a HashMap<String,Object> with some convenience methods
@@ -98,6 +100,15 @@ public class Options {
     return this.settings.get(propertyName);
   }
   
+  /**
+   * Get all the property values
+   * 
+   * @return Property names and values
+   */
+  Set<Map.Entry<String,Object>> entrySet() {
+    return this.settings.entrySet();
+  }
+  
   /**
    * Dump all properties to System.out
    */
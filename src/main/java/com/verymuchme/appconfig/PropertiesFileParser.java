@@ -0,0 +1,395 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.commons.configuration.ConfigurationUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Parse properties files straight into a ConfigurationSnapshotBuilder
+ * 
+ * Files are read through a FileChannel - memory mapped if they are large - and decoded as ISO-8859-1 into a reusable line buffer.
+ * Parsing follows Apache Commons Configuration PropertiesConfiguration exactly: comment and blank lines, trimmed lines and continuations, 
+ * key/value separators, escapes and unicode escapes, splitting on unescaped ',' and 'include' directives. 
+ * Values are not interpolated.
+ * 
+ * Not thread safe - use an instance per thread.
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+class PropertiesFileParser {
+
+  /*
+   * Files at least this size are memory mapped, smaller ones are read into a heap buffer
+   */
+  static final int MAP_THRESHOLD = 64 * 1024;
+
+  /*
+   * Name of the include directive - matched ignoring case
+   */
+  private static final String INCLUDE = "include";
+
+  /*
+   * List delimiter
+   */
+  private static final char DELIMITER = ',';
+
+  /*
+   * Most levels of nested includes
+   */
+  private static final int MAX_INCLUDE_DEPTH = 32;
+
+  /*
+   * Current logical line - natural lines joined
+   */
+  private char[] line = new char[256];
+  private int lineLength = 0;
+
+  /*
+   * Unescaped key or value
+   */
+  private char[] unescaped = new char[256];
+  private int unescapedLength = 0;
+
+  /**
+   * Create a new instance
+   */
+  PropertiesFileParser() {
+  }
+
+  /**
+   * Parse a properties file, adding its properties to a builder
+   * 
+   * @param url Location of the file
+   * @param builder Builder to add properties to. Repeated keys become lists
+   */
+  void parse(URL url, ConfigurationSnapshotBuilder builder) {
+    parse(url, url, builder, 0);
+  }
+
+  /**
+   * Parse properties from a buffer of ISO-8859-1 encoded text
+   * 
+   * @param bytes Properties text
+   * @param url Location used to resolve include directives - may be null if there are none
+   * @param builder Builder to add properties to. Repeated keys become lists
+   */
+  void parse(ByteBuffer bytes, URL url, ConfigurationSnapshotBuilder builder) {
+    parse(bytes, url, builder, 0);
+  }
+
+  /*
+   * Includes are always resolved against the location of the outermost file
+   */
+  private void parse(URL url, URL base, ConfigurationSnapshotBuilder builder, int depth) {
+    ByteBuffer bytes;
+    try {
+      bytes = read(url);
+    }
+    catch (IOException e) {
+      throw new AppConfigException(String.format("AppConfig.PropertiesFileParser.parse failed to read %s", url), e);
+    }
+    parse(bytes, base, builder, depth);
+  }
+
+  private void parse(ByteBuffer bytes, URL url, ConfigurationSnapshotBuilder builder, int depth) {
+    int limit = bytes.limit();
+    int position = bytes.position();
+    this.lineLength = 0;
+    while (position < limit) {
+      // Natural line - ends at \n, \r or \r\n
+      int lineEnd = position;
+      while (lineEnd < limit && bytes.get(lineEnd) != '\n' && bytes.get(lineEnd) != '\r') {
+        lineEnd++;
+      }
+      int nextLine = lineEnd;
+      if (nextLine < limit) {
+        nextLine += (bytes.get(nextLine) == '\r' && nextLine + 1 < limit && bytes.get(nextLine + 1) == '\n') ? 2 : 1;
+      }
+
+      // Trimmed as String.trim() does
+      int start = position;
+      int end = lineEnd;
+      while (start < end && (bytes.get(start) & 0xff) <= ' ') {
+        start++;
+      }
+      while (end > start && (bytes.get(end - 1) & 0xff) <= ' ') {
+        end--;
+      }
+      position = nextLine;
+
+      // Comment lines are skipped, even within a continued line
+      if (start == end || bytes.get(start) == '#' || bytes.get(start) == '!') {
+        continue;
+      }
+      int trailingBackslashes = 0;
+      while (end - trailingBackslashes > start && bytes.get(end - trailingBackslashes - 1) == '\\') {
+        trailingBackslashes++;
+      }
+      boolean continued = trailingBackslashes % 2 != 0;
+      appendLine(bytes, start, continued ? end - 1 : end);
+      if (!continued) {
+        parseLine(url, builder, depth);
+        this.lineLength = 0;
+      }
+    }
+    // A continued line without a following line is dropped
+    this.lineLength = 0;
+  }
+
+  /*
+   * Split the logical line into key and value as PropertiesConfiguration's pattern does:
+   * a key of non-whitespace, non-separator characters or escaped characters, then whitespace and/or one '=' or ':'
+   */
+  private void parseLine(URL url, ConfigurationSnapshotBuilder builder, int depth) {
+    char[] chars = this.line;
+    int length = this.lineLength;
+    int keyEnd = 0;
+    while (keyEnd < length) {
+      char c = chars[keyEnd];
+      if (c == '\\' && keyEnd + 1 < length) {
+        keyEnd += 2;
+      }
+      else if (c != '\\' && c != '=' && c != ':' && !isWhitespace(c)) {
+        keyEnd++;
+      }
+      else {
+        break;
+      }
+    }
+    int separatorEnd = keyEnd;
+    while (separatorEnd < length && isWhitespace(chars[separatorEnd])) {
+      separatorEnd++;
+    }
+    boolean matched;
+    if (separatorEnd < length && (chars[separatorEnd] == '=' || chars[separatorEnd] == ':')) {
+      separatorEnd++;
+      while (separatorEnd < length && isWhitespace(chars[separatorEnd])) {
+        separatorEnd++;
+      }
+      matched = true;
+    }
+    else {
+      matched = separatorEnd > keyEnd;
+    }
+    // The value is matched by '.*', which stops at line terminators - the only one left after reading lines is NEL
+    for (int i = separatorEnd; matched && i < length; i++) {
+      if (chars[i] == '\u0085') {
+        matched = false;
+      }
+    }
+
+    String key = "";
+    String value = "";
+    if (matched) {
+      unescape(chars, 0, keyEnd, false);
+      key = new String(this.unescaped, 0, this.unescapedLength);
+      unescape(chars, separatorEnd, length, true);
+    }
+    else {
+      this.unescapedLength = 0;
+    }
+
+    if (INCLUDE.equalsIgnoreCase(key)) {
+      include(url, builder, depth, new String(this.unescaped, 0, this.unescapedLength));
+    }
+    else if (indexOfDelimiter() > 0) {
+      builder.addProperty(key, ListValue.split(new String(this.unescaped, 0, this.unescapedLength), DELIMITER, true));
+    }
+    else {
+      builder.addProperty(key, new String(this.unescaped, 0, this.unescapedLength));
+    }
+  }
+
+  /*
+   * Load included files relative to the outermost file. Names are interpolated against the properties loaded so far
+   */
+  private void include(URL url, ConfigurationSnapshotBuilder builder, int depth, String value) {
+    if (depth >= MAX_INCLUDE_DEPTH) {
+      throw new AppConfigException(String.format("AppConfig.PropertiesFileParser.include includes nested too deeply in %s", url));
+    }
+    for (String fileName : StringUtils.split(value, DELIMITER)) {
+      String includeName = builder.interpolate(fileName.trim());
+      URL includeUrl = ConfigurationUtils.locate(url == null ? null : url.toString(), includeName);
+      if (includeUrl == null) {
+        throw new AppConfigException(String.format("AppConfig.PropertiesFileParser.include cannot resolve include file %s", includeName));
+      }
+      parse(includeUrl, url, builder, depth + 1);
+    }
+  }
+
+  /*
+   * Trim and unescape line[start,end) into the unescaped buffer.
+   * Values keep an escaped delimiter escaped, for the list split that follows, as PropertiesConfiguration.unescapeJava does
+   */
+  private void unescape(char[] chars, int start, int end, boolean value) {
+    while (start < end && chars[start] <= ' ') {
+      start++;
+    }
+    while (end > start && chars[end - 1] <= ' ') {
+      end--;
+    }
+    ensureUnescapedCapacity(end - start + 1);
+    char[] out = this.unescaped;
+    int length = 0;
+    int i = start;
+    while (i < end) {
+      char c = chars[i++];
+      if (c != '\\') {
+        out[length++] = c;
+        continue;
+      }
+      if (i == end) {
+        // Backslash at the end is kept
+        out[length++] = '\\';
+        break;
+      }
+      c = chars[i++];
+      switch (c) {
+        case 'r':
+          out[length++] = '\r';
+          break;
+        case 'f':
+          out[length++] = '\f';
+          break;
+        case 't':
+          out[length++] = '\t';
+          break;
+        case 'n':
+          out[length++] = '\n';
+          break;
+        case 'b':
+          out[length++] = '\b';
+          break;
+        case 'u':
+          if (end - i < 4) {
+            // An incomplete unicode escape at the end is dropped
+            i = end;
+            break;
+          }
+          try {
+            out[length++] = (char) Integer.parseInt(new String(chars, i, 4), 16);
+          }
+          catch (NumberFormatException e) {
+            throw new AppConfigException(String.format("AppConfig.PropertiesFileParser.unescape unable to parse unicode value %s", new String(chars, i, 4)), e);
+          }
+          i += 4;
+          break;
+        default:
+          if (value && c == DELIMITER) {
+            out[length++] = '\\';
+          }
+          out[length++] = c;
+          break;
+      }
+    }
+    this.unescapedLength = length;
+  }
+
+  private int indexOfDelimiter() {
+    for (int i = 0; i < this.unescapedLength; i++) {
+      if (this.unescaped[i] == DELIMITER) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Append ISO-8859-1 bytes[start,end) to the logical line
+   */
+  private void appendLine(ByteBuffer bytes, int start, int end) {
+    int needed = this.lineLength + end - start;
+    if (needed > this.line.length) {
+      this.line = Arrays.copyOf(this.line, Math.max(needed, this.line.length * 2));
+    }
+    char[] chars = this.line;
+    int length = this.lineLength;
+    for (int i = start; i < end; i++) {
+      chars[length++] = (char) (bytes.get(i) & 0xff);
+    }
+    this.lineLength = length;
+  }
+
+  private void ensureUnescapedCapacity(int capacity) {
+    if (capacity > this.unescaped.length) {
+      this.unescaped = new char[Math.max(capacity, this.unescaped.length * 2)];
+    }
+  }
+
+  /*
+   * Whitespace as matched by \s in a regular expression
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /**
+   * Read the contents of a URL. Files are read through a FileChannel and memory mapped if they are large
+   * 
+   * @param url Location to read
+   * @return Buffer holding the contents
+   * @throws IOException if the location can't be read
+   */
+  static ByteBuffer read(URL url) throws IOException {
+    File file = ConfigurationUtils.fileFromURL(url);
+    if (file != null && file.isFile()) {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        long size = channel.size();
+        if (size >= MAP_THRESHOLD) {
+          return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) size);
+        while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+          // Read until full
+        }
+        bytes.flip();
+        return bytes;
+      }
+      finally {
+        channel.close();
+      }
+    }
+    InputStream is = url.openStream();
+    try {
+      byte[] buffer = new byte[8192];
+      int length = 0;
+      int count;
+      while ((count = is.read(buffer, length, buffer.length - length)) > 0) {
+        length += count;
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+      }
+      return ByteBuffer.wrap(buffer, 0, length);
+    }
+    finally {
+      is.close();
+    }
+  }
+
+}
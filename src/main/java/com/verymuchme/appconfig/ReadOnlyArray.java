@@ -0,0 +1,81 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a primitive array held by a configuration - see Configuration.getIntArray
+ *
+ * The array is converted once per configuration version and the same instance is handed out until the configuration changes,
+ * so reading elements never copies or boxes. Subclasses add the typed get and toArray methods.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public abstract class ReadOnlyArray {
+
+  /*
+   * Primitive array - never modified or exposed
+   */
+  private final Object values;
+
+  /*
+   * Create a new instance owning the values array. Only the subclasses in this package can be instantiated
+   */
+  ReadOnlyArray(Object values) {
+    this.values = values;
+  }
+
+  /**
+   * Number of elements
+   *
+   * @return Length of the array
+   */
+  public int length() {
+    return Array.getLength(this.values);
+  }
+
+  /**
+   * Check for an empty array
+   *
+   * @return true if there are no elements
+   */
+  public boolean isEmpty() {
+    return length() == 0;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other != null && other.getClass() == getClass() && Arrays.deepEquals(new Object[] {this.values}, new Object[] {((ReadOnlyArray) other).values});
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.deepHashCode(new Object[] {this.values});
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("[");
+    for (int i = 0; i < length(); i++) {
+      result.append(i == 0 ? "" : ", ").append(Array.get(this.values, i));
+    }
+    return result.append(']').toString();
+  }
+
+}
@@ -0,0 +1,63 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+/**
+ * Read-only view of an int array held by a configuration - see Configuration.getIntArray
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public final class ReadOnlyIntArray extends ReadOnlyArray {
+
+  /*
+   * Shared empty instance
+   */
+  static final ReadOnlyIntArray EMPTY = new ReadOnlyIntArray(new int[0]);
+
+  private final int[] values;
+
+  ReadOnlyIntArray(int[] values) {
+    super(values);
+    this.values = values;
+  }
+
+  /**
+   * Get an element
+   *
+   * @param index Element index
+   * @return Element value
+   * @throws ArrayIndexOutOfBoundsException if the index is out of range
+   */
+  public int get(int index) {
+    return this.values[index];
+  }
+
+  @Override
+  public int length() {
+    return this.values.length;
+  }
+
+  /**
+   * Copy the elements into a new array
+   *
+   * @return New array the caller may modify
+   */
+  public int[] toArray() {
+    return this.values.clone();
+  }
+
+}
@@ -0,0 +1,349 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Configuration whose contents can be replaced atomically
+ *
+ * Every call is delegated to the currently published Configuration. A reload builds a complete new Configuration
+ * off to the side and publishes it with a single reference swap, so readers never block and never see a partially built state.
+ *
+ * A sequence of reads made through this object may span a reload. Use current() to pin one Configuration when several values must be consistent with each other.
+ *
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+public class ReloadableConfiguration extends ConfigurationBase implements Configuration {
+
+  /*
+   * Currently published configuration
+   */
+  private final AtomicReference<Configuration> current;
+
+  /**
+   * Create a new instance
+   *
+   * @param initialConfiguration Configuration to publish initially
+   */
+  public ReloadableConfiguration(Configuration initialConfiguration) {
+    if (initialConfiguration == null) {
+      throw new AppConfigException("AppConfig.ReloadableConfiguration initial configuration must not be null");
+    }
+    this.current = new AtomicReference<Configuration>(initialConfiguration);
+  }
+
+  /**
+   * Get the currently published configuration
+   *
+   * @return Current Configuration instance
+   */
+  public Configuration current() {
+    return this.current.get();
+  }
+
+  /**
+   * Publish a new configuration. Readers see either the old or the new configuration, never a mixture
+   *
+   * Constants obtained from this configuration are updated afterwards. Only those whose value changed are retargeted
+   *
+   * @param configuration Fully built Configuration instance
+   *
+   * @return The previously published Configuration
+   */
+  public Configuration publish(Configuration configuration) {
+    if (configuration == null) {
+      throw new AppConfigException("AppConfig.ReloadableConfiguration cannot publish a null configuration");
+    }
+    Configuration previous = this.current.getAndSet(configuration);
+    markChanged();
+    return previous;
+  }
+
+  /**
+   * Version of the currently published configuration - changes on every reload
+   */
+  @Override
+  public long getVersion() {
+    return this.current.get().getVersion();
+  }
+
+  @Override
+  public Configuration subset(String prefix) {
+    return this.current.get().subset(prefix);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return this.current.get().isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return this.current.get().containsKey(key);
+  }
+
+  @Override
+  public void addProperty(String key, Object value) {
+    this.current.get().addProperty(key, value);
+    markChanged();
+  }
+
+  @Override
+  public void setProperty(String key, Object value) {
+    this.current.get().setProperty(key, value);
+    markChanged();
+  }
+
+  @Override
+  public void clearProperty(String key) {
+    this.current.get().clearProperty(key);
+    markChanged();
+  }
+
+  @Override
+  public void clear() {
+    this.current.get().clear();
+    markChanged();
+  }
+
+  @Override
+  public Object getProperty(String key) {
+    return this.current.get().getProperty(key);
+  }
+
+  @Override
+  public Iterator<String> getKeys(String prefix) {
+    return this.current.get().getKeys(prefix);
+  }
+
+  @Override
+  public Iterator<String> getKeys() {
+    return this.current.get().getKeys();
+  }
+
+  @Override
+  public Properties getProperties(String key) {
+    return this.current.get().getProperties(key);
+  }
+
+  @Override
+  public boolean getBoolean(String key) {
+    return this.current.get().getBoolean(key);
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defaultValue) {
+    return this.current.get().getBoolean(key, defaultValue);
+  }
+
+  @Override
+  public Boolean getBoolean(String key, Boolean defaultValue) {
+    return this.current.get().getBoolean(key, defaultValue);
+  }
+
+  @Override
+  public byte getByte(String key) {
+    return this.current.get().getByte(key);
+  }
+
+  @Override
+  public byte getByte(String key, byte defaultValue) {
+    return this.current.get().getByte(key, defaultValue);
+  }
+
+  @Override
+  public Byte getByte(String key, Byte defaultValue) {
+    return this.current.get().getByte(key, defaultValue);
+  }
+
+  @Override
+  public double getDouble(String key) {
+    return this.current.get().getDouble(key);
+  }
+
+  @Override
+  public double getDouble(String key, double defaultValue) {
+    return this.current.get().getDouble(key, defaultValue);
+  }
+
+  @Override
+  public Double getDouble(String key, Double defaultValue) {
+    return this.current.get().getDouble(key, defaultValue);
+  }
+
+  @Override
+  public float getFloat(String key) {
+    return this.current.get().getFloat(key);
+  }
+
+  @Override
+  public float getFloat(String key, float defaultValue) {
+    return this.current.get().getFloat(key, defaultValue);
+  }
+
+  @Override
+  public Float getFloat(String key, Float defaultValue) {
+    return this.current.get().getFloat(key, defaultValue);
+  }
+
+  @Override
+  public int getInt(String key) {
+    return this.current.get().getInt(key);
+  }
+
+  @Override
+  public int getInt(String key, int defaultValue) {
+    return this.current.get().getInt(key, defaultValue);
+  }
+
+  @Override
+  public Integer getInteger(String key, Integer defaultValue) {
+    return this.current.get().getInteger(key, defaultValue);
+  }
+
+  @Override
+  public long getLong(String key) {
+    return this.current.get().getLong(key);
+  }
+
+  @Override
+  public long getLong(String key, long defaultValue) {
+    return this.current.get().getLong(key, defaultValue);
+  }
+
+  @Override
+  public Long getLong(String key, Long defaultValue) {
+    return this.current.get().getLong(key, defaultValue);
+  }
+
+  @Override
+  public short getShort(String key) {
+    return this.current.get().getShort(key);
+  }
+
+  @Override
+  public short getShort(String key, short defaultValue) {
+    return this.current.get().getShort(key, defaultValue);
+  }
+
+  @Override
+  public Short getShort(String key, Short defaultValue) {
+    return this.current.get().getShort(key, defaultValue);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String key) {
+    return this.current.get().getBigDecimal(key);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String key, BigDecimal defaultValue) {
+    return this.current.get().getBigDecimal(key, defaultValue);
+  }
+
+  @Override
+  public BigInteger getBigInteger(String key) {
+    return this.current.get().getBigInteger(key);
+  }
+
+  @Override
+  public BigInteger getBigInteger(String key, BigInteger defaultValue) {
+    return this.current.get().getBigInteger(key, defaultValue);
+  }
+
+  @Override
+  public String getString(String key) {
+    return this.current.get().getString(key);
+  }
+
+  @Override
+  public String getString(String key, String defaultValue) {
+    return this.current.get().getString(key, defaultValue);
+  }
+
+  @Override
+  public String[] getStringArray(String key) {
+    return this.current.get().getStringArray(key);
+  }
+
+  @Override
+  public List<Object> getList(String key) {
+    return this.current.get().getList(key);
+  }
+
+  @Override
+  public ReadOnlyIntArray getIntArray(String key) {
+    return this.current.get().getIntArray(key);
+  }
+
+  @Override
+  public ReadOnlyLongArray getLongArray(String key) {
+    return this.current.get().getLongArray(key);
+  }
+
+  @Override
+  public ReadOnlyDoubleArray getDoubleArray(String key) {
+    return this.current.get().getDoubleArray(key);
+  }
+
+  @Override
+  public boolean tryGetInt(String key, LookupResult result) {
+    return this.current.get().tryGetInt(key, result);
+  }
+
+  @Override
+  public int getIntOrDefault(String key, int defaultValue) {
+    return this.current.get().getIntOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean tryGetLong(String key, LookupResult result) {
+    return this.current.get().tryGetLong(key, result);
+  }
+
+  @Override
+  public long getLongOrDefault(String key, long defaultValue) {
+    return this.current.get().getLongOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean tryGetDouble(String key, LookupResult result) {
+    return this.current.get().tryGetDouble(key, result);
+  }
+
+  @Override
+  public double getDoubleOrDefault(String key, double defaultValue) {
+    return this.current.get().getDoubleOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public boolean tryGetBoolean(String key, LookupResult result) {
+    return this.current.get().tryGetBoolean(key, result);
+  }
+
+  @Override
+  public boolean getBooleanOrDefault(String key, boolean defaultValue) {
+    return this.current.get().getBooleanOrDefault(key, defaultValue);
+  }
+
+}
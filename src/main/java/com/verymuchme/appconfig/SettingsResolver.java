@@ -0,0 +1,207 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Resolve AppConfig settings from runtime options, system properties and environment variables - first found wins
+ * 
+ * The options and system properties are captured once, when the resolver is created, into a single immutable table. 
+ * Resolving many settings then costs one hash lookup each rather than a synchronized System.getProperty and a System.getenv call per setting.
+ * 
+ * Environment variables can't change while the JVM runs, so they are captured once per JVM. Besides their exact names, they are indexed 
+ * under relaxed names - case is ignored and '.', '-' and '_' are interchangeable - so 'com.verymuchme.appconfig.runTimeEnvironment' 
+ * can be set with COM_VERYMUCHME_APPCONFIG_RUNTIMEENVIRONMENT. An exact match always wins over a relaxed one.
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+class SettingsResolver {
+
+  /*
+   * Environment variables, captured on first use
+   */
+  private static volatile Environment environment = null;
+
+  /*
+   * Options and system properties, options taking precedence
+   */
+  private final HashMap<String,Object> settings;
+
+  /*
+   * False if only the options are consulted
+   */
+  private final boolean useSystemAndEnvironment;
+
+  /**
+   * Capture the options and the current system properties
+   * 
+   * @param options Runtime options - may be null
+   */
+  SettingsResolver(Options options) {
+    this(options, true);
+  }
+
+  /**
+   * Capture the options and, if requested, the current system properties
+   * 
+   * @param options Runtime options - may be null
+   * @param useSystemAndEnvironment false to resolve from the options alone - e.g. at build time, where the build machine's settings don't apply
+   */
+  SettingsResolver(Options options, boolean useSystemAndEnvironment) {
+    this.useSystemAndEnvironment = useSystemAndEnvironment;
+    this.settings = new HashMap<String,Object>();
+    if (useSystemAndEnvironment) {
+      // One synchronized copy of the system properties rather than a lock per lookup
+      Properties systemProperties = (Properties) System.getProperties().clone();
+      for (Map.Entry<Object,Object> entry : systemProperties.entrySet()) {
+        if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+          this.settings.put((String) entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    if (options != null) {
+      for (Map.Entry<String,Object> entry : options.entrySet()) {
+        if (entry.getValue() != null) {
+          this.settings.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Get a setting
+   * 
+   * @param propertyName Setting name
+   * @return Value from the options, the system properties or the environment, in that order. Null if not set anywhere
+   */
+  Object get(String propertyName) {
+    Object setting = this.settings.get(propertyName);
+    return setting != null || !this.useSystemAndEnvironment ? setting : getEnvironment().get(propertyName);
+  }
+
+  /**
+   * Get a single setting without capturing the options and system properties - for one-off lookups
+   * 
+   * @param propertyName Setting name
+   * @param options Runtime options - may be null
+   * @return Value from the options, the system properties or the environment, in that order. Null if not set anywhere
+   */
+  static Object resolve(String propertyName, Options options) {
+    Object setting = options == null ? null : options.get(propertyName);
+    if (setting == null) {
+      setting = System.getProperty(propertyName);
+    }
+    return setting != null ? setting : getEnvironment().get(propertyName);
+  }
+
+  private static Environment getEnvironment() {
+    Environment currentEnvironment = environment;
+    if (currentEnvironment == null) {
+      currentEnvironment = new Environment(System.getenv());
+      environment = currentEnvironment;
+    }
+    return currentEnvironment;
+  }
+
+  /**
+   * Environment variables indexed by exact and relaxed name
+   */
+  static final class Environment {
+
+    private final HashMap<String,String> exact;
+
+    /*
+     * Open-addressing table keyed by relaxed hash - names and values share a slot index. Kept at most half full
+     */
+    private final String[] relaxedNames;
+    private final String[] relaxedValues;
+    private final int relaxedMask;
+
+    Environment(Map<String,String> variables) {
+      this.exact = new HashMap<String,String>(variables);
+      int capacity = 16;
+      while (capacity < variables.size() * 2) {
+        capacity <<= 1;
+      }
+      this.relaxedNames = new String[capacity];
+      this.relaxedValues = new String[capacity];
+      this.relaxedMask = capacity - 1;
+      // Sorted, so which of two variables with the same relaxed name wins doesn't depend on map order
+      for (Map.Entry<String,String> entry : new TreeMap<String,String>(variables).entrySet()) {
+        int slot = relaxedHash(entry.getKey()) & this.relaxedMask;
+        while (this.relaxedNames[slot] != null && !relaxedEquals(this.relaxedNames[slot], entry.getKey())) {
+          slot = (slot + 1) & this.relaxedMask;
+        }
+        if (this.relaxedNames[slot] == null) {
+          this.relaxedNames[slot] = entry.getKey();
+          this.relaxedValues[slot] = entry.getValue();
+        }
+      }
+    }
+
+    /**
+     * Get a variable by exact name, then by relaxed name
+     * 
+     * @param name Variable or setting name
+     * @return Value, or null if not set
+     */
+    String get(String name) {
+      String value = this.exact.get(name);
+      if (value != null) {
+        return value;
+      }
+      int slot = relaxedHash(name) & this.relaxedMask;
+      while (this.relaxedNames[slot] != null) {
+        if (relaxedEquals(this.relaxedNames[slot], name)) {
+          return this.relaxedValues[slot];
+        }
+        slot = (slot + 1) & this.relaxedMask;
+      }
+      return null;
+    }
+
+    private static char relax(char c) {
+      return c == '.' || c == '-' ? '_' : Character.toUpperCase(c);
+    }
+
+    private static int relaxedHash(String name) {
+      int hash = 0;
+      for (int i = 0; i < name.length(); i++) {
+        hash = 31 * hash + relax(name.charAt(i));
+      }
+      return ConfigurationSnapshot.spread(hash);
+    }
+
+    private static boolean relaxedEquals(String first, String second) {
+      if (first.length() != second.length()) {
+        return false;
+      }
+      for (int i = 0; i < first.length(); i++) {
+        if (relax(first.charAt(i)) != relax(second.charAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
@@ -0,0 +1,419 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.commons.configuration.ConfigurationUtils;
+
+import ch.qos.logback.classic.LogbackFactory;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * A fully resolved configuration snapshot saved to disk, so a restart with unchanged sources can skip building the configuration
+ * 
+ * The file records a fingerprint of the internal settings and the configuration definition template, if any, and, for every configuration source - including optional ones that were missing - 
+ * its location, size, modification time and a SHA-256 hash of its contents. It ends with a CRC32 of everything before it.
+ * The file is memory mapped when read and only used if the checksum and every fingerprint still match.
+ * 
+ * Only configurations fully determined by the fingerprinted files are saved. Configurations with the system properties as a source,
+ * or with a source file that includes other files or refers to ${sys:...} or ${env:...}, are never saved.
+ * 
+ * @author Tracy Flynn
+ * @version 4.1
+ * @since 4.1
+ */
+class SnapshotCacheFile {
+
+  /*
+   * Logger instance for this class
+   */
+  private static final Logger logger = LogbackFactory.getLogger(SnapshotCacheFile.class);
+
+  /*
+   * 'ACSC' - AppConfig snapshot cache
+   */
+  private static final int MAGIC = 0x41435343;
+
+  private static final int FORMAT_VERSION = 3;
+
+  /*
+   * Source file contents that make the configuration depend on more than the fingerprinted files - include lines and system or environment references
+   */
+  private static final Pattern EXTERNAL_REFERENCE = Pattern.compile("(?im)^[ \\t\\f]*include[ \\t\\f]*[=: \\t\\f]|\\$\\{(sys|env):");
+
+  /*
+   * Value tags
+   */
+  private static final byte STRING_VALUE = 0;
+  private static final byte BOOLEAN_VALUE = 1;
+  private static final byte INTEGER_VALUE = 2;
+  private static final byte LONG_VALUE = 3;
+  private static final byte LIST_VALUE = 4;
+
+  /*
+   * Length of the trailing checksum
+   */
+  private static final int CHECKSUM_LENGTH = 8;
+
+  private final File file;
+
+  private final String settingsFingerprint;
+
+  /**
+   * Create a new instance
+   * 
+   * @param file Location of the cache file
+   * @param internalProperties Internal settings the configuration is built with
+   * @param definitionFingerprint Fingerprint of the configuration definition, or null if the internal settings alone decide the sources
+   */
+  SnapshotCacheFile(File file, ExtendedProperties internalProperties, String definitionFingerprint) {
+    this.file = file;
+    // Every internal setting is part of the configuration, so all of them are part of the fingerprint
+    HashMap<String,String> settings = new HashMap<String,String>();
+    Iterator<String> propertyNames = internalProperties.propertyNames();
+    while (propertyNames.hasNext()) {
+      String propertyName = propertyNames.next();
+      settings.put(propertyName, String.valueOf(internalProperties.get(propertyName)));
+    }
+    this.settingsFingerprint = ConfigurationBuilderCommonsConfiguration.definitionFingerprint("snapshotCache-" + FORMAT_VERSION, definitionFingerprint, settings);
+  }
+
+  File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Read the cached snapshot
+   * 
+   * @return Cached snapshot, or null if there is no cache file, it is damaged or anything it was built from has changed
+   */
+  ConfigurationSnapshot read() {
+    if (!this.file.isFile()) {
+      logger.trace(String.format("AppConfig.SnapshotCacheFile.read no snapshot cache file %s", this.file));
+      return null;
+    }
+    try {
+      ByteBuffer bytes;
+      FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+      try {
+        bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      finally {
+        channel.close();
+      }
+      if (bytes.limit() < 8 + CHECKSUM_LENGTH || bytes.getInt() != MAGIC || bytes.getInt() != FORMAT_VERSION) {
+        logger.debug(String.format("AppConfig.SnapshotCacheFile.read ignoring %s - not a snapshot cache file of this version", this.file));
+        return null;
+      }
+      int contentLength = bytes.limit() - CHECKSUM_LENGTH;
+      if (checksum(bytes, contentLength) != bytes.getLong(contentLength)) {
+        logger.debug(String.format("AppConfig.SnapshotCacheFile.read ignoring %s - checksum mismatch", this.file));
+        return null;
+      }
+      byte[] buffer = new byte[256];
+      if (!this.settingsFingerprint.equals(readString(bytes, buffer))) {
+        logger.debug(String.format("AppConfig.SnapshotCacheFile.read ignoring %s - settings have changed", this.file));
+        return null;
+      }
+      int sourceCount = bytes.getInt();
+      for (int i = 0; i < sourceCount; i++) {
+        String fileName = readString(bytes, buffer);
+        SourceFingerprint recorded = new SourceFingerprint(readString(bytes, buffer), bytes.getLong(), bytes.getLong(), readString(bytes, buffer));
+        if (!recorded.equals(SourceFingerprint.of(fileName))) {
+          logger.debug(String.format("AppConfig.SnapshotCacheFile.read ignoring %s - %s has changed", this.file, fileName));
+          return null;
+        }
+      }
+      ConfigurationSnapshotBuilder snapshotBuilder = new ConfigurationSnapshotBuilder();
+      int entryCount = bytes.getInt();
+      for (int i = 0; i < entryCount; i++) {
+        String key = readString(bytes, buffer);
+        snapshotBuilder.setProperty(key, readValue(bytes, buffer));
+      }
+      logger.trace(String.format("AppConfig.SnapshotCacheFile.read loaded %d keys from %s", entryCount, this.file));
+      return snapshotBuilder.build();
+    }
+    catch (Exception e) {
+      // A cache that can't be read is rebuilt, never fatal
+      logger.warn(String.format("AppConfig.SnapshotCacheFile.read failed to read snapshot cache file %s", this.file), e);
+      return null;
+    }
+  }
+
+  /**
+   * Save a snapshot. The file is written alongside and moved into place, so readers never see a partial file
+   * 
+   * @param snapshot Snapshot to save
+   * @param sources Sources the snapshot was built from, including missing optional ones
+   * @return True if the snapshot was saved. Snapshots that use the system properties, includes or ${sys:...} and ${env:...} references,
+   * or hold values of other types than String, Boolean, Integer or Long aren't
+   */
+  boolean write(ConfigurationSnapshot snapshot, List<ConfigurationSource> sources) {
+    for (ConfigurationSource source : sources) {
+      if (source.getFileName() == null) {
+        logger.trace("AppConfig.SnapshotCacheFile.write system properties are a source, not saving snapshot");
+        return false;
+      }
+    }
+    File tempFile = null;
+    try {
+      ByteArrayOutputStream contents = new ByteArrayOutputStream(16 * 1024);
+      DataOutputStream os = new DataOutputStream(contents);
+      os.writeInt(MAGIC);
+      os.writeInt(FORMAT_VERSION);
+      writeString(os, this.settingsFingerprint);
+      os.writeInt(sources.size());
+      for (ConfigurationSource source : sources) {
+        SourceFingerprint fingerprint = SourceFingerprint.of(source.getFileName());
+        if (fingerprint.hasExternalReferences) {
+          logger.trace(String.format("AppConfig.SnapshotCacheFile.write %s uses includes or system or environment references, not saving snapshot", source.getFileName()));
+          return false;
+        }
+        writeString(os, source.getFileName());
+        writeString(os, fingerprint.location);
+        os.writeLong(fingerprint.size);
+        os.writeLong(fingerprint.lastModified);
+        writeString(os, fingerprint.contentHash);
+      }
+      List<String> keys = new ArrayList<String>();
+      Iterator<String> keysItr = snapshot.getKeys();
+      while (keysItr.hasNext()) {
+        keys.add(keysItr.next());
+      }
+      os.writeInt(keys.size());
+      for (String key : keys) {
+        writeString(os, key);
+        if (!writeValue(os, snapshot.getProperty(key))) {
+          logger.trace(String.format("AppConfig.SnapshotCacheFile.write value of %s can't be saved, not saving snapshot", key));
+          return false;
+        }
+      }
+      os.flush();
+      byte[] bytes = contents.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length);
+
+      File directory = this.file.getAbsoluteFile().getParentFile();
+      directory.mkdirs();
+      tempFile = File.createTempFile(this.file.getName(), ".tmp", directory);
+      DataOutputStream fos = new DataOutputStream(new FileOutputStream(tempFile));
+      try {
+        fos.write(bytes);
+        fos.writeLong(crc.getValue());
+      }
+      finally {
+        fos.close();
+      }
+      Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tempFile = null;
+      logger.trace(String.format("AppConfig.SnapshotCacheFile.write saved %d keys to %s", keys.size(), this.file));
+      return true;
+    }
+    catch (Exception e) {
+      // Not being able to save only costs the next start some time
+      logger.warn(String.format("AppConfig.SnapshotCacheFile.write failed to write snapshot cache file %s", this.file), e);
+      return false;
+    }
+    finally {
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  static boolean writeValue(DataOutputStream os, Object value) throws IOException {
+    if (value instanceof String) {
+      os.writeByte(STRING_VALUE);
+      writeString(os, (String) value);
+    }
+    else if (value instanceof Boolean) {
+      os.writeByte(BOOLEAN_VALUE);
+      os.writeBoolean((Boolean) value);
+    }
+    else if (value instanceof Integer) {
+      os.writeByte(INTEGER_VALUE);
+      os.writeInt((Integer) value);
+    }
+    else if (value instanceof Long) {
+      os.writeByte(LONG_VALUE);
+      os.writeLong((Long) value);
+    }
+    else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      os.writeByte(LIST_VALUE);
+      os.writeInt(list.size());
+      for (Object element : list) {
+        if (element instanceof List || !writeValue(os, element)) {
+          return false;
+        }
+      }
+    }
+    else {
+      return false;
+    }
+    return true;
+  }
+
+  static Object readValue(ByteBuffer bytes, byte[] buffer) throws IOException {
+    byte tag = bytes.get();
+    switch (tag) {
+      case STRING_VALUE:
+        return readString(bytes, buffer);
+      case BOOLEAN_VALUE:
+        return Boolean.valueOf(bytes.get() != 0);
+      case INTEGER_VALUE:
+        return Integer.valueOf(bytes.getInt());
+      case LONG_VALUE:
+        return Long.valueOf(bytes.getLong());
+      case LIST_VALUE:
+        int size = bytes.getInt();
+        List<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(bytes, buffer));
+        }
+        return list;
+      default:
+        throw new IOException(String.format("Unknown value type %d", tag));
+    }
+  }
+
+  /*
+   * Strings are a length and UTF-8 bytes - a length of -1 is null
+   */
+  static void writeString(DataOutputStream os, String value) throws IOException {
+    if (value == null) {
+      os.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes("UTF-8");
+    os.writeInt(bytes.length);
+    os.write(bytes);
+  }
+
+  static String readString(ByteBuffer bytes, byte[] buffer) throws IOException {
+    int length = bytes.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] target = length <= buffer.length ? buffer : new byte[length];
+    bytes.get(target, 0, length);
+    return new String(target, 0, length, "UTF-8");
+  }
+
+  static long checksum(ByteBuffer bytes, int length) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[8192];
+    ByteBuffer content = bytes.duplicate();
+    content.position(0);
+    content.limit(length);
+    while (content.hasRemaining()) {
+      int count = Math.min(chunk.length, content.remaining());
+      content.get(chunk, 0, count);
+      crc.update(chunk, 0, count);
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Identity of a configuration source's current contents
+   */
+  static final class SourceFingerprint {
+
+    /*
+     * Located URL, or null if the source doesn't exist
+     */
+    private final String location;
+    private final long size;
+    private final long lastModified;
+    private final String contentHash;
+
+    /*
+     * True if the contents include other files or refer to system properties or environment variables. Not part of the identity
+     */
+    private boolean hasExternalReferences = false;
+
+    SourceFingerprint(String location, long size, long lastModified, String contentHash) {
+      this.location = location;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.contentHash = contentHash;
+    }
+
+    /**
+     * Fingerprint a properties file, located as Apache Commons Configuration locates it
+     * 
+     * @param fileName File name - a path or classpath resource
+     * @return Fingerprint of the current contents
+     */
+    static SourceFingerprint of(String fileName) throws Exception {
+      URL url = ConfigurationUtils.locate(fileName);
+      if (url == null) {
+        return new SourceFingerprint(null, -1, -1, null);
+      }
+      File sourceFile = ConfigurationUtils.fileFromURL(url);
+      long lastModified = sourceFile != null && sourceFile.isFile() ? sourceFile.lastModified() : -1;
+      ByteBuffer contents = PropertiesFileParser.read(url);
+      long size = contents.remaining();
+      // Only ASCII is matched, so any ASCII compatible encoding will do
+      boolean hasExternalReferences = EXTERNAL_REFERENCE.matcher(StandardCharsets.ISO_8859_1.decode(contents.duplicate())).find();
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(contents);
+      StringBuilder contentHash = new StringBuilder();
+      for (byte digestByte : digest.digest()) {
+        contentHash.append(Character.forDigit((digestByte >> 4) & 0xf, 16)).append(Character.forDigit(digestByte & 0xf, 16));
+      }
+      SourceFingerprint fingerprint = new SourceFingerprint(url.toString(), size, lastModified, contentHash.toString());
+      fingerprint.hasExternalReferences = hasExternalReferences;
+      return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof SourceFingerprint)) {
+        return false;
+      }
+      SourceFingerprint fingerprint = (SourceFingerprint) other;
+      return this.size == fingerprint.size && this.lastModified == fingerprint.lastModified 
+          && Objects.equals(this.location, fingerprint.location) && Objects.equals(this.contentHash, fingerprint.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.location, this.size, this.lastModified, this.contentHash);
+    }
+
+  }
+
+}
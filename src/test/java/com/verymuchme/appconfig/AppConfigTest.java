@@ -21,6 +21,7 @@ import static org.junit.Assert.assertTrue;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -146,6 +147,172 @@ public class AppConfigTest {
   }
   
   
+  @Test
+  public void testDefinitionCache() {
+    String packageName2 = "com.verymuchme.appconfig.test.internalOnly.case2";
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.CONTEXT_PATH_PROPERTY_NAME, "/testDefinitionCache");
+    ConfigurationTimings[] timings = new ConfigurationTimings[2];
+    for (int i = 0; i < timings.length; i++) {
+      AppConfig appConfig = new AppConfig();
+      appConfig.setApplicationPropertiesPackageName(packageName2);
+      appConfig.setOptions(this.runtimeOptions);
+      appConfig.configure();
+      assertEquals("db_value1", appConfig.getConfiguration().getString("db.test.value.1"));
+      timings[i] = appConfig.getConfigurationTimings();
+    }
+    assertTrue(timings[0].getPhase(ConfigurationTimings.DEFINITION_PARSE).isComplete());
+    assertTrue("Unchanged settings reuse the parsed definition", timings[1].getPhase(ConfigurationTimings.TEMPLATE_RENDER) == null);
+    assertTrue(timings[1].getPhase(ConfigurationTimings.DEFINITION_PARSE) == null);
+
+    HashMap<String,String> templateData = new HashMap<String,String>();
+    templateData.put("a", "b=c");
+    templateData.put("d", null);
+    String fingerprint = ConfigurationBuilderCommonsConfiguration.definitionFingerprint("template.ftl", templateData);
+    assertEquals(fingerprint, ConfigurationBuilderCommonsConfiguration.definitionFingerprint("template.ftl", new HashMap<String,String>(templateData)));
+    templateData.put("d", "");
+    assertFalse(fingerprint.equals(ConfigurationBuilderCommonsConfiguration.definitionFingerprint("template.ftl", templateData)));
+    templateData.remove("d");
+    templateData.put("a=b", "c");
+    assertFalse(fingerprint.equals(ConfigurationBuilderCommonsConfiguration.definitionFingerprint("template.ftl", templateData)));
+  }
+
+  @Test
+  public void testInternalDefaultsShared() {
+    ConfigurationHelper configurationHelper = new ConfigurationHelper();
+    ExtendedProperties first = configurationHelper.loadInternalProperties(new Options());
+    first.getListProperty(InternalConfigurationConstants.PERMITTED_RUN_TIME_ENVIRONMENTS_PROPERTY_NAME).add("staging");
+    first.setProperty(InternalConfigurationConstants.DEFAULT_CONFIGURATION_NAME_PROPERTY_NAME, "changed");
+    ExtendedProperties second = configurationHelper.loadInternalProperties(new Options());
+    assertFalse("Each load gets its own copy of the cached defaults", second.getListProperty(InternalConfigurationConstants.PERMITTED_RUN_TIME_ENVIRONMENTS_PROPERTY_NAME).contains("staging"));
+    assertEquals("defaults", second.getProperty(InternalConfigurationConstants.DEFAULT_CONFIGURATION_NAME_PROPERTY_NAME));
+  }
+
+  @Test
+  public void testConfigureStreamed() {
+    logger.trace("AppConfigTest.testConfigureStreamed start");
+    String packageName2 = "com.verymuchme.appconfig.test.internalOnly.case2";
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.FREEMARKER_STREAMING_ENABLED_PROPERTY_NAME, "true");
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.DEFINITION_CACHE_ENABLED_PROPERTY_NAME, "false");
+    AppConfig appConfig = new AppConfig();
+    appConfig.setApplicationPropertiesPackageName(packageName2);
+    appConfig.setOptions(this.runtimeOptions);
+    appConfig.configure();
+    Configuration configuration = appConfig.getConfiguration();
+    assertEquals("app_value1", configuration.getString("app.test.value.1"));
+    assertEquals("db_value1", configuration.getString("db.test.value.1"));
+    assertTrue(appConfig.getConfigurationTimings().getPhase(ConfigurationTimings.TEMPLATE_RENDER).isComplete());
+
+    // Rendering failures are reported rather than the truncated definition
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.DEFAULT_FREEMARKER_CONFIGURATION_TEMPLATE_PROPERTY_NAME, "missing-configuration-xml.ftl");
+    appConfig = new AppConfig();
+    appConfig.setApplicationPropertiesPackageName(packageName2);
+    appConfig.setOptions(this.runtimeOptions);
+    try {
+      appConfig.configure();
+      fail("Missing template should fail the configuration");
+    }
+    catch (AppConfigException e) {
+      assertTrue(e.getCause() instanceof AppConfigException);
+      assertTrue(e.getCause().getMessage().contains("missing-configuration-xml.ftl"));
+    }
+    logger.trace("AppConfigTest.testConfigureStreamed end");
+  }
+
+  @Test
+  public void testSnapshotCache() throws Exception {
+    logger.trace("AppConfigTest.testSnapshotCache start");
+    String tempDirName = getTemporaryDir();
+    List<String> externalFileNames = createExternalTestFiles(tempDirName, "app.test.value.1 = cached", "db.test.value.2 = ${app.test.value.1}");
+    File cacheFile = new File(tempDirName, "appconfig.snapshot");
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME, "true");
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_CACHE_FILE_NAME_PROPERTY_NAME, cacheFile.getAbsolutePath());
+    try {
+      AppConfig appConfig = configureExternal(tempDirName);
+      assertTrue(appConfig.getConfigurationTimings().getPhase(ConfigurationTimings.SNAPSHOT_CACHE_WRITE).isComplete());
+      assertTrue(cacheFile.isFile());
+
+      // Nothing changed - built from the cache file
+      appConfig = configureExternal(tempDirName);
+      ConfigurationTimings timings = appConfig.getConfigurationTimings();
+      assertTrue(timings.getPhase(ConfigurationTimings.SNAPSHOT_CACHE_READ).isComplete());
+      assertTrue("Cached snapshot used", timings.getPhase(ConfigurationTimings.BUILD_CONFIGURATION) == null);
+      assertEquals("cached", appConfig.getConfiguration().getString("app.test.value.1"));
+      assertEquals("cached", appConfig.getConfiguration().getString("db.test.value.2"));
+      assertEquals("db_value1", appConfig.getConfiguration().getString("db.test.value.1"));
+      assertEquals(RUNTIME_ENVIRONMENT, appConfig.getConfiguration().getString(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME));
+
+      // A changed source is rebuilt
+      BufferedWriter bw = new BufferedWriter(new FileWriter(externalFileNames.get(0)));
+      bw.write("app.test.value.1 = changed\n");
+      bw.close();
+      appConfig = configureExternal(tempDirName);
+      assertTrue(appConfig.getConfigurationTimings().getPhase(ConfigurationTimings.BUILD_CONFIGURATION).isComplete());
+      assertEquals("changed", appConfig.getConfiguration().getString("app.test.value.1"));
+
+      // A damaged file is ignored
+      RandomAccessFile damaged = new RandomAccessFile(cacheFile, "rw");
+      damaged.seek(damaged.length() / 2);
+      damaged.write(damaged.read() ^ 0xff);
+      damaged.close();
+      appConfig = configureExternal(tempDirName);
+      assertTrue(appConfig.getConfigurationTimings().getPhase(ConfigurationTimings.BUILD_CONFIGURATION).isComplete());
+      assertEquals("changed", appConfig.getConfiguration().getString("app.test.value.1"));
+
+      // Values that could differ with unchanged files - environment references and includes - are never saved
+      File includedFile = new File(tempDirName, "included.properties");
+      String[] uncacheableContents = {"app.test.value.1 = ${env:HOME}\n", "app.test.value.1 = ${sys:user.name}\n", "include = included.properties\n"};
+      for (String contents : uncacheableContents) {
+        bw = new BufferedWriter(new FileWriter(includedFile));
+        bw.write("app.test.value.3 = included\n");
+        bw.close();
+        bw = new BufferedWriter(new FileWriter(externalFileNames.get(0)));
+        bw.write(contents);
+        bw.close();
+        cacheFile.delete();
+        configureExternal(tempDirName);
+        assertFalse(contents, cacheFile.exists());
+      }
+      assertEquals("included", configureExternal(tempDirName).getConfiguration().getString("app.test.value.3"));
+      includedFile.delete();
+    }
+    finally {
+      for (String externalFileName : externalFileNames) {
+        new File(externalFileName).delete();
+      }
+      cacheFile.delete();
+      deleteDir(tempDirName);
+    }
+    logger.trace("AppConfigTest.testSnapshotCache end");
+  }
+
+  @Test
+  public void testSnapshotCacheFollowsDefinition() throws Exception {
+    File cacheFile = File.createTempFile("appconfig", ".snapshot");
+    try {
+      ExtendedProperties internalProperties = new ExtendedProperties();
+      internalProperties.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME, RUNTIME_ENVIRONMENT);
+      ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+      builder.setProperty("app.test.value.1", "cached");
+      assertTrue(new SnapshotCacheFile(cacheFile, internalProperties, "definition").write(builder.build(), new ArrayList<ConfigurationSource>()));
+
+      assertEquals("cached", new SnapshotCacheFile(cacheFile, internalProperties, "definition").read().getString("app.test.value.1"));
+      assertNull("A changed definition template isn't served from the cache", new SnapshotCacheFile(cacheFile, internalProperties, "changed definition").read());
+      assertNull(new SnapshotCacheFile(cacheFile, internalProperties, null).read());
+    }
+    finally {
+      cacheFile.delete();
+    }
+  }
+
+  private AppConfig configureExternal(String externalDirName) {
+    AppConfig appConfig = new AppConfig();
+    appConfig.setApplicationPropertiesPackageName("com.verymuchme.appconfig.test.internalOnly.case2");
+    appConfig.setExternalConfigurationDirectory(externalDirName);
+    appConfig.setOptions(this.runtimeOptions);
+    appConfig.configure();
+    return appConfig;
+  }
+
   @Test
   public void testConfigureExternal() {
 
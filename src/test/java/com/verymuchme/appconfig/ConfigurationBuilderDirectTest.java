@@ -0,0 +1,310 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration.AbstractConfiguration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import org.junit.Test;
+
+public class ConfigurationBuilderDirectTest {
+
+  private static TestLogger logger = null;
+
+  private static final String RUNTIME_ENVIRONMENT = "test";
+  private static final String INTERNAL_LOGGING_LEVEL = "TRACE";
+  private static final String DIRECT_BUILDER_CLASS_NAME = "com.verymuchme.appconfig.ConfigurationBuilderDirect";
+
+  private static boolean internalLoggingIntiialized = false;
+
+  public ConfigurationBuilderDirectTest() {
+    initializeTestLogger();
+  }
+
+  @Test
+  public void testSameConfigurationAsTemplate() throws Exception {
+    logger.trace("ConfigurationBuilderDirectTest.testSameConfigurationAsTemplate start");
+
+    File tempDir = File.createTempFile("tmpdir", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    File applicationFile = new File(tempDir, "application-test.properties");
+    try {
+      writeFile(applicationFile, "app.test.value.1 = external\napp.test.reference = ${db.test.value.1}");
+
+      String packageName = "com.verymuchme.appconfig.test.internalOnly.case2";
+      TreeMap<String,Object> templateValues = configurationValues(configure(packageName, tempDir, null));
+      Configuration directConfiguration = configure(packageName, tempDir, DIRECT_BUILDER_CLASS_NAME);
+      TreeMap<String,Object> directValues = configurationValues(directConfiguration);
+      // Apart from the builder setting itself
+      templateValues.remove(InternalConfigurationConstants.DEFAULT_CONFIGURATION_BUILDER_CLASS_NAME_PROPERTY_NAME);
+      directValues.remove(InternalConfigurationConstants.DEFAULT_CONFIGURATION_BUILDER_CLASS_NAME_PROPERTY_NAME);
+      assertEquals(templateValues, directValues);
+      assertEquals("external", directConfiguration.getString("app.test.value.1"));
+      assertEquals("Values in one source can refer to another", "db_value1", directConfiguration.getString("app.test.reference"));
+    }
+    finally {
+      applicationFile.delete();
+      tempDir.delete();
+    }
+
+    // Missing defaults still fail the build
+    try {
+      configure("com.verymuchme.appconfig.test.internalOnly.case1", null, DIRECT_BUILDER_CLASS_NAME);
+      fail("Optional properties files present, defaults not present, so the property load should fail");
+    }
+    catch (AppConfigException e) {
+      // Expected
+    }
+
+    logger.trace("ConfigurationBuilderDirectTest.testSameConfigurationAsTemplate end");
+  }
+
+  @Test
+  public void testConfigurationSourceOrder() {
+    ExtendedProperties internalProperties = new ExtendedProperties();
+    internalProperties.setProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_DIRECTORY_PROPERTY_NAME, "/etc/app");
+    internalProperties.setProperty(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_DIR_PROPERTY_NAME, "com/example");
+    internalProperties.setProperty(InternalConfigurationConstants.APPLICATION_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME, "application");
+    internalProperties.setProperty(InternalConfigurationConstants.DATABASE_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME, "database");
+    internalProperties.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME, "production");
+    internalProperties.setProperty(InternalConfigurationConstants.DEFAULT_CONFIGURATION_NAME_PROPERTY_NAME, "defaults");
+    internalProperties.setProperty(InternalConfigurationConstants.CONFIGURATION_NAME_SUFFIX_PROPERTY_NAME, "properties");
+    ConfigurationBuilderDirect configurationBuilder = new ConfigurationBuilderDirect();
+    configurationBuilder.setInternalProperties(internalProperties);
+
+    String[] expected = {
+        "/etc/app/application-production.properties", "com/example/application-production.properties", "/etc/app/application-defaults.properties", "com/example/application-defaults.properties",
+        "/etc/app/database-production.properties", "com/example/database-production.properties", "/etc/app/database-defaults.properties", "com/example/database-defaults.properties"};
+    int i = 0;
+    for (ConfigurationSource configurationSource : configurationBuilder.getConfigurationSources()) {
+      assertEquals(expected[i], configurationSource.getFileName());
+      assertEquals("Only the package defaults are required", !expected[i].startsWith("com/example/") || !expected[i].endsWith("-defaults.properties"), configurationSource.isOptional());
+      i++;
+    }
+    assertEquals(expected.length, i);
+
+    internalProperties.setProperty(InternalConfigurationConstants.SYSTEM_PROPERTIES_OVERRIDE_PROPERTY_NAME, "enabled");
+    ConfigurationSource first = configurationBuilder.getConfigurationSources().get(0);
+    assertTrue("System properties come first", first.getFileName() == null);
+    assertFalse(first.isOptional());
+  }
+
+  @Test
+  public void testParallelSourceLoading() {
+    String packageDirectory = "com/verymuchme/appconfig/test/internalOnly/case2/";
+    List<ConfigurationSource> configurationSources = new ArrayList<ConfigurationSource>();
+    configurationSources.add(new ConfigurationSource(packageDirectory + "missing-test.properties", true));
+    configurationSources.add(new ConfigurationSource(packageDirectory + "application-test.properties", true));
+    configurationSources.add(new ConfigurationSource(packageDirectory + "application-defaults.properties", false));
+    configurationSources.add(new ConfigurationSource(packageDirectory + "database-test.properties", true));
+    configurationSources.add(new ConfigurationSource(packageDirectory + "database-defaults.properties", false));
+
+    List<AbstractConfiguration> sequential = ConfigurationSourceLoader.load(configurationSources);
+    List<AbstractConfiguration> parallel = ConfigurationSourceLoader.loadParallel(configurationSources, ConfigurationTimings.NOT_RECORDED);
+    assertEquals("Missing optional source left out", 4, parallel.size());
+    for (int i = 0; i < sequential.size(); i++) {
+      assertEquals("Loaded in source order", ((PropertiesConfiguration) sequential.get(i)).getFileName(), ((PropertiesConfiguration) parallel.get(i)).getFileName());
+    }
+
+    configurationSources.add(new ConfigurationSource(packageDirectory + "missing-defaults.properties", false));
+    try {
+      ConfigurationSourceLoader.loadParallel(configurationSources, ConfigurationTimings.NOT_RECORDED);
+      fail("Missing required source should fail the load");
+    }
+    catch (AppConfigException e) {
+      assertTrue(e.getMessage().contains("missing-defaults.properties"));
+    }
+  }
+
+  @Test
+  public void testWorkerAllocationsCountTowardsRunningPhases() throws Exception {
+    final ConfigurationTimings timings = new ConfigurationTimings("test");
+    ConfigurationTimings.Phase phase = timings.start(ConfigurationTimings.SOURCE_LOAD);
+    final byte[][] allocated = new byte[1][];
+    Thread worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        ConfigurationTimings.WorkerTask task = timings.startWorkerTask();
+        allocated[0] = new byte[4 * 1024 * 1024];
+        task.stop();
+      }
+    });
+    worker.start();
+    worker.join();
+    phase.stop();
+    if (phase.getAllocatedBytes() >= 0) {
+      assertTrue(String.format("Worker allocations missing - %d bytes", phase.getAllocatedBytes()), phase.getAllocatedBytes() >= allocated[0].length);
+    }
+  }
+
+  @Test
+  public void testDirectParsingIntoSnapshot() throws Exception {
+    logger.trace("ConfigurationBuilderDirectTest.testDirectParsingIntoSnapshot start");
+
+    File tempDir = File.createTempFile("tmpdir", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    File applicationFile = new File(tempDir, "application-test.properties");
+    try {
+      writeFile(applicationFile, "app.test.value.1 = external\napp.test.reference = ${db.test.value.1}\napp.test.list = a, b\\,c, \\\n  d\napp.test.missing = ${no.such.key}");
+
+      String packageName = "com.verymuchme.appconfig.test.internalOnly.case2";
+      Options snapshotOptions = new Options();
+      snapshotOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME,"true");
+      TreeMap<String,Object> loadedValues = configurationValues(configure(packageName, tempDir, DIRECT_BUILDER_CLASS_NAME, snapshotOptions));
+      snapshotOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME,"true");
+      Configuration parsedConfiguration = configure(packageName, tempDir, DIRECT_BUILDER_CLASS_NAME, snapshotOptions);
+      TreeMap<String,Object> parsedValues = configurationValues(parsedConfiguration);
+      loadedValues.remove(InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME);
+      parsedValues.remove(InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME);
+      assertEquals(loadedValues, parsedValues);
+      assertEquals("db_value1", parsedConfiguration.getString("app.test.reference"));
+      assertEquals("[a, b,c, d]", parsedConfiguration.getList("app.test.list").toString());
+    }
+    finally {
+      applicationFile.delete();
+      tempDir.delete();
+    }
+
+    logger.trace("ConfigurationBuilderDirectTest.testDirectParsingIntoSnapshot end");
+  }
+
+  @Test
+  public void testCompiledConfiguration() throws Exception {
+    logger.trace("ConfigurationBuilderDirectTest.testCompiledConfiguration start");
+
+    String packageName = "com.verymuchme.appconfig.test.internalOnly.case2";
+    File classesDirectory = new File(getClass().getResource("/com/verymuchme/appconfig/test/internalOnly/case2/application-defaults.properties").toURI()).getParentFile();
+    for (int i = 0; i < packageName.split("\\.").length; i++) {
+      classesDirectory = classesDirectory.getParentFile();
+    }
+    Options compileOptions = new Options();
+    compileOptions.setProperty(InternalConfigurationConstants.APPLICATION_PROPERTIES_PACKAGE_NAME_PROPERTY_NAME, packageName);
+    compileOptions.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME, RUNTIME_ENVIRONMENT);
+    // The build machine's settings don't take part - this prefix would name files that don't exist
+    File compiledFile = null;
+    System.setProperty(InternalConfigurationConstants.APPLICATION_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME, "build-machine");
+    try {
+      compiledFile = CompiledConfiguration.compile(compileOptions, classesDirectory);
+    }
+    finally {
+      System.clearProperty(InternalConfigurationConstants.APPLICATION_CONFIGURATION_NAME_PREFIX_PROPERTY_NAME);
+    }
+    File tempDir = File.createTempFile("tmpdir", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    File applicationFile = new File(tempDir, "application-defaults.properties");
+    try {
+      assertTrue(compiledFile.isFile());
+      CompiledConfiguration loaded = CompiledConfiguration.load("com/verymuchme/appconfig/test/internalOnly/case2", RUNTIME_ENVIRONMENT);
+      assertEquals("app_value1", loaded.getSource("com/verymuchme/appconfig/test/internalOnly/case2/application-test.properties").build().getString("app.test.value.1"));
+      writeFile(applicationFile, "app.test.value.1 = external defaults\napp.test.value.2 = external defaults\napp.test.reference = ${db.test.value.1}");
+
+      Options snapshotOptions = new Options();
+      snapshotOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME,"true");
+      snapshotOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME,"true");
+      TreeMap<String,Object> parsedValues = configurationValues(configure(packageName, tempDir, DIRECT_BUILDER_CLASS_NAME, snapshotOptions));
+      snapshotOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME,"false");
+      snapshotOptions.setProperty(InternalConfigurationConstants.COMPILED_CONFIGURATION_ENABLED_PROPERTY_NAME,"true");
+      Configuration compiledConfiguration = configure(packageName, tempDir, DIRECT_BUILDER_CLASS_NAME, snapshotOptions);
+      TreeMap<String,Object> compiledValues = configurationValues(compiledConfiguration);
+      for (String settingName : new String[] {InternalConfigurationConstants.SNAPSHOT_DIRECT_PARSING_ENABLED_PROPERTY_NAME, InternalConfigurationConstants.COMPILED_CONFIGURATION_ENABLED_PROPERTY_NAME}) {
+        parsedValues.remove(settingName);
+        compiledValues.remove(settingName);
+      }
+      assertEquals(parsedValues, compiledValues);
+      assertEquals("Packaged environment file still overrides external defaults", "app_value1", compiledConfiguration.getString("app.test.value.1"));
+      assertEquals("db_value1", compiledConfiguration.getString("app.test.reference"));
+    }
+    finally {
+      compiledFile.delete();
+      applicationFile.delete();
+      tempDir.delete();
+    }
+
+    compileOptions.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME, "staging");
+    try {
+      CompiledConfiguration.compile(compileOptions, classesDirectory);
+      fail("Only permitted run-time environments can be compiled");
+    }
+    catch (AppConfigException e) {
+      // Expected
+    }
+
+    logger.trace("ConfigurationBuilderDirectTest.testCompiledConfiguration end");
+  }
+
+  private Configuration configure(String packageName, File externalDirectory, String configurationBuilderClassName) {
+    return configure(packageName, externalDirectory, configurationBuilderClassName, new Options());
+  }
+
+  private Configuration configure(String packageName, File externalDirectory, String configurationBuilderClassName, Options runtimeOptions) {
+    runtimeOptions.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME,RUNTIME_ENVIRONMENT);
+    runtimeOptions.setProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME,INTERNAL_LOGGING_LEVEL);
+    if (configurationBuilderClassName != null) {
+      runtimeOptions.setProperty(InternalConfigurationConstants.DEFAULT_CONFIGURATION_BUILDER_CLASS_NAME_PROPERTY_NAME,configurationBuilderClassName);
+    }
+    AppConfig appConfig = new AppConfig();
+    appConfig.setApplicationPropertiesPackageName(packageName);
+    if (externalDirectory != null) {
+      appConfig.setExternalConfigurationDirectory(externalDirectory.getAbsolutePath());
+    }
+    appConfig.setOptions(runtimeOptions);
+    appConfig.configure();
+    return appConfig.getConfiguration();
+  }
+
+  private TreeMap<String,Object> configurationValues(Configuration configuration) {
+    TreeMap<String,Object> values = new TreeMap<String,Object>();
+    Iterator<String> keys = configuration.getKeys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      values.put(key, String.valueOf(configuration.getProperty(key)));
+    }
+    return values;
+  }
+
+  private void writeFile(File file, String contents) throws Exception {
+    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+    bw.write(contents + "\n");
+    bw.close();
+  }
+
+  /*
+   * Lazy initializer for test logger
+   */
+  private static void initializeTestLogger() {
+    if (!internalLoggingIntiialized) {
+      logger = new TestLogger();
+      logger.setLevelString(INTERNAL_LOGGING_LEVEL);
+      internalLoggingIntiialized = true;
+    }
+  }
+
+}
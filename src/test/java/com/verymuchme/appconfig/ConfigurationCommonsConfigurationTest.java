@@ -0,0 +1,147 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.NoSuchElementException;
+
+import org.apache.commons.configuration.CombinedConfiguration;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.SystemConfiguration;
+import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
+import org.junit.Test;
+
+public class ConfigurationCommonsConfigurationTest {
+
+  @Test
+  public void testMissingKeyFilter() {
+    PropertiesConfiguration source = new PropertiesConfiguration();
+    source.setProperty("pool.size", "8");
+    source.addProperty("pool.hosts", "a");
+    source.addProperty("pool.hosts", "b");
+    CombinedConfiguration combinedConfiguration = new CombinedConfiguration();
+    combinedConfiguration.addConfiguration(source);
+    ConfigurationCommonsConfiguration configuration = new ConfigurationCommonsConfiguration(combinedConfiguration, true);
+
+    assertTrue(configuration.containsKey("pool.size"));
+    assertEquals(8, configuration.getInt("pool.size"));
+    assertFalse(configuration.containsKey("pool.missing"));
+    assertNull(configuration.getProperty("pool.missing"));
+    assertNull(configuration.getString("pool.missing"));
+    assertEquals(0, configuration.getStringArray("pool.missing").length);
+    assertEquals(3, configuration.getInt("pool.missing", 3));
+    try {
+      configuration.getInt("pool.missing");
+      fail("Missing key should throw NoSuchElementException");
+    }
+    catch (NoSuchElementException e) {
+      // Expected
+    }
+    // Expression syntax bypasses the filter
+    assertEquals("b", configuration.getString("pool.hosts(1)"));
+
+    // Keys added later, including enough to outgrow the filter, are found
+    configuration.setProperty("pool.missing", "5");
+    assertEquals(5, configuration.getInt("pool.missing"));
+    for (int i = 0; i < 2000; i++) {
+      configuration.addProperty(String.format("generated.key.%d", i), Integer.toString(i));
+    }
+    for (int i = 0; i < 2000; i++) {
+      assertTrue(configuration.containsKey(String.format("generated.key.%d", i)));
+    }
+
+    configuration.clear();
+    assertFalse(configuration.containsKey("pool.size"));
+    configuration.setProperty("pool.size", "16");
+    assertEquals(16, configuration.getInt("pool.size"));
+  }
+
+  @Test
+  public void testSubsetFollowsParentChanges() {
+    PropertiesConfiguration source = new PropertiesConfiguration();
+    source.setProperty("db.port", "1");
+    CombinedConfiguration combinedConfiguration = new CombinedConfiguration();
+    combinedConfiguration.addConfiguration(source);
+    ConfigurationCommonsConfiguration configuration = new ConfigurationCommonsConfiguration(combinedConfiguration, true);
+
+    Configuration subset = configuration.subset("db");
+    assertEquals("1", subset.getString("port"));
+    assertSame("Unchanged configuration reuses the subset", subset, configuration.subset("db"));
+
+    configuration.setProperty("db.port", "2");
+    assertEquals("2", configuration.subset("db").getString("port"));
+    configuration.addProperty("db.host", "h");
+    assertEquals("h", configuration.subset("db").getString("host"));
+    configuration.clearProperty("db.port");
+    assertNull(configuration.subset("db").getString("port"));
+  }
+
+  @Test
+  public void testConcurrentWritersKeepTheFilterComplete() throws Exception {
+    CombinedConfiguration combinedConfiguration = new CombinedConfiguration();
+    combinedConfiguration.addConfiguration(new PropertiesConfiguration());
+    final ConfigurationCommonsConfiguration configuration = new ConfigurationCommonsConfiguration(combinedConfiguration, true);
+
+    // Enough keys per writer that the filter is rebuilt while the others are adding
+    Thread[] writers = new Thread[4];
+    for (int t = 0; t < writers.length; t++) {
+      final int writer = t;
+      writers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            configuration.setProperty(String.format("writer%d.key.%d", writer, i), "v");
+          }
+        }
+      });
+      writers[t].start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    for (int t = 0; t < writers.length; t++) {
+      for (int i = 0; i < 1000; i++) {
+        assertTrue(configuration.containsKey(String.format("writer%d.key.%d", t, i)));
+      }
+    }
+  }
+
+  @Test
+  public void testFilterOnlyForStaticSources() {
+    CombinedConfiguration combinedConfiguration = new CombinedConfiguration();
+    combinedConfiguration.addConfiguration(new PropertiesConfiguration());
+    CombinedConfiguration nested = new CombinedConfiguration();
+    nested.addConfiguration(new PropertiesConfiguration());
+    combinedConfiguration.addConfiguration(nested);
+    assertTrue(ConfigurationBuilderBase.hasOnlyStaticSources(combinedConfiguration));
+
+    PropertiesConfiguration reloading = new PropertiesConfiguration();
+    reloading.setReloadingStrategy(new FileChangedReloadingStrategy());
+    nested.addConfiguration(reloading);
+    assertFalse(ConfigurationBuilderBase.hasOnlyStaticSources(combinedConfiguration));
+
+    CombinedConfiguration withSystemProperties = new CombinedConfiguration();
+    withSystemProperties.addConfiguration(new SystemConfiguration());
+    withSystemProperties.addConfiguration(new PropertiesConfiguration());
+    assertFalse(ConfigurationBuilderBase.hasOnlyStaticSources(withSystemProperties));
+  }
+
+}
@@ -0,0 +1,336 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.configuration.ConversionException;
+import org.apache.commons.configuration.PropertyConverter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigurationSnapshotTest {
+
+  private static TestLogger logger = null;
+
+  private static final String RUNTIME_ENVIRONMENT = "test";
+  private static final String INTERNAL_LOGGING_LEVEL = "TRACE";
+  private static final String PACKAGE_NAME = "com.verymuchme.appconfig.test.internalOnly.case2";
+
+  private static boolean internalLoggingIntiialized = false;
+
+  private Options runtimeOptions = null;
+
+  public ConfigurationSnapshotTest() {
+    initializeTestLogger();
+  }
+
+  @Before
+  public void setOptions() {
+    runtimeOptions = new Options();
+    runtimeOptions.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME,RUNTIME_ENVIRONMENT);
+    runtimeOptions.setProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME,INTERNAL_LOGGING_LEVEL);
+  }
+
+  @Test
+  public void testSnapshotMatchesCommonsConfiguration() {
+    logger.trace("ConfigurationSnapshotTest.testSnapshotMatchesCommonsConfiguration start");
+
+    Configuration commonsConfiguration = configure(false);
+    Configuration snapshot = configure(true);
+    assertTrue("Snapshot enabled, so the configuration should be a ConfigurationSnapshot", snapshot instanceof ConfigurationSnapshot);
+
+    Iterator<String> keys = commonsConfiguration.getKeys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      if (key.equals(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME)) {
+        continue;
+      }
+      assertTrue(String.format("Snapshot should contain %s", key), snapshot.containsKey(key));
+      assertEquals(String.format("Snapshot list value for %s", key), commonsConfiguration.getList(key), snapshot.getList(key));
+      assertArrayEquals(String.format("Snapshot array value for %s", key), commonsConfiguration.getStringArray(key), snapshot.getStringArray(key));
+    }
+    assertEquals("app_value1", snapshot.getString("app.test.value.1"));
+    assertEquals("app_value2", snapshot.getString("app.test.value.2"));
+    assertEquals("db_value1", snapshot.getString("db.test.value.1"));
+    assertEquals("db_value2", snapshot.getString("db.test.value.2"));
+    assertEquals(RUNTIME_ENVIRONMENT, snapshot.getString(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME));
+    assertEquals(Arrays.asList("development","production","test"), snapshot.getProperty(InternalConfigurationConstants.PERMITTED_RUN_TIME_ENVIRONMENTS_PROPERTY_NAME));
+    assertFalse(snapshot.getBoolean(InternalConfigurationConstants.SYSTEM_PROPERTIES_OVERRIDE_PROPERTY_NAME));
+
+    logger.trace("ConfigurationSnapshotTest.testSnapshotMatchesCommonsConfiguration end");
+  }
+
+  @Test
+  public void testTypedValuesAndMissingKeys() {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    builder.setProperty("pool.size", "42");
+    builder.setProperty("pool.enabled", "yes");
+    builder.setProperty("pool.ratio", "0.75");
+    builder.setProperty("pool.name", "primary");
+    builder.addProperty("pool.hosts", "a");
+    builder.addProperty("pool.hosts", "b");
+    Configuration snapshot = builder.build();
+
+    assertEquals(42, snapshot.getInt("pool.size"));
+    assertEquals(42L, snapshot.getLong("pool.size"));
+    assertTrue(snapshot.getBoolean("pool.enabled"));
+    assertEquals(0.75d, snapshot.getDouble("pool.ratio"), 0.0d);
+    assertEquals(Arrays.asList("a","b"), snapshot.getList("pool.hosts"));
+    assertEquals("a", snapshot.getString("pool.hosts"));
+    assertEquals(7, snapshot.getInt("pool.missing", 7));
+    assertEquals(null, snapshot.getString("pool.missing"));
+    assertEquals(0, snapshot.getStringArray("pool.missing").length);
+
+    try {
+      snapshot.getInt("pool.missing");
+      fail("Missing key should throw NoSuchElementException");
+    }
+    catch (NoSuchElementException e) {
+      // Expected
+    }
+    try {
+      snapshot.getInt("pool.name");
+      fail("Unconvertible value should throw ConversionException");
+    }
+    catch (ConversionException e) {
+      // Expected
+    }
+    try {
+      snapshot.setProperty("pool.size", "1");
+      fail("Snapshot should be immutable");
+    }
+    catch (UnsupportedOperationException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testSharedListValues() {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    builder.setProperty("allow.list", ListValue.split(" a, b ,,c ", ',', true));
+    builder.setProperty("single", "x");
+    Configuration snapshot = builder.build();
+
+    List<Object> list = snapshot.getList("allow.list");
+    assertEquals(Arrays.asList("a", "b", "", "c"), list);
+    assertSame("List reads share the snapshot's list", list, snapshot.getList("allow.list"));
+    try {
+      list.add("d");
+      fail("Snapshot lists are immutable");
+    }
+    catch (UnsupportedOperationException e) {
+      // Expected
+    }
+    String[] array = snapshot.getStringArray("allow.list");
+    array[0] = "changed";
+    assertEquals("a", snapshot.getStringArray("allow.list")[0]);
+    assertEquals(Arrays.asList("x"), snapshot.getList("single"));
+    assertTrue(snapshot.getList("missing").isEmpty());
+
+    for (String value : new String[] {"", ",", "a,", ",a", " a , b ", "a\\,b,c", "a\\\\,b", "a\\"}) {
+      assertEquals(value, PropertyConverter.split(value, ',', true), ListValue.split(value, ',', true));
+      assertEquals(value, PropertyConverter.split(value, ',', false), ListValue.split(value, ',', false));
+    }
+    for (String value : new String[] {"", ",", "a,,", ",a", "a,b", "a;;b;;", "plain"}) {
+      for (String separator : new String[] {",", ";;", "[;]"}) {
+        List<String> expected = Arrays.asList(value.split(separator));
+        assertEquals(value, expected.isEmpty() ? null : expected, AppConfigUtils.getListValue(value, separator));
+      }
+    }
+  }
+
+  @Test
+  public void testPrefixIndexAndSubsets() {
+    String[][] entries = {
+        {"db", "main"}, {"db.host", "localhost"}, {"db.port", "5432"}, {"db.pool.size", "8"},
+        {"dbx.host", "other"}, {"db-backup.host", "backup"}, {"cache.size", "100"}};
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    ConfigurationCommonsConfiguration commonsConfiguration = new ConfigurationCommonsConfiguration();
+    for (String[] entry : entries) {
+      builder.setProperty(entry[0], entry[1]);
+      commonsConfiguration.setProperty(entry[0], entry[1]);
+    }
+    Configuration snapshot = builder.build();
+
+    for (String prefix : new String[] {"db", "db.pool", "dbx", "cache", "missing"}) {
+      assertEquals(String.format("Keys for prefix %s", prefix), keySet(commonsConfiguration.getKeys(prefix)), keySet(snapshot.getKeys(prefix)));
+      Configuration commonsSubset = commonsConfiguration.subset(prefix);
+      Configuration snapshotSubset = snapshot.subset(prefix);
+      assertSame("Subsets are cached", snapshotSubset, snapshot.subset(prefix));
+      assertSame("Subsets are cached", commonsSubset, commonsConfiguration.subset(prefix));
+      assertEquals(String.format("Subset keys for prefix %s", prefix), keySet(commonsSubset.getKeys()), keySet(snapshotSubset.getKeys()));
+      assertEquals(commonsSubset.isEmpty(), snapshotSubset.isEmpty());
+      Iterator<String> keys = commonsSubset.getKeys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        assertEquals(commonsSubset.getString(key), snapshotSubset.getString(key));
+      }
+    }
+
+    Configuration db = snapshot.subset("db");
+    assertEquals("main", db.getString(""));
+    assertEquals(5432, db.getInt("port"));
+    assertFalse(db.containsKey("x.host"));
+    assertEquals(keySet(Arrays.asList("pool.size").iterator()), keySet(db.getKeys("pool")));
+    assertEquals(8, db.subset("pool").getInt("size"));
+    assertSame("Nested subsets share the cache", snapshot.subset("db.pool"), db.subset("pool"));
+  }
+
+  @Test
+  public void testTypedValuesMatchPropertyConverter() {
+    String[] values = {"0", "-0", "+5", "007", "42", "-17", "2147483647", "2147483648", "-2147483648", "-2147483649",
+        "9223372036854775807", "9223372036854775808", "-9223372036854775808", "1.5", "1.", ".5", "-.5e-3", "1e3", "1E+3", "1e", "e3",
+        "0x10", " 5", "5 ", "NaN", "1d", "+", "-", ".", "true", "TRUE", "On", "yes", "Y", "t", "false", "OFF", "no", "n", "F", "tru", "1_0", "x"};
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    for (int i = 0; i < values.length; i++) {
+      builder.setProperty(String.format("value.%d", i), values[i]);
+    }
+    Configuration snapshot = builder.build();
+    for (int i = 0; i < values.length; i++) {
+      String key = String.format("value.%d", i);
+      String value = values[i];
+      Object expected;
+      try {
+        expected = PropertyConverter.toInteger(value);
+      }
+      catch (ConversionException e) {
+        expected = e.getClass();
+      }
+      assertEquals(String.format("int value of %s", value), expected, typedValue(snapshot, key, 'i'));
+      try {
+        expected = PropertyConverter.toLong(value);
+      }
+      catch (ConversionException e) {
+        expected = e.getClass();
+      }
+      assertEquals(String.format("long value of %s", value), expected, typedValue(snapshot, key, 'l'));
+      try {
+        expected = PropertyConverter.toDouble(value);
+      }
+      catch (ConversionException e) {
+        expected = e.getClass();
+      }
+      assertEquals(String.format("double value of %s", value), expected, typedValue(snapshot, key, 'd'));
+      try {
+        expected = PropertyConverter.toBoolean(value);
+      }
+      catch (ConversionException e) {
+        expected = e.getClass();
+      }
+      assertEquals(String.format("boolean value of %s", value), expected, typedValue(snapshot, key, 'b'));
+    }
+  }
+
+  @Test
+  public void testNonThrowingLookups() {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    ConfigurationCommonsConfiguration commonsConfiguration = new ConfigurationCommonsConfiguration();
+    String[][] entries = {{"size", "42"}, {"hex", "0x10"}, {"name", "primary"}, {"ratio", "0.5"}, {"enabled", "on"}, {"alias", "${size}"}};
+    for (String[] entry : entries) {
+      builder.setProperty(entry[0], entry[1]);
+      commonsConfiguration.setProperty(entry[0], entry[1]);
+    }
+    LookupResult result = new LookupResult();
+    for (Configuration configuration : new Configuration[] {builder.build(), commonsConfiguration}) {
+      assertTrue(configuration.tryGetInt("size", result));
+      assertEquals(42, result.getInt());
+      assertTrue(configuration.tryGetLong("hex", result));
+      assertEquals(16L, result.getLong());
+      assertFalse(configuration.tryGetInt("missing", result));
+      assertEquals(LookupResult.Status.MISSING, result.getStatus());
+      assertFalse(configuration.tryGetInt("name", result));
+      assertEquals(LookupResult.Status.NOT_CONVERTIBLE, result.getStatus());
+      assertFalse(configuration.tryGetBoolean("size", result));
+      assertEquals(LookupResult.Status.NOT_CONVERTIBLE, result.getStatus());
+
+      assertEquals(42, configuration.getIntOrDefault("size", 7));
+      assertEquals(7, configuration.getIntOrDefault("name", 7));
+      assertEquals(7L, configuration.getLongOrDefault("missing", 7L));
+      assertEquals(0.5d, configuration.getDoubleOrDefault("ratio", 1d), 0.0d);
+      assertEquals(1d, configuration.getDoubleOrDefault("name", 1d), 0.0d);
+      assertTrue(configuration.getBooleanOrDefault("enabled", false));
+      assertTrue(configuration.getBooleanOrDefault("name", true));
+    }
+    // Commons values are interpolated on lookup, like its typed getters do
+    assertTrue(commonsConfiguration.tryGetInt("alias", result));
+    assertEquals(42, result.getInt());
+  }
+
+  /*
+   * Typed value through the primitive getter, or the class of the exception thrown
+   */
+  private Object typedValue(Configuration configuration, String key, char type) {
+    try {
+      switch (type) {
+        case 'i':
+          return configuration.getInt(key);
+        case 'l':
+          return configuration.getLong(key);
+        case 'd':
+          return configuration.getDouble(key);
+        default:
+          return configuration.getBoolean(key);
+      }
+    }
+    catch (ConversionException e) {
+      return e.getClass();
+    }
+  }
+
+  private Set<String> keySet(Iterator<String> keys) {
+    Set<String> keySet = new TreeSet<String>();
+    while (keys.hasNext()) {
+      keySet.add(keys.next());
+    }
+    return keySet;
+  }
+
+  /*
+   * Configure AppConfig against the internal test package
+   */
+  private Configuration configure(boolean snapshotEnabled) {
+    this.runtimeOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME, snapshotEnabled ? "true" : "false");
+    AppConfig appConfig = new AppConfig();
+    appConfig.setApplicationPropertiesPackageName(PACKAGE_NAME);
+    appConfig.setOptions(this.runtimeOptions);
+    appConfig.configure();
+    return ((ReloadableConfiguration) appConfig.getConfiguration()).current();
+  }
+
+  /*
+   * Lazy initializer for test logger
+   */
+  private static void initializeTestLogger() {
+    if (!internalLoggingIntiialized) {
+      logger = new TestLogger();
+      logger.setLevelString(INTERNAL_LOGGING_LEVEL);
+      internalLoggingIntiialized = true;
+    }
+  }
+
+}
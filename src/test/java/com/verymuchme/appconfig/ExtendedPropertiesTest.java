@@ -0,0 +1,127 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ExtendedPropertiesTest {
+
+  @Test
+  public void testValuesAreClassified() {
+    ExtendedProperties properties = new ExtendedProperties();
+    properties.setProperty("a.string", "value");
+    properties.setProperty("a.null", "NuLL");
+    properties.setProperty("an.empty", "");
+    properties.setProperty("a.true", "TRUE");
+    properties.setProperty("a.false", "false");
+    properties.setProperty("a.list", "x,y,z");
+    properties.setProperty("not.a.boolean", "trues");
+    properties.put("an.object", Integer.valueOf(3));
+
+    assertEquals("value", properties.getProperty("a.string"));
+    assertNull(properties.getProperty("a.null"));
+    assertNull(properties.get("an.empty"));
+    assertTrue(properties.getBooleanProperty("a.true"));
+    assertFalse(properties.getBooleanProperty("a.false"));
+    assertNull("Booleans aren't strings", properties.getProperty("a.true"));
+    assertEquals(Arrays.asList("x", "y", "z"), properties.getListProperty("a.list"));
+    assertNull(properties.getProperty("a.list"));
+    assertEquals("trues", properties.getProperty("not.a.boolean"));
+    assertEquals(Integer.valueOf(3), properties.get("an.object"));
+    assertNull(properties.get("missing"));
+
+    ExtendedPropertiesEntry entry = properties.convertToEntry("a.list", "x,y");
+    assertEquals(ExtendedPropertiesEntry.TYPE_ARRAY_LIST_STRING, entry.getTargetType());
+    assertEquals(ExtendedPropertiesEntry.TYPE_OBJECT, properties.convertObjectToEntry("nothing", null).getTargetType());
+  }
+
+  @Test
+  public void testTableGrowsAndCopiesAreIndependent() {
+    ExtendedProperties properties = new ExtendedProperties();
+    for (int i = 0; i < 500; i++) {
+      properties.setProperty("key." + i, "value" + i);
+    }
+    properties.setProperty("key.7", "replaced");
+    properties.setProperty("a.list", "x,y");
+    Set<String> names = new HashSet<String>();
+    Iterator<String> propertyNames = properties.propertyNames();
+    while (propertyNames.hasNext()) {
+      names.add(propertyNames.next());
+    }
+    assertEquals(501, names.size());
+    assertEquals("value499", properties.getProperty("key.499"));
+    assertEquals("replaced", properties.getProperty("key.7"));
+
+    ExtendedProperties copy = properties.copy();
+    copy.setProperty("key.1", "changed");
+    ArrayList<String> copiedList = copy.getListProperty("a.list");
+    copiedList.add("z");
+    assertEquals("value1", properties.getProperty("key.1"));
+    assertEquals(2, properties.getListProperty("a.list").size());
+    assertEquals("value2", copy.getProperty("key.2"));
+  }
+
+  @Test
+  public void testTypedGetters() {
+    ExtendedProperties properties = new ExtendedProperties();
+    properties.setProperty("an.int", " 42 ");
+    properties.setProperty("a.long", "8000000000");
+    properties.setProperty("a.word", "lots");
+    properties.setProperty("plain.millis", "250");
+    properties.setProperty("seconds", "2s");
+    properties.setProperty("minutes", "5 m");
+    properties.setProperty("bad.unit", "3 weeks");
+
+    assertEquals(42, properties.getIntProperty("an.int", 1));
+    assertEquals(1, properties.getIntProperty("a.long", 1));
+    assertEquals(1, properties.getIntProperty("a.word", 1));
+    assertEquals(1, properties.getIntProperty("missing", 1));
+    assertEquals(8000000000L, properties.getLongProperty("a.long", 1L));
+    assertEquals(250L, properties.getDurationProperty("plain.millis", 1L));
+    assertEquals(2000L, properties.getDurationProperty("seconds", 1L));
+    assertEquals(300000L, properties.getDurationProperty("minutes", 1L));
+    assertEquals(1L, properties.getDurationProperty("bad.unit", 1L));
+    assertEquals(1L, properties.getDurationProperty("missing", 1L));
+  }
+
+  @Test
+  public void testEmptyValuesFromPropertiesStayEmpty() {
+    Properties loaded = new Properties();
+    loaded.setProperty("an.empty", "");
+    loaded.setProperty("a.null", "null");
+    ExtendedProperties properties = new ExtendedProperties();
+    properties.loadStringProperties(loaded);
+    assertEquals("", properties.getProperty("an.empty"));
+    assertNull(properties.getProperty("a.null"));
+    assertEquals("", properties.convertToEntry("an.empty", "").getEntryValue());
+    assertNull(properties.convertObjectToEntry("an.empty", "").getEntryValue());
+
+    properties.setProperty("an.empty", "");
+    assertNull("Setting an empty value clears it", properties.get("an.empty"));
+  }
+
+}
@@ -0,0 +1,121 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Test;
+
+public class ExternalConfigurationWatcherTest {
+
+  private static TestLogger logger = null;
+
+  private static final String RUNTIME_ENVIRONMENT = "test";
+  private static final String INTERNAL_LOGGING_LEVEL = "TRACE";
+  private static final String PACKAGE_NAME = "com.verymuchme.appconfig.test.internalOnly.case2";
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private static boolean internalLoggingIntiialized = false;
+
+  public ExternalConfigurationWatcherTest() {
+    initializeTestLogger();
+  }
+
+  @Test
+  public void testChangedFileIsReloaded() throws Exception {
+    logger.trace("ExternalConfigurationWatcherTest.testChangedFileIsReloaded start");
+
+    File tempDir = File.createTempFile("tmpdir", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    File applicationFile = new File(tempDir, "application-test.properties");
+    AppConfig appConfig = null;
+    try {
+      writeFile(applicationFile, "app.test.value.1 = before");
+
+      Options runtimeOptions = new Options();
+      runtimeOptions.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME,RUNTIME_ENVIRONMENT);
+      runtimeOptions.setProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME,INTERNAL_LOGGING_LEVEL);
+      runtimeOptions.setProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_WATCH_ENABLED_PROPERTY_NAME,"true");
+      runtimeOptions.setProperty(InternalConfigurationConstants.EXTERNAL_CONFIGURATION_WATCH_QUIET_PERIOD_PROPERTY_NAME,"100");
+      appConfig = new AppConfig();
+      appConfig.setApplicationPropertiesPackageName(PACKAGE_NAME);
+      appConfig.setExternalConfigurationDirectory(tempDir.getAbsolutePath());
+      appConfig.setOptions(runtimeOptions);
+      appConfig.configure();
+
+      Configuration configuration = appConfig.getConfiguration();
+      ExternalConfigurationWatcher watcher = appConfig.getExternalConfigurationWatcher();
+      assertNotNull("Watching enabled, so a watcher should be running", watcher);
+      assertEquals("before", configuration.getString("app.test.value.1"));
+
+      // A burst of writes ends up as one reload
+      writeFile(applicationFile, "app.test.value.1 = during");
+      writeFile(applicationFile, "app.test.value.1 = after");
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while ((!"after".equals(configuration.getString("app.test.value.1")) || watcher.getReloadCount() == 0) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      assertEquals("after", configuration.getString("app.test.value.1"));
+      assertEquals(1, watcher.getReloadCount());
+
+      // Rewriting identical contents doesn't rebuild
+      writeFile(applicationFile, "app.test.value.1 = after");
+      Thread.sleep(500);
+      assertEquals(1, watcher.getReloadCount());
+
+      // A writer that never goes quiet for a whole quiet period still gets reloaded
+      long stopWriting = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      int write = 0;
+      while (watcher.getReloadCount() == 1 && System.currentTimeMillis() < stopWriting) {
+        writeFile(applicationFile, "app.test.value.1 = busy" + write++);
+        Thread.sleep(20);
+      }
+      assertEquals(2, watcher.getReloadCount());
+    }
+    finally {
+      if (appConfig != null) {
+        appConfig.shutdown();
+      }
+      applicationFile.delete();
+      tempDir.delete();
+    }
+
+    logger.trace("ExternalConfigurationWatcherTest.testChangedFileIsReloaded end");
+  }
+
+  private void writeFile(File file, String contents) throws Exception {
+    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+    bw.write(contents + "\n");
+    bw.close();
+  }
+
+  /*
+   * Lazy initializer for test logger
+   */
+  private static void initializeTestLogger() {
+    if (!internalLoggingIntiialized) {
+      logger = new TestLogger();
+      logger.setLevelString(INTERNAL_LOGGING_LEVEL);
+      internalLoggingIntiialized = true;
+    }
+  }
+
+}
@@ -14,6 +14,8 @@
  */
 package com.verymuchme.appconfig;
 
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
@@ -24,6 +26,8 @@ import org.junit.Test;
 
 import org.apache.commons.configuration.DefaultConfigurationBuilder;
 
+import freemarker.template.Template;
+
 public class FreemarkerHandlerTest {
 
   private static TestLogger logger = null;
@@ -76,6 +80,16 @@ public class FreemarkerHandlerTest {
     }
   }
   
+  @Test
+  public void testTemplatesSharedAcrossHandlers() {
+    String testTemplateName = "test-configuration-xml.ftl";
+    Template template = new FreemarkerHandler(FreemarkerHandlerTest.class).findTemplate(testTemplateName);
+    assertSame("Handlers with the same base class share compiled templates", template, new FreemarkerHandler(FreemarkerHandlerTest.class).findTemplate(testTemplateName));
+
+    FreemarkerHandler.clearTemplateCache(FreemarkerHandlerTest.class);
+    assertNotSame(template, new FreemarkerHandler(FreemarkerHandlerTest.class).findTemplate(testTemplateName));
+  }
+
   /*
    * Lazy initializer for test logger
    */
@@ -0,0 +1,135 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import org.junit.Test;
+
+public class PropertiesFileParserTest {
+
+  private static final String TRICKY_PROPERTIES = 
+      "# comment\n" +
+      "! bang comment\n" +
+      "plain = value\n" +
+      "  spaces   :   colon value   \r\n" +
+      "ws.sep value with spaces\r" +
+      "key\\ with\\ spaces = escaped key\n" +
+      "key\\=eq=v\n" +
+      "list = a, b ,c\n" +
+      "escaped.list = a\\,b, c\n" +
+      "leading.comma = ,a,b\n" +
+      "backslash.list = a\\\\,b\n" +
+      "continued = first \\\n" +
+      "    second \\\n" +
+      "# comment in continuation\n" +
+      "    third\n" +
+      "even.backslashes = ends with\\\\\n" +
+      "unicode = caf\\u00e9 \\u0041\n" +
+      "escapes = tab\\there\\nnewline \\\"q\\\" \\'s\\' \\z\n" +
+      "trailing.slash = value\\ \n" +
+      "swallowed = by the continuation\n" +
+      "empty =\n" +
+      "empty.colon:\n" +
+      "just.key\n" +
+      "=novalue\n" +
+      "dup = one\n" +
+      "dup = two\n" +
+      "latin = caf\u00e9\n" +
+      "incomplete.unicode = ab\\u00\n" +
+      "tab\\tkey = t\n" +
+      "include = included.properties\n" +
+      "after.include = ${included.value}\n" +
+      "dangling = continued at end of file \\";
+
+  @Test
+  public void testSameAsPropertiesConfiguration() throws Exception {
+    File tempDir = File.createTempFile("tmpdir", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    File propertiesFile = new File(tempDir, "tricky.properties");
+    File includedFile = new File(tempDir, "included.properties");
+    try {
+      writeFile(propertiesFile, TRICKY_PROPERTIES);
+      writeFile(includedFile, "included.value = inc\nincluded.list = x,y\ndup = three");
+      assertParsedAsPropertiesConfiguration(propertiesFile);
+
+      ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+      new PropertiesFileParser().parse(propertiesFile.toURI().toURL(), builder);
+      ConfigurationSnapshot snapshot = builder.interpolate().build();
+      assertEquals("first second third", snapshot.getString("continued"));
+      assertEquals("caf\u00e9 A", snapshot.getString("unicode"));
+      assertEquals("inc", snapshot.getString("after.include"));
+    }
+    finally {
+      propertiesFile.delete();
+      includedFile.delete();
+      tempDir.delete();
+    }
+  }
+
+  @Test
+  public void testLargeFileIsMapped() throws Exception {
+    File propertiesFile = File.createTempFile("large", ".properties");
+    try {
+      StringBuilder contents = new StringBuilder();
+      for (int i = 0; contents.length() < PropertiesFileParser.MAP_THRESHOLD * 2; i++) {
+        contents.append(String.format("generated.key.%d = value %d, list %d \\\n  continued\n", i, i, i));
+      }
+      writeFile(propertiesFile, contents.toString());
+      assertTrue(PropertiesFileParser.read(propertiesFile.toURI().toURL()).isDirect());
+      assertParsedAsPropertiesConfiguration(propertiesFile);
+    }
+    finally {
+      propertiesFile.delete();
+    }
+  }
+
+  private void assertParsedAsPropertiesConfiguration(File propertiesFile) throws Exception {
+    PropertiesConfiguration propertiesConfiguration = new PropertiesConfiguration(propertiesFile);
+    TreeMap<String,String> expected = new TreeMap<String,String>();
+    Iterator<String> keys = propertiesConfiguration.getKeys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      expected.put(key, String.valueOf(propertiesConfiguration.getProperty(key)));
+    }
+
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    new PropertiesFileParser().parse(propertiesFile.toURI().toURL(), builder);
+    ConfigurationSnapshot snapshot = builder.build();
+    TreeMap<String,String> actual = new TreeMap<String,String>();
+    keys = snapshot.getKeys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      actual.put(key, String.valueOf(snapshot.getProperty(key)));
+    }
+    assertEquals(expected, actual);
+  }
+
+  private void writeFile(File file, String contents) throws Exception {
+    FileOutputStream os = new FileOutputStream(file);
+    os.write(contents.getBytes("ISO-8859-1"));
+    os.close();
+  }
+
+}
@@ -0,0 +1,315 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.invoke.MethodHandle;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.ConversionException;
+import org.junit.Test;
+
+public class ReloadableConfigurationTest {
+
+  private static TestLogger logger = null;
+
+  private static final String RUNTIME_ENVIRONMENT = "test";
+  private static final String INTERNAL_LOGGING_LEVEL = "TRACE";
+  private static final String PACKAGE_NAME = "com.verymuchme.appconfig.test.internalOnly.case2";
+
+  private static final int READER_THREADS = 2;
+  private static final long MEASUREMENT_MILLIS = 500;
+
+  private static boolean internalLoggingIntiialized = false;
+
+  public ReloadableConfigurationTest() {
+    initializeTestLogger();
+  }
+
+  @Test
+  public void testReloadPublishesExternalChanges() throws Exception {
+    logger.trace("ReloadableConfigurationTest.testReloadPublishesExternalChanges start");
+
+    File tempDir = File.createTempFile("tmpdir", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    File applicationFile = new File(tempDir, "application-test.properties");
+    try {
+      writeFile(applicationFile, "app.test.value.1 = before");
+
+      Options runtimeOptions = new Options();
+      runtimeOptions.setProperty(InternalConfigurationConstants.RUN_TIME_ENVIRONMENT_PROPERTY_NAME,RUNTIME_ENVIRONMENT);
+      runtimeOptions.setProperty(InternalConfigurationConstants.DEFAULT_LOGGING_LEVEL_PROPERTY_NAME,INTERNAL_LOGGING_LEVEL);
+      runtimeOptions.setProperty(InternalConfigurationConstants.SNAPSHOT_ENABLED_PROPERTY_NAME,"true");
+      AppConfig appConfig = new AppConfig();
+      appConfig.setApplicationPropertiesPackageName(PACKAGE_NAME);
+      appConfig.setExternalConfigurationDirectory(tempDir.getAbsolutePath());
+      appConfig.setOptions(runtimeOptions);
+      appConfig.configure();
+
+      Configuration configuration = appConfig.getConfiguration();
+      assertEquals("before", configuration.getString("app.test.value.1"));
+
+      writeFile(applicationFile, "app.test.value.1 = after");
+      appConfig.reload();
+
+      assertSame("The configuration object handed out is stable across reloads", configuration, appConfig.getConfiguration());
+      assertEquals("after", configuration.getString("app.test.value.1"));
+      assertEquals("Values from other sources survive the reload", "db_value1", configuration.getString("db.test.value.1"));
+
+      ConfigurationTimings configureTimings = appConfig.getConfigurationTimings();
+      assertEquals("configure", configureTimings.getOperation());
+      for (String phaseName : new String[] {ConfigurationTimings.LOAD_INTERNAL_PROPERTIES, ConfigurationTimings.BUILD_CONFIGURATION, ConfigurationTimings.TEMPLATE_RENDER, ConfigurationTimings.SNAPSHOT, ConfigurationTimings.APPLICATION_LOGGING}) {
+        assertNotNull(phaseName, configureTimings.getPhase(phaseName));
+        assertTrue(phaseName, configureTimings.getPhase(phaseName).isComplete());
+      }
+      ConfigurationTimings reloadTimings = appConfig.getReloadTimings();
+      assertEquals("reload", reloadTimings.getOperation());
+      assertTrue(reloadTimings.getPhase(ConfigurationTimings.SOURCE_LOAD).isComplete());
+      assertTrue(reloadTimings.getTotalWallTimeNanos() >= reloadTimings.getPhase(ConfigurationTimings.SOURCE_LOAD).getWallTimeNanos());
+    }
+    finally {
+      applicationFile.delete();
+      tempDir.delete();
+    }
+
+    logger.trace("ReloadableConfigurationTest.testReloadPublishesExternalChanges end");
+  }
+
+  @Test
+  public void testReadsStayConsistentDuringContinuousReloads() throws Exception {
+    logger.trace("ReloadableConfigurationTest.testReadsStayConsistentDuringContinuousReloads start");
+
+    final ConfigurationSnapshot[] generations = new ConfigurationSnapshot[16];
+    for (int i = 0; i < generations.length; i++) {
+      ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+      for (int j = 0; j < 200; j++) {
+        builder.setProperty(String.format("filler.key.%d", j), String.format("value%d", j));
+      }
+      builder.setProperty("generation.first", Integer.toString(i));
+      builder.setProperty("generation.second", Integer.toString(i));
+      generations[i] = builder.build();
+    }
+    final ReloadableConfiguration configuration = new ReloadableConfiguration(generations[0]);
+
+    final AtomicLong reloads = new AtomicLong();
+    Runnable reloader = new Runnable() {
+      @Override
+      public void run() {
+        int generation = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+          generation = (generation + 1) % generations.length;
+          configuration.publish(generations[generation]);
+          reloads.incrementAndGet();
+          Thread.yield();
+        }
+      }
+    };
+    // Throughput is compared in ReloadBenchmark - here the readers only check they never see a mixed configuration
+    long reads = measureReads(configuration, reloader, MEASUREMENT_MILLIS);
+
+    logger.trace(String.format("ReloadableConfigurationTest.testReadsStayConsistentDuringContinuousReloads %d reads during %d reloads", reads, reloads.get()));
+    assertTrue("Reloads should have happened during the measurement", reloads.get() > 0);
+
+    logger.trace("ReloadableConfigurationTest.testReadsStayConsistentDuringContinuousReloads end");
+  }
+
+  @Test
+  public void testHandlesFollowConfigurationVersions() {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    builder.setProperty("pool.size", "8");
+    builder.setProperty("pool.enabled", "true");
+    ReloadableConfiguration configuration = new ReloadableConfiguration(builder.build());
+
+    IntHandle poolSize = configuration.intHandle("pool.size");
+    IntHandle poolMax = configuration.intHandle("pool.max", 64);
+    BooleanHandle poolEnabled = configuration.booleanHandle("pool.enabled");
+    assertEquals(8, poolSize.get());
+    assertEquals(64, poolMax.get());
+    assertTrue(poolEnabled.get());
+
+    long version = configuration.getVersion();
+    builder.setProperty("pool.size", "16");
+    builder.setProperty("pool.max", "32");
+    configuration.publish(builder.build());
+    assertTrue("Publishing changes the version", version != configuration.getVersion());
+    assertEquals(16, poolSize.get());
+    assertEquals(32, poolMax.get());
+
+    // Mutable configurations change version on every modification
+    ConfigurationCommonsConfiguration commonsConfiguration = new ConfigurationCommonsConfiguration();
+    LongHandle timeout = commonsConfiguration.longHandle("timeout", 5L);
+    assertEquals(5L, timeout.get());
+    commonsConfiguration.setProperty("timeout", "30");
+    assertEquals(30L, timeout.get());
+    try {
+      commonsConfiguration.intHandle("missing").get();
+      fail("Missing key without default should throw NoSuchElementException");
+    }
+    catch (NoSuchElementException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testConstantsFollowPublishedValues() throws Throwable {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    builder.setProperty("feature.enabled", "false");
+    builder.setProperty("buffer.size", "4096");
+    ReloadableConfiguration configuration = new ReloadableConfiguration(builder.build());
+
+    BooleanConstant featureEnabled = configuration.booleanConstant("feature.enabled", true);
+    IntConstant bufferSize = configuration.intConstant("buffer.size", 1024);
+    IntConstant missing = configuration.intConstant("buffer.missing", 16);
+    MethodHandle bufferSizeInvoker = bufferSize.invoker();
+    assertFalse(featureEnabled.get());
+    assertEquals(4096, (int) bufferSizeInvoker.invokeExact());
+    assertEquals(16, missing.get());
+    assertSame("Asking again returns the registered constant", bufferSize, configuration.intConstant("buffer.size", 1024));
+    assertSame(featureEnabled, configuration.booleanConstant("feature.enabled", true));
+    assertFalse("A different default is a different constant", bufferSize == configuration.intConstant("buffer.size", 512));
+
+    builder.setProperty("feature.enabled", "true");
+    configuration.publish(builder.build());
+    assertTrue(featureEnabled.get());
+    assertSame("Unchanged values keep their call site target", bufferSizeInvoker, bufferSize.invoker());
+    assertEquals(4096, (int) bufferSizeInvoker.invokeExact());
+
+    // Unconvertible values fall back to the default rather than failing the reload
+    builder.setProperty("buffer.size", "large");
+    configuration.publish(builder.build());
+    assertEquals(1024, bufferSize.get());
+  }
+
+  @Test
+  public void testPrimitiveArraysFollowConfigurationVersions() {
+    ConfigurationSnapshotBuilder builder = new ConfigurationSnapshotBuilder();
+    builder.setProperty("ports", ListValue.split("8080, 8081,8082", ',', true));
+    builder.setProperty("backoff", ListValue.split("100,2000,30000000000", ',', true));
+    builder.setProperty("buckets", ListValue.split("0.5,1,2.5", ',', true));
+    builder.setProperty("single", "7");
+    builder.setProperty("words", ListValue.split("1,two", ',', true));
+    ReloadableConfiguration configuration = new ReloadableConfiguration(builder.build());
+
+    ReadOnlyIntArray ports = configuration.getIntArray("ports");
+    assertArrayEquals(new int[] {8080, 8081, 8082}, ports.toArray());
+    assertSame("Arrays are converted once per version", ports, configuration.getIntArray("ports"));
+    assertArrayEquals(new long[] {100L, 2000L, 30000000000L}, configuration.getLongArray("backoff").toArray());
+    assertArrayEquals(new double[] {0.5d, 1d, 2.5d}, configuration.getDoubleArray("buckets").toArray(), 0d);
+    assertEquals(7, configuration.getIntArray("single").get(0));
+    assertTrue(configuration.getIntArray("missing").isEmpty());
+    assertSame("Missing keys share one empty array", configuration.getIntArray("missing"), configuration.getIntArray("other.missing"));
+    assertEquals("[8080, 8081, 8082]", ports.toString());
+    assertEquals(new ReadOnlyIntArray(new int[] {8080, 8081, 8082}), ports);
+    try {
+      configuration.getIntArray("words");
+      fail("Unconvertible element should throw ConversionException");
+    }
+    catch (ConversionException e) {
+      // Expected
+    }
+
+    builder.setProperty("ports", ListValue.split("9090", ',', true));
+    configuration.publish(builder.build());
+    assertArrayEquals(new int[] {9090}, configuration.getIntArray("ports").toArray());
+    assertArrayEquals("Earlier arrays are unchanged", new int[] {8080, 8081, 8082}, ports.toArray());
+
+    ConfigurationCommonsConfiguration commonsConfiguration = new ConfigurationCommonsConfiguration();
+    commonsConfiguration.setProperty("ports", "1,2");
+    ReadOnlyIntArray commonsPorts = commonsConfiguration.getIntArray("ports");
+    assertEquals(2, commonsPorts.length());
+    assertSame(commonsPorts, commonsConfiguration.getIntArray("ports"));
+    commonsConfiguration.setProperty("ports", "3");
+    assertArrayEquals(new int[] {3}, commonsConfiguration.getIntArray("ports").toArray());
+  }
+
+  /*
+   * Run reader threads (and optionally a reloader) for the given time. Returns the number of reads completed.
+   * Every reader checks that the two generation keys of a pinned configuration always agree
+   */
+  private long measureReads(final ReloadableConfiguration configuration, Runnable reloader, long millis) throws Exception {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong reads = new AtomicLong();
+    final AtomicBoolean inconsistent = new AtomicBoolean(false);
+    Thread[] readers = new Thread[READER_THREADS];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          while (running.get()) {
+            Configuration pinned = configuration.current();
+            if (pinned.getString("generation.first") != pinned.getString("generation.second")
+                && !pinned.getString("generation.first").equals(pinned.getString("generation.second"))) {
+              inconsistent.set(true);
+            }
+            configuration.getString("filler.key.17");
+            configuration.containsKey("filler.key.missing");
+            count += 3;
+          }
+          reads.addAndGet(count);
+        }
+      });
+    }
+    Thread reloaderThread = reloader == null ? null : new Thread(reloader);
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    if (reloaderThread != null) {
+      reloaderThread.start();
+    }
+    Thread.sleep(millis);
+    running.set(false);
+    if (reloaderThread != null) {
+      reloaderThread.interrupt();
+      reloaderThread.join();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertTrue("Readers must never see a partially published configuration", !inconsistent.get());
+    return reads.get();
+  }
+
+  private void writeFile(File file, String contents) throws Exception {
+    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+    bw.write(contents + "\n");
+    bw.close();
+  }
+
+  /*
+   * Lazy initializer for test logger
+   */
+  private static void initializeTestLogger() {
+    if (!internalLoggingIntiialized) {
+      logger = new TestLogger();
+      logger.setLevelString(INTERNAL_LOGGING_LEVEL);
+      internalLoggingIntiialized = true;
+    }
+  }
+
+}
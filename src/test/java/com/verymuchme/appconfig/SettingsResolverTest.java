@@ -0,0 +1,85 @@
+/* Copyright 2009-2013 Tracy Flynn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.verymuchme.appconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+public class SettingsResolverTest {
+
+  @Test
+  public void testRelaxedEnvironmentNames() {
+    HashMap<String,String> variables = new HashMap<String,String>();
+    variables.put("COM_VERYMUCHME_APPCONFIG_RUNTIMEENVIRONMENT", "production");
+    variables.put("com.verymuchme.appconfig.defaultLoggingLevel", "WARN");
+    variables.put("COM_VERYMUCHME_APPCONFIG_DEFAULTLOGGINGLEVEL", "ERROR");
+    variables.put("PATH", "/usr/bin");
+    SettingsResolver.Environment environment = new SettingsResolver.Environment(variables);
+
+    assertEquals("production", environment.get("com.verymuchme.appconfig.runTimeEnvironment"));
+    assertEquals("production", environment.get("COM_VERYMUCHME_APPCONFIG_RUNTIMEENVIRONMENT"));
+    assertEquals("Exact name wins", "WARN", environment.get("com.verymuchme.appconfig.defaultLoggingLevel"));
+    assertEquals("ERROR", environment.get("com.verymuchme.appconfig.DEFAULTLOGGINGLEVEL"));
+    assertEquals("/usr/bin", environment.get("path"));
+    assertNull(environment.get("com.verymuchme.appconfig.runTimeEnvironments"));
+    assertNull(environment.get("com.verymuchme.appconfig.runTimeEnvironmen"));
+  }
+
+  @Test
+  public void testOptionsThenSystemProperties() {
+    String propertyName = "com.verymuchme.appconfig.test.settingsResolver";
+    System.setProperty(propertyName, "system");
+    try {
+      Options options = new Options();
+      options.put("com.verymuchme.appconfig.test.nullOption", null);
+      assertEquals("system", new SettingsResolver(options).get(propertyName));
+      assertEquals("system", SettingsResolver.resolve(propertyName, null));
+      options.put(propertyName, "option");
+      SettingsResolver settingsResolver = new SettingsResolver(options);
+      assertEquals("option", settingsResolver.get(propertyName));
+      assertEquals("option", SettingsResolver.resolve(propertyName, options));
+
+      // Captured when created
+      System.setProperty(propertyName + ".later", "later");
+      assertNull(settingsResolver.get(propertyName + ".later"));
+      assertNull(settingsResolver.get("com.verymuchme.appconfig.test.nullOption"));
+    }
+    finally {
+      System.clearProperty(propertyName);
+      System.clearProperty(propertyName + ".later");
+    }
+  }
+
+  @Test
+  public void testOptionsOnly() {
+    String propertyName = "com.verymuchme.appconfig.test.settingsResolver";
+    System.setProperty(propertyName, "system");
+    try {
+      Options options = new Options();
+      assertNull(new SettingsResolver(options, false).get(propertyName));
+      assertNull("Environment variables are ignored too", new SettingsResolver(options, false).get("PATH"));
+      options.put(propertyName, "option");
+      assertEquals("option", new SettingsResolver(options, false).get(propertyName));
+    }
+    finally {
+      System.clearProperty(propertyName);
+    }
+  }
+
+}